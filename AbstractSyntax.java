@@ -1,5 +1,6 @@
 // Abstract syntax for the language C++Lite,
 // exactly as it appears in Appendix B.
+import java.nio.*;
 import java.util.*;
 
 class Indenter {
@@ -19,6 +20,7 @@ class Indenter {
 class Program {// Program = Declarations decpart ; Block body
     Declarations decpart;
     Block body;
+    Set<Variable> proven = Collections.emptySet();  // reads DefiniteAssignment proved, by identity
     Program (Declarations d, Block b) {
         decpart = d;
         body = b;
@@ -50,22 +52,35 @@ class Declarations extends ArrayList<Declaration> {
 }//선언부 출력하는 부분
 
 class Declaration {
-    // Declaration = Variable v; Type t
+    // Declaration = Variable v; Type t [; int size]
     Variable v;
     Type t;
+    int size;   // elements of an int[] or float[], 0 for a scalar
 
     Declaration( ) { }
     Declaration (String id, Type type) {
         v = new Variable(id); t = type;
     } // declaration  생성자
 
+    Declaration (String id, Type type, int n) {
+        this(id, type);
+        size = n;
+    }
+
     public void display () {
-       System.out.print("<" + v + ", " + t.getId() + ">");
+       if (t.element() != null)
+           System.out.print("<" + v + ", " + t.element() + "[" + size + "]>");
+       else
+           System.out.print("<" + v + ", " + t.getId() + ">");
     }
 }//선언부 출력하는 부분
 
 class Type {
     // Type = int | bool | char | float
+    // The types form a closed set of canonical instances: the
+    // constructor is private, so two types are equal exactly when they
+    // are the same object.
+
     final static Type INT = new Type("int");
     final static Type BOOL = new Type("bool");
     final static Type FLOAT = new Type("float");
@@ -73,14 +88,50 @@ class Type {
     final static Type VOID = new Type("void");
     final static Type UNDEFINED = new Type("undefined");
     final static Type UNUSED = new Type("unused");
+    final static Type INT_ARRAY = new Type("int[]");
+    final static Type FLOAT_ARRAY = new Type("float[]");
 
-    protected String id;
-    protected Type (String t) { id = t; }
+    protected final String id;
+    private Type (String t) { id = t; }
     public String getId ( ) { return id; }
+    public String toString ( ) { return id; }
+
+    // element type of an array type, or null
+    Type element ( ) {
+        return this == INT_ARRAY ? INT : this == FLOAT_ARRAY ? FLOAT : null;
+    }
+
+    static Type arrayOf (Type element) {
+        if (element == INT) return INT_ARRAY;
+        if (element == FLOAT) return FLOAT_ARRAY;
+        throw new IllegalArgumentException("Illegal array type: " + element + "[]");
+    }
 }//Type 클래스
 
+interface StatementVisitor<R> {
+    // one method per Statement class, selected by Statement.accept
+    R visit (Skip s);
+    R visit (Block b);
+    R visit (Assignment a);
+    R visit (Conditional c);
+    R visit (Loop l);
+}
+
+interface ExpressionVisitor<R> {
+    // one method per Expression class; all Values share visit(Value)
+    R visit (Variable v);
+    R visit (Value v);
+    R visit (Binary b);
+    R visit (Unary u);
+    R visit (ArrayRef r);
+}
+
 abstract class Statement {
     // Statement = Skip | Block | Assignment | Conditional | Loop
+    int line;   // source line of its first token, 0 if unknown
+
+    abstract <R> R accept (StatementVisitor<R> v);
+
     public void display (int level) {
          Indenter indent = new Indenter(level);
          indent.display(getClass().toString().substring(6) + ": ");
@@ -88,6 +139,11 @@ abstract class Statement {
 }//Statement 클래스 , 저장해야할 변수가 없으므로 추상 클래스로 선언한다.
 //Skip, Block, Assignment, Conditional, Loop 클래스는 Statement상속
 class Skip extends Statement {
+    // the else of an if without one; shared, so it never gets a line
+    static final Skip NONE = new Skip( );
+
+    <R> R accept (StatementVisitor<R> v) { return v.visit(this); }
+
     public void display (int level) {
        super.display(level);
     }
@@ -95,7 +151,9 @@ class Skip extends Statement {
 
 class Block extends Statement {
     // Block = Statement*
-    public ArrayList<Statement> members = new ArrayList<Statement>();
+    public List<Statement> members = new ArrayList<Statement>();
+
+    <R> R accept (StatementVisitor<R> v) { return v.visit(this); }
 
     public void display(int level) {
         super.display(level);
@@ -105,8 +163,9 @@ class Block extends Statement {
 }// Block,  { }
 
 class Assignment extends Statement {
-    // Assignment = Variable target; Expression source
+    // Assignment = Variable target; [ArrayRef element;] Expression source
     Variable target;
+    ArrayRef element;   // target[index] = source, if not null; its array is target
     Expression source;
 
     Assignment (Variable t, Expression e) {
@@ -114,9 +173,18 @@ class Assignment extends Statement {
         source = e;
     }//Assignment 생성자
 
+    Assignment (ArrayRef r, Expression e) {
+        this(r.array, e);
+        element = r;
+    }
+
+    <R> R accept (StatementVisitor<R> v) { return v.visit(this); }
+
     public void display (int level) {
        super.display(level);//부모클래스를 display해준다.
        target.display(level+1);
+       if (element != null)
+           element.index.display(level+1);
        source.display(level+1);
     }
 }       //Assignment 는 Statement를 상속 받는다.
@@ -128,13 +196,15 @@ class Conditional extends Statement {
 
 
     Conditional (Expression t, Statement tp) {
-        test = t; thenbranch = tp; elsebranch = new Skip( );
-    } //Conditional 생성자, elsebranch가 없을 경우 Skip객체를 생성한다.
+        test = t; thenbranch = tp; elsebranch = Skip.NONE;
+    } //Conditional 생성자, elsebranch가 없을 경우 공유 Skip객체를 넣는다.
 
     Conditional (Expression t, Statement tp, Statement ep) {
         test = t; thenbranch = tp; elsebranch = ep;
     } //Conditional 생성자
 
+    <R> R accept (StatementVisitor<R> v) { return v.visit(this); }
+
     public void display (int level) {
        super.display(level);
        test.display(level+1);
@@ -153,6 +223,8 @@ class Loop extends Statement {
         test = t; body = b; //loop생성자
     }
 
+    <R> R accept (StatementVisitor<R> v) { return v.visit(this); }
+
     public void display (int level) {
        super.display(level);
        test.display(level+1);
@@ -162,6 +234,7 @@ class Loop extends Statement {
 
 abstract class Expression {
     // Expression = Variable | Value | Binary | Unary
+    abstract <R> R accept (ExpressionVisitor<R> v);
 
     public void display (int level) {
          Indenter indent = new Indenter(level);
@@ -175,9 +248,12 @@ class Variable extends Expression {
 
     Variable (String s) { id = s; } //생성자
 
+    <R> R accept (ExpressionVisitor<R> v) { return v.visit(this); }
+
     public String id( )  { return id; }
     public String toString( ) { return id; }
     public boolean equals (Object obj) {
+        if (!(obj instanceof Variable)) return false;
         String s = ((Variable) obj).id;
         return id.equals(s);
     }
@@ -191,8 +267,11 @@ class Variable extends Expression {
 
 abstract class Value extends Expression {
 // Value = IntValue | BoolValue | CharValue | FloatValue
-    protected Type type;
-    protected boolean undef = true;
+// A Value holds only its datum: its class gives its type, and the undef
+// value of each type is one shared instance.  Values never change, so
+// of() hands out cached ones for small literals.
+
+    <R> R accept (ExpressionVisitor<R> v) { return v.visit(this); }
 
     int intValue ( ) {
         assert false : "should never reach here"; //assert [boolean 식] : 표현식, boolean이 참이면 프로그램을 계속돌리고 아니면 assertion error를 발생시킨다.
@@ -214,33 +293,46 @@ abstract class Value extends Expression {
         return 0.0f;
     }
 
-    boolean isUndef( ) { return undef; }
+    boolean isUndef( ) { return false; }
 
-    Type type ( ) { return type; }
+    abstract Type type ( );
 
     static Value mkValue (Type type) {
-        if (type == Type.INT) return new IntValue( );
-        if (type == Type.BOOL) return new BoolValue( );
-        if (type == Type.CHAR) return new CharValue( );
-        if (type == Type.FLOAT) return new FloatValue( ); //Type이 Int,Bool, Char, Float면 IntValue(), BoolValue(), CharValue(), FloatValue()
+        if (type == Type.INT) return IntValue.UNDEF;
+        if (type == Type.BOOL) return BoolValue.UNDEF;
+        if (type == Type.CHAR) return CharValue.UNDEF;
+        if (type == Type.FLOAT) return FloatValue.UNDEF; //Type이 Int,Bool, Char, Float면 각 타입의 공유 undef 값
         throw new IllegalArgumentException("Illegal type in mkValue");
     }
 } //Expression 을 상속받는 Value 클래스
 
 class IntValue extends Value {
-    private int value = 0;
+    static final IntValue UNDEF = new IntValue(0);
+    private static final IntValue[ ] SMALL = new IntValue[1024 + 128];  // -128..1023
+    static {
+        for (int i = 0; i < SMALL.length; i++)
+            SMALL[i] = new IntValue(i - 128);
+    }
 
-    IntValue ( ) { type = Type.INT; } //생성자
+    private final int value;
 
-    IntValue (int v) { this( ); value = v; undef = false; } //생성자
+    IntValue (int v) { value = v; } //생성자
+
+    static IntValue of (int v) {
+        return v >= -128 && v < 1024 ? SMALL[v + 128] : new IntValue(v);
+    }
+
+    Type type ( ) { return Type.INT; }
+
+    boolean isUndef ( ) { return this == UNDEF; }
 
     int intValue ( ) {
-        assert !undef : "reference to undefined int value";
+        assert this != UNDEF : "reference to undefined int value";
         return value;
     }
 
     public String toString( ) {
-        if (undef)  return "undef";
+        if (this == UNDEF)  return "undef";
         return "" + value;
     }
 
@@ -251,24 +343,31 @@ class IntValue extends Value {
 }
 
 class BoolValue extends Value {
-    private boolean value = false;
+    static final BoolValue UNDEF = new BoolValue(false);
+    static final BoolValue TRUE = new BoolValue(true), FALSE = new BoolValue(false);
+
+    private final boolean value;
 
-    BoolValue ( ) { type = Type.BOOL; }
+    BoolValue (boolean v) { value = v; }
 
-    BoolValue (boolean v) { this( ); value = v; undef = false; }
+    static BoolValue of (boolean v) { return v ? TRUE : FALSE; }
+
+    Type type ( ) { return Type.BOOL; }
+
+    boolean isUndef ( ) { return this == UNDEF; }
 
     boolean boolValue ( ) {
-        assert !undef : "reference to undefined bool value";
+        assert this != UNDEF : "reference to undefined bool value";
         return value;
     }
 
     int intValue ( ) {
-        assert !undef : "reference to undefined bool value";
+        assert this != UNDEF : "reference to undefined bool value";
         return value ? 1 : 0;
     }
 
     public String toString( ) {
-        if (undef)  return "undef";
+        if (this == UNDEF)  return "undef";
         return "" + value;
     }
 
@@ -279,19 +378,32 @@ class BoolValue extends Value {
 }
 
 class CharValue extends Value {
-    private char value = ' ';
+    static final CharValue UNDEF = new CharValue(' ');
+    private static final CharValue[ ] ASCII = new CharValue[128];
+    static {
+        for (char c = 0; c < ASCII.length; c++)
+            ASCII[c] = new CharValue(c);
+    }
+
+    private final char value;
+
+    CharValue (char v) { value = v; }
 
-    CharValue ( ) { type = Type.CHAR; }
+    static CharValue of (char v) {
+        return v < ASCII.length ? ASCII[v] : new CharValue(v);
+    }
+
+    Type type ( ) { return Type.CHAR; }
 
-    CharValue (char v) { this( ); value = v; undef = false; }
+    boolean isUndef ( ) { return this == UNDEF; }
 
     char charValue ( ) {
-        assert !undef : "reference to undefined char value";
+        assert this != UNDEF : "reference to undefined char value";
         return value;
     }
 
     public String toString( ) {
-        if (undef)  return "undef";
+        if (this == UNDEF)  return "undef";
         return "" + value;
     }
 
@@ -302,19 +414,23 @@ class CharValue extends Value {
 }
 
 class FloatValue extends Value {
-    private float value = 0;
+    static final FloatValue UNDEF = new FloatValue(0);
+
+    private final float value;
 
-    FloatValue ( ) { type = Type.FLOAT; }
+    FloatValue (float v) { value = v; }
 
-    FloatValue (float v) { this( ); value = v; undef = false; }
+    Type type ( ) { return Type.FLOAT; }
+
+    boolean isUndef ( ) { return this == UNDEF; }
 
     float floatValue ( ) {
-        assert !undef : "reference to undefined float value";
+        assert this != UNDEF : "reference to undefined float value";
         return value;
     }
 
     public String toString( ) {
-        if (undef)  return "undef";
+        if (this == UNDEF)  return "undef";
         return "" + value;
     }
 
@@ -324,6 +440,56 @@ class FloatValue extends Value {
     }
 }
 
+class ArrayValue extends Value {
+    // The elements of an int[] or float[] variable, off the heap in a
+    // direct buffer of 4-byte slots (float bits for a float[]) rather
+    // than as Value objects.  The buffer starts zeroed, so elements are
+    // never undef.  check reports a bad index as a program error; a
+    // caller that has proven the index in bounds skips it, but the
+    // buffer still range checks every get and set, so nothing outside
+    // the array is ever touched.
+    final int length;
+    private final Type type;
+    private final ByteBuffer data;
+
+    ArrayValue (Type t, int n) {
+        type = t;
+        length = n;
+        data = ByteBuffer.allocateDirect(4 * n).order(ByteOrder.nativeOrder());
+    }
+
+    Type type ( ) { return type; }
+
+    void check (int i) {
+        if (i < 0 || i >= length)
+            throw new ArrayAccessException("array index out of bounds: " + i + " of " + length);
+    }
+
+    int getInt (int i) { return data.getInt(i << 2); }
+    float getFloat (int i) { return data.getFloat(i << 2); }
+    void setInt (int i, int x) { data.putInt(i << 2, x); }
+    void setFloat (int i, float x) { data.putFloat(i << 2, x); }
+
+    Value get (int i) {
+        return type == Type.FLOAT_ARRAY ? new FloatValue(getFloat(i)) : IntValue.of(getInt(i));
+    }
+
+    public String toString( ) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < Math.min(length, 10); i++)
+            sb.append(i > 0 ? ", " : "").append(get(i));
+        return sb.append(length > 10 ? ", ...]" : "]").toString();
+    }
+}
+
+class ArrayAccessException extends RuntimeException {
+    // an array index out of bounds, or an undef index or element at run
+    // time; ends the program being run, not the interpreter's caller
+    private static final long serialVersionUID = 1L;
+
+    ArrayAccessException (String msg) { super(msg); }
+}
+
 class Binary extends Expression {
 // Binary = Operator op; Expression term1, term2
     Operator op;
@@ -333,6 +499,8 @@ class Binary extends Expression {
         op = o; term1 = l; term2 = r;
     } // binary생성자
 
+    <R> R accept (ExpressionVisitor<R> v) { return v.visit(this); }
+
     public void display (int level) {
        super.display(level);
        op.display(level+1);
@@ -347,10 +515,12 @@ class Unary extends Expression {
     Expression term;
 
     Unary (Operator o, Expression e) {
-        op = o.val.equals("-") ? new Operator("neg"): o;
+        op = o == Operator.MINUS ? Operator.NEG : o;
         term = e;
     } // unary
 
+    <R> R accept (ExpressionVisitor<R> v) { return v.visit(this); }
+
     public void display (int level) {
        super.display(level);
        op.display(level+1);
@@ -358,150 +528,206 @@ class Unary extends Expression {
     }
 } // Unary 클래스는 expression을 상속받는다. 앞에 -,! 이 붙는 연산 unary
 
-class Operator {
+class ArrayRef extends Expression {
+    // ArrayRef = Variable array; Expression index
+    Variable array;
+    Expression index;
+    boolean checked = true;     // false where BoundsCheck proved the index in bounds
+
+    ArrayRef (Variable a, Expression i) {
+        array = a; index = i;
+    }
+
+    <R> R accept (ExpressionVisitor<R> v) { return v.visit(this); }
+
+    public String toString( ) {
+        boolean simple = index instanceof Variable || index instanceof Value;
+        return array + "[" + (simple ? index : "...") + "]";
+    }
+
+    public void display (int level) {
+       super.display(level);
+       array.display(level+1);
+       index.display(level+1);
+    }
+}
+
+enum Operator {
     // Operator = BooleanOp | RelationalOp | ArithmeticOp | UnaryOp
+    // Each operator is one canonical instance; its categories are a
+    // bitmask and its typed variants a row of the typed table, so
+    // classifying or mapping an operator allocates and compares nothing.
     // BooleanOp = && | ||
-    final static String AND = "&&";
-    final static String OR = "||";
+    AND("&&", Operator.BOOLEAN, TokenType.And),
+    OR("||", Operator.BOOLEAN, TokenType.Or),
     // RelationalOp = < | <= | == | != | >= | >
-    final static String LT = "<";
-    final static String LE = "<=";
-    final static String EQ = "==";
-    final static String NE = "!=";
-    final static String GT = ">";
-    final static String GE = ">=";
+    LT("<", Operator.RELATIONAL, TokenType.Less),
+    LE("<=", Operator.RELATIONAL, TokenType.LessEqual),
+    EQ("==", Operator.RELATIONAL, TokenType.Equals),
+    NE("!=", Operator.RELATIONAL, TokenType.NotEqual),
+    GT(">", Operator.RELATIONAL, TokenType.Greater),
+    GE(">=", Operator.RELATIONAL, TokenType.GreaterEqual),
     // ArithmeticOp = + | - | * | /
-    final static String PLUS = "+";
-    final static String MINUS = "-";
-    final static String TIMES = "*";
-    final static String DIV = "/";
-    // UnaryOp = !
-    final static String NOT = "!";
-    final static String NEG = "-";
-    // CastOp = int | float | char
-    final static String INT = "int";
-    final static String FLOAT = "float";
-    final static String CHAR = "char";
+    PLUS("+", Operator.ARITHMETIC, TokenType.Plus),
+    MINUS("-", Operator.ARITHMETIC, TokenType.Minus),
+    TIMES("*", Operator.ARITHMETIC, TokenType.Multiply),
+    DIV("/", Operator.ARITHMETIC, TokenType.Divide),
+    // UnaryOp = ! | -   (Unary turns MINUS into NEG)
+    NOT("!", Operator.NOT_OP, TokenType.Not),
+    NEG("neg", Operator.NEGATE, null),
+    // CastOp = int | float | char | bool
+    INT("int", Operator.CAST, TokenType.Int),
+    FLOAT("float", Operator.CAST, TokenType.Float),
+    CHAR("char", Operator.CAST, TokenType.Char),
+    BOOL("bool", Operator.CAST, TokenType.Bool),  // parsed, but rejected by the type checker
     // Typed Operators
     // RelationalOp = < | <= | == | != | >= | >
-    final static String INT_LT = "INT<";
-    final static String INT_LE = "INT<=";
-    final static String INT_EQ = "INT==";
-    final static String INT_NE = "INT!=";
-    final static String INT_GT = "INT>";
-    final static String INT_GE = "INT>=";
+    INT_LT("INT<", Operator.RELATIONAL, null),
+    INT_LE("INT<=", Operator.RELATIONAL, null),
+    INT_EQ("INT==", Operator.RELATIONAL, null),
+    INT_NE("INT!=", Operator.RELATIONAL, null),
+    INT_GT("INT>", Operator.RELATIONAL, null),
+    INT_GE("INT>=", Operator.RELATIONAL, null),
     // ArithmeticOp = + | - | * | /
-    final static String INT_PLUS = "INT+";
-    final static String INT_MINUS = "INT-";
-    final static String INT_TIMES = "INT*";
-    final static String INT_DIV = "INT/";
-    // UnaryOp = !
-    final static String INT_NEG = "-";
+    INT_PLUS("INT+", Operator.ARITHMETIC, null),
+    INT_MINUS("INT-", Operator.ARITHMETIC, null),
+    INT_TIMES("INT*", Operator.ARITHMETIC, null),
+    INT_DIV("INT/", Operator.ARITHMETIC, null),
+    // UnaryOp = -
+    INT_NEG("-", Operator.NEGATE, null),
     // RelationalOp = < | <= | == | != | >= | >
-    final static String FLOAT_LT = "FLOAT<";
-    final static String FLOAT_LE = "FLOAT<=";
-    final static String FLOAT_EQ = "FLOAT==";
-    final static String FLOAT_NE = "FLOAT!=";
-    final static String FLOAT_GT = "FLOAT>";
-    final static String FLOAT_GE = "FLOAT>=";
+    FLOAT_LT("FLOAT<", Operator.RELATIONAL, null),
+    FLOAT_LE("FLOAT<=", Operator.RELATIONAL, null),
+    FLOAT_EQ("FLOAT==", Operator.RELATIONAL, null),
+    FLOAT_NE("FLOAT!=", Operator.RELATIONAL, null),
+    FLOAT_GT("FLOAT>", Operator.RELATIONAL, null),
+    FLOAT_GE("FLOAT>=", Operator.RELATIONAL, null),
     // ArithmeticOp = + | - | * | /
-    final static String FLOAT_PLUS = "FLOAT+";
-    final static String FLOAT_MINUS = "FLOAT-";
-    final static String FLOAT_TIMES = "FLOAT*";
-    final static String FLOAT_DIV = "FLOAT/";
-    // UnaryOp = !
-    final static String FLOAT_NEG = "-";
+    FLOAT_PLUS("FLOAT+", Operator.ARITHMETIC, null),
+    FLOAT_MINUS("FLOAT-", Operator.ARITHMETIC, null),
+    FLOAT_TIMES("FLOAT*", Operator.ARITHMETIC, null),
+    FLOAT_DIV("FLOAT/", Operator.ARITHMETIC, null),
+    // UnaryOp = -
+    FLOAT_NEG("-", Operator.NEGATE, null),
     // RelationalOp = < | <= | == | != | >= | >
-    final static String CHAR_LT = "CHAR<";
-    final static String CHAR_LE = "CHAR<=";
-    final static String CHAR_EQ = "CHAR==";
-    final static String CHAR_NE = "CHAR!=";
-    final static String CHAR_GT = "CHAR>";
-    final static String CHAR_GE = "CHAR>=";
+    CHAR_LT("CHAR<", Operator.RELATIONAL, null),
+    CHAR_LE("CHAR<=", Operator.RELATIONAL, null),
+    CHAR_EQ("CHAR==", Operator.RELATIONAL, null),
+    CHAR_NE("CHAR!=", Operator.RELATIONAL, null),
+    CHAR_GT("CHAR>", Operator.RELATIONAL, null),
+    CHAR_GE("CHAR>=", Operator.RELATIONAL, null),
     // RelationalOp = < | <= | == | != | >= | >
-    final static String BOOL_LT = "BOOL<";
-    final static String BOOL_LE = "BOOL<=";
-    final static String BOOL_EQ = "BOOL==";
-    final static String BOOL_NE = "BOOL!=";
-    final static String BOOL_GT = "BOOL>";
-    final static String BOOL_GE = "BOOL>=";
+    BOOL_LT("BOOL<", Operator.RELATIONAL, null),
+    BOOL_LE("BOOL<=", Operator.RELATIONAL, null),
+    BOOL_EQ("BOOL==", Operator.RELATIONAL, null),
+    BOOL_NE("BOOL!=", Operator.RELATIONAL, null),
+    BOOL_GT("BOOL>", Operator.RELATIONAL, null),
+    BOOL_GE("BOOL>=", Operator.RELATIONAL, null),
     // Type specific cast
-    final static String I2F = "I2F";
-    final static String F2I = "F2I";
-    final static String C2I = "C2I";
-    final static String I2C = "I2C";
+    I2F("I2F", Operator.CAST, null),
+    F2I("F2I", Operator.CAST, null),
+    C2I("C2I", Operator.CAST, null),
+    I2C("I2C", Operator.CAST, null);
 
-    String val;
+    // category bits
+    static final int BOOLEAN = 1, RELATIONAL = 2, ARITHMETIC = 4,
+        NOT_OP = 8, NEGATE = 16, CAST = 32;
 
-    Operator (String s) { val = s; }
+    // columns of the typed table
+    static final int INT_MAP = 0, FLOAT_MAP = 1, CHAR_MAP = 2, BOOL_MAP = 3;
+
+    final String val;
+    final int mask;
+    private final TokenType token;
+    private Operator untyped;       // of a typed operator, the one it maps
+    private Type operand;           // of a typed operator, its column's type
+
+    Operator (String s, int m, TokenType t) { val = s; mask = m; token = t; }
 
     public String toString( ) { return val; }
-    public boolean equals(Object obj) { return val.equals(obj); }
-
-    boolean BooleanOp ( ) { return val.equals(AND) || val.equals(OR); }
-    boolean RelationalOp ( ) {
-        return val.equals(LT) || val.equals(LE) || val.equals(EQ)
-            || val.equals(NE) || val.equals(GT) || val.equals(GE);
-    }
-    boolean ArithmeticOp ( ) {
-        return val.equals(PLUS) || val.equals(MINUS)
-            || val.equals(TIMES) || val.equals(DIV);
-    }
-    boolean NotOp ( ) { return val.equals(NOT) ; }
-    boolean NegateOp ( ) { return val.equals(NEG) ; }
-    boolean intOp ( ) { return val.equals(INT); }
-    boolean floatOp ( ) { return val.equals(FLOAT); }
-    boolean charOp ( ) { return val.equals(CHAR); }
-
-    final static String intMap[ ] [ ] = {
-        {PLUS, INT_PLUS}, {MINUS, INT_MINUS},
-        {TIMES, INT_TIMES}, {DIV, INT_DIV},
-        {EQ, INT_EQ}, {NE, INT_NE}, {LT, INT_LT},
-        {LE, INT_LE}, {GT, INT_GT}, {GE, INT_GE},
-        {NEG, INT_NEG}, {FLOAT, I2F}, {CHAR, I2C}
-    };
-
-    final static String floatMap[ ] [ ] = {
-        {PLUS, FLOAT_PLUS}, {MINUS, FLOAT_MINUS},
-        {TIMES, FLOAT_TIMES}, {DIV, FLOAT_DIV},
-        {EQ, FLOAT_EQ}, {NE, FLOAT_NE}, {LT, FLOAT_LT},
-        {LE, FLOAT_LE}, {GT, FLOAT_GT}, {GE, FLOAT_GE},
-        {NEG, FLOAT_NEG}, {INT, F2I}
-    };
-
-    final static String charMap[ ] [ ] = {
-        {EQ, CHAR_EQ}, {NE, CHAR_NE}, {LT, CHAR_LT},
-        {LE, CHAR_LE}, {GT, CHAR_GT}, {GE, CHAR_GE},
-        {INT, C2I}
-    };
-
-    final static String boolMap[ ] [ ] = {
-        {EQ, BOOL_EQ}, {NE, BOOL_NE}, {LT, BOOL_LT},
-        {LE, BOOL_LE}, {GT, BOOL_GT}, {GE, BOOL_GE},
-    };
-
-    final static private Operator map (String[][] tmap, String op) {
-        for (int i = 0; i < tmap.length; i++)
-            if (tmap[i][0].equals(op))
-                return new Operator(tmap[i][1]);
-        assert false : "should never reach here";
-        return null;
+
+    boolean BooleanOp ( ) { return (mask & BOOLEAN) != 0; }
+    boolean RelationalOp ( ) { return (mask & RELATIONAL) != 0; }
+    boolean ArithmeticOp ( ) { return (mask & ARITHMETIC) != 0; }
+    boolean NotOp ( ) { return this == NOT; }
+    boolean NegateOp ( ) { return (mask & NEGATE) != 0; }
+    boolean intOp ( ) { return this == INT; }
+    boolean floatOp ( ) { return this == FLOAT; }
+    boolean charOp ( ) { return this == CHAR; }
+
+    // the operator a typed one was mapped from, or null if it is not typed
+    Operator untyped ( ) { return untyped; }
+
+    // the operand type a typed operator was mapped for, or null
+    Type operandType ( ) { return operand; }
+
+    // the source spelling, typed or not: INT+ is +, I2F is float
+    String symbol ( ) {
+        if (untyped != null) return untyped.symbol();
+        return this == NEG ? "-" : val;
+    }
+
+    private static final Operator[ ] byToken = new Operator[TokenType.values().length];
+    private static final Operator[ ][ ] typed = new Operator[values().length][4];
+
+    private static void map (int column, Operator... pairs) {
+        Type type = column == INT_MAP ? Type.INT : column == FLOAT_MAP ? Type.FLOAT
+                  : column == CHAR_MAP ? Type.CHAR : Type.BOOL;
+        for (int i = 0; i < pairs.length; i += 2) {
+            typed[pairs[i].ordinal()][column] = pairs[i+1];
+            pairs[i+1].untyped = pairs[i];
+            pairs[i+1].operand = type;
+        }
+    }
+
+    static {
+        for (Operator op : values())
+            if (op.token != null)
+                byToken[op.token.ordinal()] = op;
+        map(INT_MAP,
+            PLUS, INT_PLUS, MINUS, INT_MINUS,
+            TIMES, INT_TIMES, DIV, INT_DIV,
+            EQ, INT_EQ, NE, INT_NE, LT, INT_LT,
+            LE, INT_LE, GT, INT_GT, GE, INT_GE,
+            NEG, INT_NEG, FLOAT, I2F, CHAR, I2C);
+        map(FLOAT_MAP,
+            PLUS, FLOAT_PLUS, MINUS, FLOAT_MINUS,
+            TIMES, FLOAT_TIMES, DIV, FLOAT_DIV,
+            EQ, FLOAT_EQ, NE, FLOAT_NE, LT, FLOAT_LT,
+            LE, FLOAT_LE, GT, FLOAT_GT, GE, FLOAT_GE,
+            NEG, FLOAT_NEG, INT, F2I);
+        map(CHAR_MAP,
+            EQ, CHAR_EQ, NE, CHAR_NE, LT, CHAR_LT,
+            LE, CHAR_LE, GT, CHAR_GT, GE, CHAR_GE,
+            INT, C2I);
+        map(BOOL_MAP,
+            EQ, BOOL_EQ, NE, BOOL_NE, LT, BOOL_LT,
+            LE, BOOL_LE, GT, BOOL_GT, GE, BOOL_GE);
+    }
+
+    // the operator a token stands for, or null
+    static Operator of (TokenType t) { return byToken[t.ordinal()]; }
+
+    final static public Operator map (Operator op, int column) {
+        Operator t = typed[op.ordinal()][column];
+        assert t != null : "should never reach here";
+        return t;
     }
 
-    final static public Operator intMap (String op) {
-        return map (intMap, op);
+    final static public Operator intMap (Operator op) {
+        return map (op, INT_MAP);
     }
 
-    final static public Operator floatMap (String op) {
-        return map (floatMap, op);
+    final static public Operator floatMap (Operator op) {
+        return map (op, FLOAT_MAP);
     }
 
-    final static public Operator charMap (String op) {
-        return map (charMap, op);
+    final static public Operator charMap (Operator op) {
+        return map (op, CHAR_MAP);
     }
 
-    final static public Operator boolMap (String op) {
-        return map (boolMap, op);
+    final static public Operator boolMap (Operator op) {
+        return map (op, BOOL_MAP);
     }
 
     public void display (int level) {
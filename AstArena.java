@@ -0,0 +1,333 @@
+import java.util.*;
+
+// Struct-of-arrays form of the abstract syntax.  Node n is described by
+// kind[n], opcode[n] and operand[n], six bytes, instead of by one heap
+// object.  Nodes are added children first, so the last child of a
+// Binary, Unary, ArrayRef or Assignment is the node just before it and
+// needs no column.  A statement's operand is its run in the shared list
+// array: its source offset, then its fields.
+//
+//   kind         opcode      operand     list run
+//   PROGRAM      -           run         offset DECLS BLOCK
+//   DECLS        -           run         offset count DECLARATION...
+//   DECLARATION  type        run         offset name size
+//   SKIP         -           run         offset
+//   BLOCK        -           run         offset count statement...
+//   ASSIGNMENT   element     run         offset name or ARRAYREF
+//                                        (source is n - 1)
+//   CONDITIONAL  -           run         offset test then else
+//   LOOP         -           run         offset test body
+//   VARIABLE     -           name
+//   VALUE        type        value bits
+//   BINARY       operator    term1       (term2 is n - 1)
+//   UNARY        operator    -           (term is n - 1)
+//   ARRAYREF     checked     name        (index is n - 1)
+//
+// A DECLARATION's type is the element type of an array, whose size is
+// then above 0; an ASSIGNMENT to an element has element 1 and its
+// ARRAYREF in place of the name.  Parser given an arena adds each
+// statement as soon as it is parsed, so the objects of one statement
+// are garbage once it is here; expressions have no offset but their
+// statement's.  The Program it returns is a view: a Block builds a
+// member from the arena the first time it is asked for and keeps it, so
+// passes such as StaticTypeCheck, DefiniteAssignment and BoundsCheck
+// run on it unchanged, their annotations stay on the nodes they made
+// them on, and a second traversal allocates nothing.  Only what has
+// been traversed is held as objects, next to the arena; main measures
+// both against the tree Parser builds without one.  Views have no line.
+// Usage: java AstArena prog.c
+
+public class AstArena {
+
+    static final int PROGRAM = 0, DECLS = 1, DECLARATION = 2, SKIP = 3,
+        BLOCK = 4, ASSIGNMENT = 5, CONDITIONAL = 6, LOOP = 7,
+        VARIABLE = 8, VALUE = 9, BINARY = 10, UNARY = 11, ARRAYREF = 12;
+
+    static final Type[ ] TYPES = { Type.INT, Type.BOOL, Type.CHAR, Type.FLOAT };
+
+    static final Operator[ ] OPERATORS = Operator.values();
+
+    byte[ ] kind, opcode;
+    int[ ] operand;
+    int size = 0;
+    int[ ] list = new int[16];
+    int listSize = 0;
+    private int[ ] scratch = new int[64];   // members of the Blocks being parsed
+    private int top = 0;
+
+    private ArrayList<String> names = new ArrayList<String>();
+    private Map<String, Integer> nameIndex = new HashMap<String, Integer>();
+
+    public AstArena ( ) { this(256); }
+
+    public AstArena (int capacity) {
+        kind = new byte[capacity];
+        opcode = new byte[capacity];
+        operand = new int[capacity];
+    }
+
+    int add (int k, int op, int v) {
+        if (size == kind.length) {
+            int n = Math.max(size * 2, 16);
+            kind = Arrays.copyOf(kind, n);
+            opcode = Arrays.copyOf(opcode, n);
+            operand = Arrays.copyOf(operand, n);
+        }
+        kind[size] = (byte)k;
+        opcode[size] = (byte)op;
+        operand[size] = v;
+        return size++;
+    }
+
+    // a statement node of kind k whose run is off, then fields
+    int addRun (int k, int op, int off, int... fields) {
+        if (listSize + 1 + fields.length > list.length)
+            list = Arrays.copyOf(list, Math.max(list.length * 2, listSize + 1 + fields.length));
+        int first = listSize;
+        list[listSize++] = off;
+        System.arraycopy(fields, 0, list, listSize, fields.length);
+        listSize += fields.length;
+        return add(k, op, first);
+    }
+
+    // a BLOCK or DECLS node of nodes[from..from+count)
+    int addMembers (int k, int[ ] nodes, int from, int count, int off) {
+        if (listSize + 2 + count > list.length)
+            list = Arrays.copyOf(list, Math.max(list.length * 2, listSize + 2 + count));
+        int first = listSize;
+        list[listSize++] = off;
+        list[listSize++] = count;
+        System.arraycopy(nodes, from, list, listSize, count);
+        listSize += count;
+        return add(k, 0, first);
+    }
+
+    int name (String id) {
+        Integer i = nameIndex.get(id);
+        if (i == null) {
+            i = names.size();
+            names.add(id);
+            nameIndex.put(id, i);
+        }
+        return i;
+    }
+
+    String name (int n) { return names.get(n); }
+
+    static int typeCode (Type t) {
+        for (int i = 0; i < TYPES.length; i++)
+            if (TYPES[i] == t)
+                return i;
+        throw new IllegalArgumentException("Illegal type in typeCode");
+    }
+
+    static int opcode (Operator op) { return op.ordinal(); }
+
+    // the i-th field of a statement node; field 0 is its offset
+    int field (int node, int i) { return list[operand[node] + i]; }
+
+    // the number of members of a BLOCK or DECLS node, and the n-th
+    int count (int node) { return field(node, 1); }
+    int member (int node, int n) { return field(node, 2 + n); }
+
+    // Building, for Parser.  A Block's members are pushed as they are
+    // parsed and become one run when it ends; nested Blocks push above
+    // the mark of the enclosing one.
+
+    int mark ( ) { return top; }
+
+    void push (int node) {
+        if (top == scratch.length)
+            scratch = Arrays.copyOf(scratch, Math.max(top * 2, 64));
+        scratch[top++] = node;
+    }
+
+    // the Block of the nodes pushed since mark
+    Block block (int mark, int off) {
+        int node = addMembers(BLOCK, scratch, mark, top - mark, off);
+        top = mark;
+        return new View(node);
+    }
+
+    int program (Declarations ds, Block b, int off) {
+        int[ ] d = new int[ds.size()];
+        for (int i = 0; i < d.length; i++) {
+            Declaration decl = ds.get(i);
+            Type t = decl.t.element() != null ? decl.t.element() : decl.t;
+            d[i] = addRun(DECLARATION, typeCode(t), off, name(decl.v.id()), decl.size);
+        }
+        int decls = addMembers(DECLS, d, 0, d.length, off);
+        int root = addRun(PROGRAM, 0, off, decls, statement(b, off));
+        trimToSize();
+        return root;
+    }
+
+    // drops the room left for growth and the parser's tables, once the
+    // program is complete
+    void trimToSize ( ) {
+        kind = Arrays.copyOf(kind, size);
+        opcode = Arrays.copyOf(opcode, size);
+        operand = Arrays.copyOf(operand, size);
+        list = Arrays.copyOf(list, listSize);
+        names.trimToSize();
+        nameIndex = null;
+        scratch = null;
+    }
+
+    int statement (Statement s, int off) {
+        if (s instanceof View)
+            return ((View)s).node;
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            int target = a.element != null ? expression(a.element) : name(a.target.id());
+            expression(a.source);
+            return addRun(ASSIGNMENT, a.element != null ? 1 : 0, off, target);
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            int test = expression(c.test);
+            int then = statement(c.thenbranch, off);
+            return addRun(CONDITIONAL, 0, off, test, then, statement(c.elsebranch, off));
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop)s;
+            int test = expression(l.test);
+            return addRun(LOOP, 0, off, test, statement(l.body, off));
+        }
+        if (s instanceof Block) {   // not built here, such as a LazyBlock
+            List<Statement> members = ((Block)s).members;
+            int[ ] m = new int[members.size()];
+            for (int i = 0; i < m.length; i++)
+                m[i] = statement(members.get(i), off);
+            return addMembers(BLOCK, m, 0, m.length, off);
+        }
+        return addRun(SKIP, 0, off);
+    }
+
+    int expression (Expression e) {
+        if (e instanceof Variable)
+            return add(VARIABLE, 0, name(((Variable)e).id()));
+        if (e instanceof Value) {
+            Value v = (Value)e;
+            Type t = v.type();
+            int bits = t == Type.INT ? v.intValue()
+                : t == Type.FLOAT ? Float.floatToIntBits(v.floatValue())
+                : t == Type.CHAR ? v.charValue()
+                : v.boolValue() ? 1 : 0;
+            return add(VALUE, typeCode(t), bits);
+        }
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            int term1 = expression(b.term1);
+            expression(b.term2);
+            return add(BINARY, opcode(b.op), term1);
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            expression(u.term);
+            return add(UNARY, opcode(u.op), 0);
+        }
+        ArrayRef r = (ArrayRef)e;
+        expression(r.index);
+        return add(ARRAYREF, r.checked ? 1 : 0, name(r.array.id()));
+    }
+
+    // Viewing
+
+    // a Block whose members are built from the arena when first read
+    private final class View extends Block {
+        final int node;
+        private final Statement[ ] built;
+
+        View (int n) {
+            node = n;
+            built = new Statement[count(n)];
+            members = new AbstractList<Statement>() {
+                public Statement get (int i) {
+                    Statement s = built[i];
+                    return s != null ? s : (built[i] = statement(member(node, i)));
+                }
+                public Statement set (int i, Statement s) {
+                    Statement old = get(i);
+                    built[i] = s;
+                    return old;
+                }
+                public int size ( ) { return built.length; }
+            };
+        }
+    }
+
+    public Program program (int node) {
+        return new Program(declarations(field(node, 1)), (Block)statement(field(node, 2)));
+    }
+
+    public Declarations declarations (int node) {
+        Declarations ds = new Declarations();
+        for (int i = 0; i < count(node); i++) {
+            int d = member(node, i);
+            Type t = TYPES[opcode[d]];
+            String id = name(field(d, 1));
+            int n = field(d, 2);
+            ds.add(n > 0 ? new Declaration(id, Type.arrayOf(t), n) : new Declaration(id, t));
+        }
+        return ds;
+    }
+
+    public Statement statement (int node) {
+        switch (kind[node]) {
+        case SKIP:
+            return Skip.NONE;
+        case BLOCK:
+            return new View(node);
+        case ASSIGNMENT:
+            Expression source = expression(node - 1);
+            if (opcode[node] != 0)
+                return new Assignment((ArrayRef)expression(field(node, 1)), source);
+            return new Assignment(new Variable(name(field(node, 1))), source);
+        case CONDITIONAL:
+            return new Conditional(expression(field(node, 1)),
+                                   statement(field(node, 2)), statement(field(node, 3)));
+        case LOOP:
+            return new Loop(expression(field(node, 1)), statement(field(node, 2)));
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    public Expression expression (int node) {
+        switch (kind[node]) {
+        case VARIABLE:
+            return new Variable(name(operand[node]));
+        case VALUE:
+            Type t = TYPES[opcode[node]];
+            int p = operand[node];
+            if (t == Type.INT) return IntValue.of(p);
+            if (t == Type.BOOL) return BoolValue.of(p != 0);
+            if (t == Type.CHAR) return CharValue.of((char)p);
+            return new FloatValue(Float.intBitsToFloat(p));
+        case BINARY:
+            return new Binary(OPERATORS[opcode[node]],
+                              expression(operand[node]), expression(node - 1));
+        case UNARY:
+            return new Unary(OPERATORS[opcode[node]], expression(node - 1));
+        case ARRAYREF:
+            ArrayRef r = new ArrayRef(new Variable(name(operand[node])), expression(node - 1));
+            r.checked = opcode[node] != 0;
+            return r;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    public static void main(String args[]) {
+        AstArena arena = new AstArena();
+        Parser parser = new Parser(new Lexer(args[0]));
+        parser.arena = arena;
+        Program prog = parser.program();    // a view of the arena
+        long bytes = AstFootprint.measure(arena).bytes;
+        long tree = AstFootprint.measure(new Parser(new Lexer(args[0])).program()).bytes;
+        prog.display();     // builds every statement
+        System.out.println("\n" + arena.size + " nodes, " + bytes + " bytes in arena, "
+                           + tree + " bytes as a tree, "
+                           + AstFootprint.measure(prog).bytes + " bytes once displayed");
+    } //main
+
+} // class AstArena
@@ -0,0 +1,230 @@
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Heap retained by the abstract syntax of a parsed C++Lite program, per
+// class.  Every object reachable from the Program is visited once and
+// its size taken from the running JVM's own layout (the field offsets
+// and array scales Unsafe reports, rounded up to the 8-byte object
+// alignment), so the numbers hold for its header size and compressed
+// references.  Unsafe is looked up by name and called through method
+// handles, as JOL does, so only the helpers below depend on it.
+// Objects reachable from a static field (the Types, the Operators, the
+// shared undef values, cached literals and Skip.NONE) belong to every
+// program and are not counted.  A full, not lazy, parse is measured;
+// the heap grown by keeping the Program, after a GC, is printed as a
+// cross-check.
+// Usage: java AstFootprint [file | statements]
+
+public class AstFootprint {
+
+    private static final MethodHandle FIELD_OFFSET, BASE_OFFSET, INDEX_SCALE,
+        GET_OBJECT, STATIC_BASE, STATIC_OFFSET;
+    static {
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            Object unsafe = f.get(null);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            FIELD_OFFSET = lookup.findVirtual(c, "objectFieldOffset",
+                                              MethodType.methodType(long.class, Field.class)).bindTo(unsafe);
+            BASE_OFFSET = lookup.findVirtual(c, "arrayBaseOffset",
+                                             MethodType.methodType(int.class, Class.class)).bindTo(unsafe);
+            INDEX_SCALE = lookup.findVirtual(c, "arrayIndexScale",
+                                             MethodType.methodType(int.class, Class.class)).bindTo(unsafe);
+            GET_OBJECT = lookup.findVirtual(c, "getObject",
+                                            MethodType.methodType(Object.class, Object.class, long.class)).bindTo(unsafe);
+            STATIC_BASE = lookup.findVirtual(c, "staticFieldBase",
+                                             MethodType.methodType(Object.class, Field.class)).bindTo(unsafe);
+            STATIC_OFFSET = lookup.findVirtual(c, "staticFieldOffset",
+                                               MethodType.methodType(long.class, Field.class)).bindTo(unsafe);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Unsafe's methods; they throw nothing checked, so anything else is a bug
+
+    private static long fieldOffset (Field f) {
+        try { return (long)FIELD_OFFSET.invokeExact(f); }
+        catch (Throwable t) { throw new IllegalStateException(t); }
+    }
+
+    private static int baseOffset (Class<?> c) {
+        try { return (int)BASE_OFFSET.invokeExact(c); }
+        catch (Throwable t) { throw new IllegalStateException(t); }
+    }
+
+    private static int indexScale (Class<?> c) {
+        try { return (int)INDEX_SCALE.invokeExact(c); }
+        catch (Throwable t) { throw new IllegalStateException(t); }
+    }
+
+    private static Object getObject (Object o, long offset) {
+        try { return (Object)GET_OBJECT.invokeExact(o, offset); }
+        catch (Throwable t) { throw new IllegalStateException(t); }
+    }
+
+    private static Object getStatic (Field f) {
+        try { return getObject((Object)STATIC_BASE.invokeExact(f), (long)STATIC_OFFSET.invokeExact(f)); }
+        catch (Throwable t) { throw new IllegalStateException(t); }
+    }
+
+    private static final int HEADER = baseOffset(int[ ].class) - 4;    // without the length
+
+    static final class Row {
+        long count, bytes;
+    }
+
+    private static final class Layout {
+        final long size;
+        final long[ ] references;   // offsets of the instance reference fields
+
+        Layout (long s, long[ ] r) { size = s; references = r; }
+    }
+
+    private final HashMap<Class<?>, Layout> layouts = new HashMap<Class<?>, Layout>();
+    private final Set<Object> shared = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    private final Set<Class<?>> statics = new HashSet<Class<?>>();
+    final TreeMap<String, Row> rows = new TreeMap<String, Row>();
+    long objects = 0, bytes = 0;
+
+    private static long align (long n) { return (n + 7) & ~7L; }
+
+    private Layout layout (Class<?> c) {
+        Layout l = layouts.get(c);
+        if (l != null) return l;
+        long end = HEADER;
+        ArrayList<Long> references = new ArrayList<Long>();
+        for (Class<?> k = c; k != null; k = k.getSuperclass())
+            for (Field f : k.getDeclaredFields()) {
+                if (Modifier.isStatic(f.getModifiers())) continue;
+                long offset = fieldOffset(f);
+                end = Math.max(end, offset + size(f.getType()));
+                if (!f.getType().isPrimitive())
+                    references.add(offset);
+            }
+        long[ ] r = new long[references.size()];
+        for (int i = 0; i < r.length; i++)
+            r[i] = references.get(i);
+        l = new Layout(align(end), r);
+        layouts.put(c, l);
+        return l;
+    }
+
+    private static int size (Class<?> t) {
+        if (t == long.class || t == double.class) return 8;
+        if (t == int.class || t == float.class) return 4;
+        if (t == short.class || t == char.class) return 2;
+        if (t == byte.class || t == boolean.class) return 1;
+        return indexScale(Object[ ].class);     // a reference
+    }
+
+    private static long arraySize (Object a) {
+        Class<?> c = a.getClass();
+        return align(baseOffset(c) + (long)Array.getLength(a) * indexScale(c));
+    }
+
+    // whatever the static fields of c and its superclasses reach is shared
+    private void statics (Class<?> c) {
+        for (Class<?> k = c; k != null && statics.add(k); k = k.getSuperclass())
+            for (Field f : k.getDeclaredFields())
+                if (Modifier.isStatic(f.getModifiers()) && !f.getType().isPrimitive())
+                    walk(getStatic(f), shared, false);
+    }
+
+    // visits everything o reaches that is not in seen; counts it if asked
+    private void walk (Object o, Set<Object> seen, boolean count) {
+        ArrayDeque<Object> work = new ArrayDeque<Object>();
+        if (o != null) work.push(o);
+        while (!work.isEmpty()) {
+            Object x = work.pop();
+            Class<?> c = x.getClass();
+            if (x instanceof Class || c.isEnum() || seen.contains(x) || count && shared.contains(x))
+                continue;
+            if (count) {
+                statics(c);
+                if (shared.contains(x)) continue;
+            }
+            seen.add(x);
+            long size;
+            if (c.isArray()) {
+                size = arraySize(x);
+                if (!c.getComponentType().isPrimitive())
+                    for (Object e : (Object[ ])x)
+                        if (e != null) work.push(e);
+            } else {
+                Layout l = layout(c);
+                size = l.size;
+                for (long offset : l.references) {
+                    Object e = getObject(x, offset);
+                    if (e != null) work.push(e);
+                }
+            }
+            if (count) {
+                Row r = rows.computeIfAbsent(c.isArray() ? c.getComponentType().getSimpleName() + "[]"
+                                                         : c.getName(), k -> new Row());
+                r.count++;
+                r.bytes += size;
+                objects++;
+                bytes += size;
+            }
+        }
+    }
+
+    // what root retains; a Program, or anything else that holds one
+    public static AstFootprint measure (Object root) {
+        AstFootprint f = new AstFootprint();
+        f.walk(root, Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()), true);
+        return f;
+    }
+
+    // statements of every kind, int, float and char literals, ifs with and without an else
+    static String generate (int statements) {
+        StringBuilder sb = new StringBuilder("int main(){\n\tint x, y, i, n;\n\tfloat f;\n\tchar c;\n\tbool b;\n")
+            .append("\tx = 0;\n\ty = 1;\n\tf = 0.5;\n\tc = 'a';\n\tb = x < 1;\n");
+        for (int i = 0; i < statements; i += 8) {
+            sb.append("\tn = ").append(i % 1000).append(";\n\ti = 0;\n")
+              .append("\twhile (i < n) {\n\t\tx = x + y * (i - 3) / 2;\n")
+              .append("\t\tif (x > 1000 && b) {\n\t\t\tx = x - 1000;\n\t\t}\n")
+              .append("\t\tif (c == 'a') {\n\t\t\tf = f * 1.5 + 0.25;\n\t\t} else {\n")
+              .append("\t\t\tc = 'b';\n\t\t}\n\t\ti = i + 1;\n\t}\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    static long used ( ) {
+        Runtime r = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return r.totalMemory() - r.freeMemory();
+    }
+
+    public static void main (String args[]) throws Exception {
+        byte[ ] source = args.length > 0 && !args[0].matches("\\d+")
+            ? Files.readAllBytes(Paths.get(args[0]))
+            : generate(args.length > 0 ? Integer.parseInt(args[0]) : 100000)
+                  .getBytes(StandardCharsets.US_ASCII);
+        new Parser(new SourceLexer(source, 0)).program();   // loads the classes
+        long before = used();
+        Program p = new Parser(new SourceLexer(source, 0)).program();
+        long heap = used() - before;
+        AstFootprint f = measure(p);
+        System.out.printf("%-20s %10s %12s %8s%n", "class", "objects", "bytes", "each");
+        for (Map.Entry<String, Row> e : f.rows.entrySet()) {
+            Row r = e.getValue();
+            System.out.printf("%-20s %10d %12d %8.1f%n", e.getKey(), r.count, r.bytes,
+                              (double)r.bytes / r.count);
+        }
+        double mb = source.length / (1024.0 * 1024.0);
+        System.out.printf("%-20s %10d %12d%n", "total", f.objects, f.bytes);
+        System.out.printf("source %.2f MB: %.1f MB of syntax per MB of source, %.1f bytes per source byte%n",
+                          mb, f.bytes / (1024.0 * 1024.0) / mb, (double)f.bytes / source.length);
+        System.out.printf("heap grown by the program after GC: %.1f MB%n", heap / (1024.0 * 1024.0));
+        Objects.requireNonNull(p.body);     // keeps p reachable until here
+    } // main
+
+} // class AstFootprint
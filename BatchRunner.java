@@ -0,0 +1,205 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs many checked C++Lite programs at once, each in its own State and
+// with its own fuel: a budget of loop iterations and Block entries.
+// The interpreter takes one unit at every Loop back-edge and Block
+// entry, a decrement and a compare; when the fuel is gone the program
+// stops with OUT_OF_FUEL, so a while loop that never ends costs its
+// budget and no more.  Every 1024 units it also looks at its thread's
+// interrupt flag, so Future.cancel(true) stops a program cleanly.  A
+// run-time error (undef value, division by zero, array index out of
+// bounds) fails the program instead of exiting the JVM.
+// Programs run on a fixed pool of platform threads, one per program at
+// a time; the interpreter never blocks, so more threads than cores
+// would not run more programs.
+// Usage: java BatchRunner [programs] [threads] [fuel]
+
+public class BatchRunner implements AutoCloseable {
+
+    enum Status { DONE, OUT_OF_FUEL, CANCELLED, FAILED }
+
+    static final class Result {
+        final Status status;
+        final State state;      // final State if DONE
+        final long fuel;        // fuel used
+        final long latency;     // nanoseconds from submit to finish
+        final long run;         // nanoseconds of that running
+        final String error;
+
+        Result (Status s, State st, long f, long l, long r, String e) {
+            status = s; state = st; fuel = f; latency = l; run = r; error = e;
+        }
+
+        public String toString ( ) {
+            return status + (error != null ? " (" + error + ")" : "") + ", fuel " + fuel
+                + (state != null ? ", " + state.entrySet() : "");
+        }
+    }
+
+    // thrown to unwind a metered run; no stack trace is filled in
+    private static final class Stop extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final Status status;
+
+        Stop (Status s, String message) {
+            super(message, null, false, false);
+            status = s;
+        }
+    }
+
+    private static final Stop OUT_OF_FUEL = new Stop(Status.OUT_OF_FUEL, null);
+    private static final Stop CANCELLED = new Stop(Status.CANCELLED, null);
+
+    static final class Metered extends Semantics {
+        private long fuel;
+
+        Metered (long fuel) { this.fuel = fuel; }
+
+        long fuel ( ) { return fuel; }
+
+        private void burn ( ) {
+            if (--fuel < 0)
+                throw OUT_OF_FUEL;
+            if ((fuel & 1023) == 0 && Thread.currentThread().isInterrupted())
+                throw CANCELLED;
+        }
+
+        State M (Block b, State state) {
+            burn();
+            return super.M(b, state);
+        }
+
+        State M (Loop l, State state) {
+            while (M (l.test, state).boolValue( )) {
+                state = M(l.body, state);
+                burn();
+            }
+            return state;
+        }
+
+        Value applyBinary (Operator op, Value v1, Value v2) {
+            if (v1.isUndef() || v2.isUndef())
+                throw new Stop(Status.FAILED, "reference to undef value");
+            return super.applyBinary(op, v1, v2);
+        }
+
+        Value applyUnary (Operator op, Value v) {
+            if (v.isUndef())
+                throw new Stop(Status.FAILED, "reference to undef value");
+            return super.applyUnary(op, v);
+        }
+    }
+
+    private final ExecutorService pool;
+
+    public BatchRunner (int threads) {
+        AtomicLong n = new AtomicLong();
+        pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "batch runner " + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // p must have passed StaticTypeCheck
+    public Future<Result> submit (Program p, long fuel) {
+        long submitted = System.nanoTime();
+        return pool.submit(() -> run(p, fuel, submitted));
+    }
+
+    static Result run (Program p, long fuel, long submitted) {
+        Metered m = new Metered(fuel);
+        long started = System.nanoTime();
+        Status status = Status.DONE;
+        State state = null;
+        String error = null;
+        try {
+            state = m.M(p);
+        } catch (Stop s) {
+            status = s.status;
+            error = s.getMessage();
+        } catch (ArithmeticException | ArrayAccessException e) {
+            status = Status.FAILED;
+            error = e.getMessage();
+        }
+        long now = System.nanoTime();
+        return new Result(status, state, fuel - Math.max(m.fuel(), 0),
+                          now - submitted, now - started, error);
+    }
+
+    public void close ( ) {
+        pool.shutdownNow();
+    }
+
+    // a small program; every tenth one never ends
+    static String generate (Random r, int i) {
+        StringBuilder sb = new StringBuilder("int main(){\n\tint x, i, n;\n\tfloat f;\n");
+        sb.append("\tn = ").append(10 + r.nextInt(500)).append(";\n\ti = 0;\n\tx = 0;\n\tf = 1.0;\n");
+        if (i % 10 == 9)
+            sb.append("\twhile (1 < 2) {\n\t\tx = x + 1;\n\t}\n");
+        else
+            sb.append("\twhile (i < n) {\n\t\tx = x + i * 2;\n")
+              .append("\t\tif (x > 1000) {\n\t\t\tx = x - 1000;\n\t\t\tf = f * 1.5;\n\t\t}\n")
+              .append("\t\ti = i + 1;\n\t}\n");
+        return sb.append("}\n").toString();
+    }
+
+    static String percentiles (long[ ] nanos) {
+        Arrays.sort(nanos);
+        int n = nanos.length;
+        return String.format("p50 %.3f p99 %.3f p99.9 %.3f max %.3f ms", nanos[n / 2] / 1e6,
+                             nanos[n * 99 / 100] / 1e6, nanos[n * 999 / 1000] / 1e6, nanos[n - 1] / 1e6);
+    }
+
+    public static void main (String args[]) throws Exception {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1])
+                                       : Runtime.getRuntime().availableProcessors();
+        long fuel = args.length > 2 ? Long.parseLong(args[2]) : 10000;
+        Random r = new Random(42);
+        Program[ ] batch = new Program[programs];
+        for (int i = 0; i < programs; i++) {
+            batch[i] = new Parser(new SourceLexer(
+                generate(r, i).getBytes(StandardCharsets.US_ASCII), 0)).program();
+            List<String> errors = StaticTypeCheck.V(batch[i], null);
+            errors.removeIf(d -> d.startsWith("warning: "));
+            if (!errors.isEmpty())
+                throw new IllegalStateException(errors.toString());
+        }
+        try (BatchRunner runner = new BatchRunner(threads)) {
+            for (int round = 0; round < 5; round++) {
+                long t0 = System.nanoTime();
+                ArrayList<Future<Result>> futures = new ArrayList<Future<Result>>(programs);
+                for (Program p : batch)
+                    futures.add(runner.submit(p, fuel));
+                long[ ] latency = new long[programs], run = new long[programs];
+                EnumMap<Status, Integer> count = new EnumMap<Status, Integer>(Status.class);
+                for (int i = 0; i < programs; i++) {
+                    Result result = futures.get(i).get();
+                    latency[i] = result.latency;
+                    run[i] = result.run;
+                    count.merge(result.status, 1, Integer::sum);
+                }
+                long t1 = System.nanoTime();
+                System.out.printf("round %d: %d programs, %d threads, %.0f programs/s, %s%n",
+                                  round, programs, threads, programs / ((t1 - t0) / 1e9), count);
+                System.out.println("\tsubmit to finish " + percentiles(latency));
+                System.out.println("\trun " + percentiles(run));
+            }
+            // one that never ends on every thread, cancelled from outside;
+            // the threads are free again afterwards
+            ArrayList<Future<Result>> endless = new ArrayList<Future<Result>>();
+            for (int i = 0; i < threads; i++)
+                endless.add(runner.submit(batch[9], Long.MAX_VALUE));
+            Thread.sleep(100);
+            for (Future<Result> f : endless)
+                f.cancel(true);
+            System.out.println("after cancelling " + threads + " endless programs: "
+                               + runner.submit(batch[0], fuel).get(10, TimeUnit.SECONDS));
+        }
+    } // main
+
+} // class BatchRunner
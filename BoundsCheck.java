@@ -0,0 +1,249 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Loop versioning for the bounds checks of C++Lite array elements.  In
+//     while (i < e) { ...; i = i + c; }
+// with i an int, e an int read from literals and variables the body does
+// not assign, c a literal >= 0 and the update the only assignment to i
+// (the last member of the body), i only grows and is below e on every
+// iteration before the update.  If it starts at 0 or more and e is at
+// most the size of every array the body indexes with i, no a[i] in the
+// body can be out of bounds.  The loop becomes
+//     if (i >= 0 && e <= size) while (i < e) { ... a[i] unchecked ... }
+//     else while (i < e) { ... }
+// so the program's check is made once before the loop instead of at
+// every element (for i <= e, e < size).  The guard reads only what the
+// loop test reads first, so it fails on an undef value exactly where
+// the loop would.  ArrayValue's buffer still range checks each access,
+// so the interpreters run the versioned loop no faster (main times
+// both); what it buys is in Ssa, where an unchecked load cannot stop
+// the program and value numbering and dead code may remove it.
+// The program is expected to be type checked.
+// Usage: java BoundsCheck [prog.c]
+
+public class BoundsCheck {
+
+    private final Program program;
+    private final TypeMap tm;
+    private final HashMap<Variable, Integer> sizes = new HashMap<Variable, Integer>();
+    int versioned = 0, unchecked = 0;
+
+    public BoundsCheck (Program p) {
+        program = p;
+        tm = StaticTypeCheck.typing(p.decpart);
+        for (Declaration d : p.decpart)
+            if (d.t.element() != null)
+                sizes.put(d.v, d.size);
+    }
+
+    public void optimize ( ) {
+        program.body = (Block)optimize(program.body);
+    }
+
+    private Statement optimize (Statement s) {
+        if (s instanceof Block) {
+            Block b = (Block)s;
+            for (int i = 0; i < b.members.size(); i++)
+                b.members.set(i, optimize(b.members.get(i)));
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            c.thenbranch = optimize(c.thenbranch);
+            c.elsebranch = optimize(c.elsebranch);
+        } else if (s instanceof Loop) {
+            Loop l = (Loop)s;
+            l.body = optimize(l.body);  // inner loops first
+            return version(l);
+        }
+        return s;
+    }
+
+    private Statement version (Loop l) {
+        if (!(l.test instanceof Binary) || !(l.body instanceof Block))
+            return l;
+        Binary test = (Binary)l.test;
+        if (test.op != Operator.LT && test.op != Operator.LE || !(test.term1 instanceof Variable))
+            return l;
+        Variable iv = (Variable)test.term1;
+        Block body = (Block)l.body;
+        Set<Variable> assigned = LoopOptimizer.assigned(body);
+        if (tm.get(iv) != Type.INT || !bound(test.term2, assigned) || !update(body, iv))
+            return l;
+        int size = Integer.MAX_VALUE;
+        for (Variable a : indexed(body, iv, new LinkedHashSet<Variable>()))
+            size = Math.min(size, sizes.get(a));
+        if (size == Integer.MAX_VALUE)
+            return l;       // no a[i] in the body
+        int step = ((IntValue)((Binary)((Assignment)last(body)).source).term2).intValue();
+        if (step > Integer.MAX_VALUE - size)
+            return l;       // i + c could wrap around
+        Loop fast = new Loop(test, copy(body, iv));
+        fast.line = l.line;
+        Expression guard = new Binary(Operator.AND,
+            new Binary(Operator.GE, iv, IntValue.of(0)),
+            new Binary(test.op == Operator.LT ? Operator.LE : Operator.LT,
+                       test.term2, IntValue.of(size)));
+        versioned++;
+        return new Conditional(guard, fast, l);
+    }
+
+    // e is an int literal, or an int variable the body does not assign
+    private boolean bound (Expression e, Set<Variable> assigned) {
+        if (e instanceof Value)
+            return ((Value)e).type() == Type.INT && !((Value)e).isUndef();
+        return e instanceof Variable && tm.get(e) == Type.INT && !assigned.contains(e);
+    }
+
+    // the body's only assignment to iv is its last member, iv = iv + c
+    private static boolean update (Block body, Variable iv) {
+        Statement s = last(body);
+        if (count(body, iv) != 1 || !(s instanceof Assignment))
+            return false;
+        Assignment a = (Assignment)s;
+        if (a.element != null || !a.target.equals(iv) || !(a.source instanceof Binary))
+            return false;
+        Binary b = (Binary)a.source;
+        return b.op == Operator.PLUS && iv.equals(b.term1) && b.term2 instanceof IntValue
+            && !((Value)b.term2).isUndef() && ((Value)b.term2).intValue() >= 0;
+    }
+
+    private static Statement last (Block b) {
+        return b.members.isEmpty() ? null : b.members.get(b.members.size() - 1);
+    }
+
+    private static int count (Statement s, Variable v) {
+        if (s instanceof Assignment)
+            return ((Assignment)s).target.equals(v) ? 1 : 0;
+        int n = 0;
+        if (s instanceof Block)
+            for (Statement m : ((Block)s).members)
+                n += count(m, v);
+        else if (s instanceof Conditional)
+            n = count(((Conditional)s).thenbranch, v) + count(((Conditional)s).elsebranch, v);
+        else if (s instanceof Loop)
+            n = count(((Loop)s).body, v);
+        return n;
+    }
+
+    // the arrays s indexes with exactly iv
+    private static Set<Variable> indexed (Statement s, Variable iv, Set<Variable> arrays) {
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            if (a.element != null)
+                indexed(a.element, iv, arrays);
+            indexed(a.source, iv, arrays);
+        } else if (s instanceof Block) {
+            for (Statement m : ((Block)s).members)
+                indexed(m, iv, arrays);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            indexed(c.test, iv, arrays);
+            indexed(c.thenbranch, iv, arrays);
+            indexed(c.elsebranch, iv, arrays);
+        } else if (s instanceof Loop) {
+            indexed(((Loop)s).test, iv, arrays);
+            indexed(((Loop)s).body, iv, arrays);
+        }
+        return arrays;
+    }
+
+    private static void indexed (Expression e, Variable iv, Set<Variable> arrays) {
+        if (e instanceof Binary) {
+            indexed(((Binary)e).term1, iv, arrays);
+            indexed(((Binary)e).term2, iv, arrays);
+        } else if (e instanceof Unary) {
+            indexed(((Unary)e).term, iv, arrays);
+        } else if (e instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef)e;
+            if (iv.equals(r.index))
+                arrays.add(r.array);
+            indexed(r.index, iv, arrays);
+        }
+    }
+
+    // A copy of s whose a[iv] are unchecked; Variables and Values are
+    // leaves and are shared.
+    private Statement copy (Statement s, Variable iv) {
+        Statement c;
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            Expression source = copy(a.source, iv);
+            c = a.element != null ? new Assignment((ArrayRef)copy(a.element, iv), source)
+                                  : new Assignment(a.target, source);
+        } else if (s instanceof Block) {
+            Block b = new Block();
+            for (Statement m : ((Block)s).members)
+                b.members.add(copy(m, iv));
+            c = b;
+        } else if (s instanceof Conditional) {
+            Conditional k = (Conditional)s;
+            c = new Conditional(copy(k.test, iv), copy(k.thenbranch, iv), copy(k.elsebranch, iv));
+        } else if (s instanceof Loop) {
+            c = new Loop(copy(((Loop)s).test, iv), copy(((Loop)s).body, iv));
+        } else if (s == Skip.NONE)
+            return s;
+        else
+            c = new Skip();
+        c.line = s.line;
+        return c;
+    }
+
+    private Expression copy (Expression e, Variable iv) {
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            return new Binary(b.op, copy(b.term1, iv), copy(b.term2, iv));
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            return new Unary(u.op, copy(u.term, iv));
+        }
+        if (e instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef)e;
+            ArrayRef k = new ArrayRef(r.array, copy(r.index, iv));
+            k.checked = r.checked && !iv.equals(r.index);
+            if (r.checked && !k.checked)
+                unchecked++;
+            return k;
+        }
+        return e;
+    }
+
+    // sums the squares of a[] into s, rounds times
+    static String generate (int size, int rounds) {
+        return "int main() {\n\tint a[" + size + "], i, j, n, s;\n\tn = " + size + ";\n"
+            + "\ti = 0;\n\twhile (i < n) {\n\t\ta[i] = i;\n\t\ti = i + 1;\n\t}\n"
+            + "\ts = 0;\n\tj = 0;\n\twhile (j < " + rounds + ") {\n\t\ti = 0;\n"
+            + "\t\twhile (i < n) {\n\t\t\ts = s + a[i] * a[i];\n\t\t\ti = i + 1;\n\t\t}\n"
+            + "\t\tj = j + 1;\n\t}\n}\n";
+    }
+
+    public static void main (String args[]) {
+        byte[ ] source = (args.length > 0 ? null : generate(1000, 200).getBytes(StandardCharsets.US_ASCII));
+        Program original = args.length > 0 ? new Parser(new Lexer(args[0])).program()
+                                           : new Parser(new SourceLexer(source, 0)).program();
+        Program program = args.length > 0 ? new Parser(new Lexer(args[0])).program()
+                                          : new Parser(new SourceLexer(source, 0)).program();
+        StaticTypeCheck.V(original);
+        StaticTypeCheck.V(program);
+        BoundsCheck b = new BoundsCheck(program);
+        b.optimize();
+        State expected = new Semantics().M(original);
+        State actual = new Semantics().M(program);
+        for (Declaration d : original.decpart)
+            StaticTypeCheck.check(("" + expected.get(d.v)).equals("" + actual.get(d.v)),
+                   "versioned program differs at " + d.v + ": "
+                   + expected.get(d.v) + " != " + actual.get(d.v));
+        System.out.println("loops versioned: " + b.versioned + ", unchecked elements: " + b.unchecked);
+        if (args.length > 0)
+            return;
+        for (int round = 0; round < 10; round++) {
+            long t0 = System.nanoTime();
+            new Semantics().M(original);
+            long t1 = System.nanoTime();
+            new Semantics().M(program);
+            long t2 = System.nanoTime();
+            System.out.printf("round %d: checked %.2f ms, hoisted %.2f ms%n",
+                              round, (t1 - t0) / 1e6, (t2 - t1) / 1e6);
+        }
+    } // main
+
+} // class BoundsCheck
@@ -0,0 +1,243 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Table-driven lexer for ASCII/UTF-8 C++Lite source.  It reads raw bytes,
+// maps each byte to a character class through a 256-entry table and
+// runs a DFA whose transitions are a [state][class] table.  It returns
+// exactly the tokens Lexer.next() returns for the same file, including
+// Lexer's habit of leaving the '=' of <=, >=, == and != as the start of
+// the next token.  Whitespace and comment bodies are crossed with
+// ByteScan instead of one transition per byte.
+
+public class ByteLexer {
+
+    // character classes
+    private static final int OTHER = 0, LETTER = 1, DIGIT = 2, SPACE = 3,
+        NEWLINE = 4, DOT = 5, SLASH = 6, QUOTE = 7, LT = 8, GT = 9, EQ = 10,
+        BANG = 11, AMP = 12, BAR = 13, SINGLE = 14, EOT = 15, CLASSES = 16;
+
+    // states
+    private static final int START = 0, IDENT = 1, INT = 2, FLOAT = 3,
+        DIVIDE = 4, COMMENT = 5, LESS = 6, GREATER = 7, ASSIGN = 8,
+        NOT = 9, AND = 10, OR = 11;
+
+    // actions, stored as negative entries of the transition table
+    private static final int EMIT = -1,  // token of the state, next byte not consumed
+        EMIT_TWO = -2,                   // second form of the state's token, not consumed
+        EMIT_PAIR = -3,                  // && or ||, byte consumed
+        EMIT_SINGLE = -4,                // one-byte token, byte consumed
+        CHAR_LITERAL = -5, END = -6, ILLEGAL = -7, EXPECTING = -8;
+
+    static final byte[ ] CLASS = new byte[256];
+    static final byte[ ][ ] DELTA = new byte[12][CLASSES];
+    private static final Token[ ] SINGLES = new Token[128];
+
+    static {
+        for (int c = 'a'; c <= 'z'; c++) CLASS[c] = LETTER;
+        for (int c = 'A'; c <= 'Z'; c++) CLASS[c] = LETTER;
+        for (int c = '0'; c <= '9'; c++) CLASS[c] = DIGIT;
+        CLASS[' '] = SPACE; CLASS['\t'] = SPACE;
+        CLASS['\n'] = NEWLINE; CLASS['\r'] = NEWLINE;
+        CLASS['.'] = DOT; CLASS['/'] = SLASH; CLASS['\''] = QUOTE;
+        CLASS['<'] = LT; CLASS['>'] = GT; CLASS['='] = EQ; CLASS['!'] = BANG;
+        CLASS['&'] = AMP; CLASS['|'] = BAR; CLASS['\004'] = EOT;
+        SINGLES['+'] = Token.plusTok;
+        SINGLES['-'] = Token.minusTok;
+        SINGLES['*'] = Token.multiplyTok;
+        SINGLES['('] = Token.leftParenTok;
+        SINGLES[')'] = Token.rightParenTok;
+        SINGLES['{'] = Token.leftBraceTok;
+        SINGLES['}'] = Token.rightBraceTok;
+        SINGLES[';'] = Token.semicolonTok;
+        SINGLES[','] = Token.commaTok;
+        SINGLES['['] = Token.leftBracketTok;
+        SINGLES[']'] = Token.rightBracketTok;
+        for (int c = 0; c < SINGLES.length; c++)
+            if (SINGLES[c] != null)
+                CLASS[c] = SINGLE;
+
+        byte[ ] s = DELTA[START];
+        Arrays.fill(s, (byte)ILLEGAL);
+        s[LETTER] = IDENT; s[DIGIT] = INT; s[SPACE] = START; s[NEWLINE] = START;
+        s[SLASH] = DIVIDE; s[QUOTE] = CHAR_LITERAL; s[LT] = LESS; s[GT] = GREATER;
+        s[EQ] = ASSIGN; s[BANG] = NOT; s[AMP] = AND; s[BAR] = OR;
+        s[SINGLE] = EMIT_SINGLE; s[EOT] = END;
+        for (int state = IDENT; state <= OR; state++)
+            Arrays.fill(DELTA[state], (byte)EMIT);
+        DELTA[IDENT][LETTER] = IDENT; DELTA[IDENT][DIGIT] = IDENT;
+        DELTA[INT][DIGIT] = INT; DELTA[INT][DOT] = FLOAT;
+        DELTA[FLOAT][DIGIT] = FLOAT;
+        DELTA[DIVIDE][SLASH] = COMMENT;
+        Arrays.fill(DELTA[COMMENT], (byte)COMMENT);
+        DELTA[COMMENT][NEWLINE] = START; DELTA[COMMENT][EOT] = END;
+        DELTA[LESS][EQ] = EMIT_TWO; DELTA[GREATER][EQ] = EMIT_TWO;
+        DELTA[ASSIGN][EQ] = EMIT_TWO; DELTA[NOT][EQ] = EMIT_TWO;
+        Arrays.fill(DELTA[AND], (byte)EXPECTING);
+        Arrays.fill(DELTA[OR], (byte)EXPECTING);
+        DELTA[AND][AMP] = EMIT_PAIR; DELTA[OR][BAR] = EMIT_PAIR;
+    }
+
+    private final byte[ ] buf;
+    private final int end;
+    private int pos = 0;
+    private int start = 0;      // offset of the last token's first byte
+    private int counted = 0;    // line breaks before this offset are in line
+    private int line = 1;
+    boolean speculative = false;  // errors throw instead of exiting
+
+    public ByteLexer (byte[ ] source) {
+        buf = source;
+        end = source.length;
+    }
+
+    public ByteLexer (byte[ ] source, int from) { // start lexing at offset from
+        this(source);
+        pos = from;
+    }
+
+    public ByteLexer (byte[ ] source, int from, int line) { // from is on line
+        this(source, from);
+        counted = from;
+        this.line = line;
+    }
+
+    public ByteLexer (String fileName) {
+        this(read(fileName));
+    }
+
+    private static byte[ ] read (String fileName) {
+        try {
+            return Files.readAllBytes(Paths.get(fileName));
+        } catch (IOException e) {
+            System.out.println("File not found: " + fileName);
+            System.exit(1);
+            return null;
+        }
+    }
+
+    public int position( ) { // byte offset of the last token returned
+        return start;
+    }
+
+    public int end( ) { // byte offset just past the last token returned
+        return pos;
+    }
+
+    public void seek (int offset) { // the next token is the one at or after offset
+        pos = offset;
+    }
+
+    public int line( ) { // source line of the last token returned
+        if (start < counted) {  // moved back: count again from the top
+            counted = 0;
+            line = 1;
+        }
+        for (; counted < start; counted++) {   // \n, \r\n or \r, as Lexer;
+            byte b = buf[counted];             // not one that ends the source
+            if (counted + 1 < end && (b == '\n' || b == '\r' && buf[counted+1] != '\n'))
+                line++;
+        }
+        return line;
+    }
+
+    public Token next( ) { // Return next token
+        int state = START;
+        while (true) {
+            if (state == START) {
+                pos = ByteScan.skipWhitespace(buf, pos, end);
+                start = pos;
+            } else if (state == COMMENT)
+                pos = ByteScan.lineEnd(buf, pos, end);
+            int c = pos < end ? buf[pos] & 0xff : '\004';
+            int t = DELTA[state][CLASS[c]];
+            if (t >= 0) {
+                state = t;
+                if (pos < end) pos++;
+                continue;
+            }
+            switch (t) {
+            case EMIT:
+                return token(state);
+            case EMIT_TWO:
+                if (state == LESS) return Token.lteqTok;
+                if (state == GREATER) return Token.gteqTok;
+                if (state == ASSIGN) return Token.eqeqTok;
+                return Token.noteqTok;
+            case EMIT_PAIR:
+                pos++;
+                return state == AND ? Token.andTok : Token.orTok;
+            case EMIT_SINGLE:
+                pos++;
+                return SINGLES[c];
+            case CHAR_LITERAL:
+                int p = pos + 1;
+                char ch1 = decode(p);
+                p += length(p);     // past the literal character
+                pos = Math.min(end, p + length(p));  // past the closing '
+                return Token.mkCharLiteral("" + ch1);
+            case END:
+                return Token.eofTok;
+            case EXPECTING:
+                error("Illegal character, expecting " + (state == AND ? '&' : '|'));
+                break;      // not reached: error does not return
+            default:
+                error("Illegal character " + (char)c);
+            }
+        }
+    } // next
+
+    private Token token (int state) {
+        String spelling = new String(buf, start, pos - start,
+                                     StandardCharsets.ISO_8859_1);
+        switch (state) {
+        case IDENT: return Token.keyword(spelling);
+        case INT: return Token.mkIntLiteral(spelling);
+        case FLOAT: return Token.mkFloatLiteral(spelling);
+        case DIVIDE: return Token.divideTok;
+        case LESS: return Token.ltTok;
+        case GREATER: return Token.gtTok;
+        case ASSIGN: return Token.assignTok;
+        default: return Token.notTok;
+        }
+    }
+
+    // length in bytes of the character at p; a line break counts as one
+    private int length (int p) {
+        if (p >= end) return 0;
+        int b = buf[p] & 0xff;
+        if (b == '\r') return p + 1 < end && buf[p+1] == '\n' ? 2 : 1;
+        if (b < 0xc0) return 1;
+        if (b < 0xe0) return 2;
+        if (b < 0xf0) return 3;
+        return 4;
+    }
+
+    // the character at p, decoded from UTF-8; line breaks become '\n'
+    private char decode (int p) {
+        if (p >= end) return '\004';
+        int b = buf[p] & 0xff, n = length(p);
+        if (b == '\r') return '\n';
+        if (n == 1 || p + n > end) return (char)b;
+        return new String(buf, p, n, StandardCharsets.UTF_8).charAt(0);
+    }
+
+    public void error (String msg) {
+        if (speculative)
+            throw new IllegalStateException("offset " + pos + " " + msg);
+        Metrics.error(Metrics.LEXICAL);
+        System.err.println("Error: offset " + pos + " " + msg);
+        System.exit(1);
+    }
+
+    static public void main ( String[] argv ) {
+        ByteLexer lexer = new ByteLexer(argv[0]);
+        Token tok = lexer.next( );
+        while (tok != Token.eofTok) {
+            System.out.println(tok.toString());
+            tok = lexer.next( );
+        }
+    } // main
+
+}
@@ -0,0 +1,40 @@
+// Runs of whitespace and the bodies of // comments, for the lexers: one
+// tight loop over the bytes instead of a DFA transition per byte.  When
+// the jdk.incubator.vector module is present (java --add-modules
+// jdk.incubator.vector) the loops compare a whole vector of bytes at a
+// time (VectorScan); without it, or with -Dclite.scalar=true, they run
+// on one byte at a time.
+
+public class ByteScan {
+
+    static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    static final boolean VECTOR = AVAILABLE && !Boolean.getBoolean("clite.scalar");
+
+    static boolean space (int b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    // offset of the first byte at or after pos that is not ' ', '\t', '\r' or '\n'
+    static int skipWhitespace (byte[ ] buf, int pos, int end) {
+        return VECTOR ? VectorScan.skipWhitespace(buf, pos, end)
+                      : scalarSkipWhitespace(buf, pos, end);
+    }
+
+    // offset of the first '\n' or '\r' at or after pos, or end
+    static int lineEnd (byte[ ] buf, int pos, int end) {
+        return VECTOR ? VectorScan.lineEnd(buf, pos, end) : scalarLineEnd(buf, pos, end);
+    }
+
+    static int scalarSkipWhitespace (byte[ ] buf, int pos, int end) {
+        while (pos < end && space(buf[pos]))
+            pos++;
+        return pos;
+    }
+
+    static int scalarLineEnd (byte[ ] buf, int pos, int end) {
+        while (pos < end && buf[pos] != '\n' && buf[pos] != '\r')
+            pos++;
+        return pos;
+    }
+
+} // class ByteScan
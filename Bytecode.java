@@ -0,0 +1,365 @@
+import java.util.*;
+
+// An internal bytecode form of a C++Lite statement, for the hot parts
+// of a program (see TieredSemantics).  The code runs on one int operand
+// stack and one int slot per variable: int, char and bool values are
+// held as ints (a bool as 0 or 1) and float values as their bits.
+// Every operator is chosen at compile time from the declared types, so
+// the code does what Semantics does for a type checked program without
+// looking at a Value or a run-time type.  compile returns null for a
+// statement it cannot translate exactly; run returns false, leaving the
+// State untouched, when a variable the code reads is still undef (a
+// read DefiniteAssignment proved is preceded by its store in the code).
+
+public class Bytecode {
+
+    // opcodes; the operand of an instruction is the next code entry
+    static final int HALT = 0, CONST = 1, LOAD = 2, STORE = 3, DUP = 4, POP = 5,
+        JUMP = 6, IFFALSE = 7,
+        IADD = 8, ISUB = 9, IMUL = 10, IDIV = 11, INEG = 12,
+        FADD = 13, FSUB = 14, FMUL = 15, FDIV = 16, FNEG = 17,
+        ICMP = 18, FCMPL = 19, FCMPG = 30,  // push -1, 0 or 1; NaN gives -1 or 1
+        LT = 20, LE = 21, EQ = 22, NE = 23, GT = 24, GE = 25,  // comparison result to bool
+        NOT = 26, I2F = 27, F2I = 28, I2C = 29;
+
+    private final int[ ] code;
+    private final Variable[ ] slots;
+    private final Type[ ] types;        // declared type of each slot
+    private final boolean[ ] reads;     // slot is read by the code
+    private final int maxStack;
+
+    private Bytecode (int[ ] code, Variable[ ] slots, Type[ ] types,
+                      boolean[ ] reads, int maxStack) {
+        this.code = code; this.slots = slots; this.types = types;
+        this.reads = reads; this.maxStack = maxStack;
+    }
+
+    public int size ( ) { return code.length; }
+
+    // The compiled form of s, or null; proven holds the reads
+    // DefiniteAssignment proved (Program.proven).
+    public static Bytecode compile (Statement s, TypeMap tm, Set<Variable> proven) {
+        Compiler c = new Compiler(tm, proven);
+        if (!c.statement(s))
+            return null;
+        c.emit(HALT);
+        int n = c.slots.size();
+        boolean[ ] reads = new boolean[n];
+        for (int i = 0; i < n; i++)
+            reads[i] = c.read.contains(i);
+        return new Bytecode(Arrays.copyOf(c.code, c.length),
+                            c.slots.keySet().toArray(new Variable[n]),
+                            c.types.toArray(new Type[n]), reads, c.max);
+    }
+
+    private static final class Compiler {
+        final TypeMap tm;
+        final Set<Variable> proven;
+        final LinkedHashMap<Variable, Integer> slots = new LinkedHashMap<Variable, Integer>();
+        final ArrayList<Type> types = new ArrayList<Type>();
+        final Set<Integer> read = new HashSet<Integer>();
+        int[ ] code = new int[64];
+        int length = 0, depth = 0, max = 0;
+
+        Compiler (TypeMap tm, Set<Variable> proven) { this.tm = tm; this.proven = proven; }
+
+        void put (int x) {
+            if (length == code.length)
+                code = Arrays.copyOf(code, length * 2);
+            code[length++] = x;
+        }
+
+        void emit (int op) {
+            put(op);
+            switch (op) {
+            case CONST: case LOAD: case DUP: depth++; break;
+            case STORE: case POP: case IFFALSE:
+            case IADD: case ISUB: case IMUL: case IDIV:
+            case FADD: case FSUB: case FMUL: case FDIV:
+            case ICMP: case FCMPL: case FCMPG: depth--; break;
+            }
+            max = Math.max(max, depth);
+        }
+
+        void emit (int op, int operand) {
+            emit(op);
+            put(operand);
+        }
+
+        int slot (Variable v) {
+            Integer s = slots.get(v);
+            if (s == null) {
+                s = slots.size();
+                slots.put(v, s);
+                types.add(tm.get(v));
+            }
+            return s;
+        }
+
+        boolean statement (Statement s) {
+            if (s instanceof Skip)
+                return true;
+            if (s instanceof Block) {
+                for (Statement m : ((Block)s).members)
+                    if (!statement(m)) return false;
+                return true;
+            }
+            if (s instanceof Assignment) {
+                Assignment a = (Assignment)s;
+                if (a.element != null)
+                    return false;   // arrays are not in the slots
+                Type target = tm.get(a.target);
+                Type source = expression(a.source);
+                if (target == null || source == null)
+                    return false;
+                if (target == Type.FLOAT && source != Type.FLOAT)
+                    emit(I2F);      // implicit int -> float
+                else if (target != source && !(target == Type.INT && source == Type.CHAR))
+                    return false;
+                emit(STORE, slot(a.target));
+                return true;
+            }
+            if (s instanceof Conditional) {
+                Conditional c = (Conditional)s;
+                if (expression(c.test) != Type.BOOL)
+                    return false;
+                int skip = jump(IFFALSE);
+                if (!statement(c.thenbranch)) return false;
+                int end = jump(JUMP);
+                code[skip] = length;
+                if (!statement(c.elsebranch)) return false;
+                code[end] = length;
+                return true;
+            }
+            if (s instanceof Loop) {
+                Loop l = (Loop)s;
+                int top = length;
+                if (expression(l.test) != Type.BOOL)
+                    return false;
+                int exit = jump(IFFALSE);
+                if (!statement(l.body)) return false;
+                emit(JUMP, top);
+                code[exit] = length;
+                return true;
+            }
+            return false;
+        }
+
+        // emits op with a target to be patched; returns the target's index
+        int jump (int op) {
+            emit(op, -1);
+            return length - 1;
+        }
+
+        // emits e and returns its type, or null if e cannot be compiled
+        Type expression (Expression e) {
+            if (e instanceof Value) {
+                Value v = (Value)e;
+                if (v.isUndef()) return null;
+                Type t = v.type();
+                if (t == Type.FLOAT) emit(CONST, Float.floatToRawIntBits(v.floatValue()));
+                else if (t == Type.CHAR) emit(CONST, v.charValue());
+                else if (t == Type.INT || t == Type.BOOL) emit(CONST, v.intValue());
+                else return null;
+                return t;
+            }
+            if (e instanceof Variable) {
+                Type t = tm.get(e);
+                if (t == null) return null;
+                int s = slot((Variable)e);
+                if (!proven.contains(e))
+                    read.add(s);
+                emit(LOAD, s);
+                return t;
+            }
+            if (e instanceof Binary)
+                return binary((Binary)e);
+            if (e instanceof Unary)
+                return unary((Unary)e);
+            return null;
+        }
+
+        // the type expression(e) returns, without emitting anything
+        Type type (Expression e) {
+            if (e instanceof Value)
+                return ((Value)e).isUndef() ? null : ((Value)e).type();
+            if (e instanceof Variable)
+                return tm.get(e);
+            if (e instanceof Binary) {
+                Binary b = (Binary)e;
+                Type t1 = type(b.term1), t2 = type(b.term2);
+                if (t1 == null || t2 == null) return null;
+                if (!b.op.ArithmeticOp( )) return Type.BOOL;
+                return t1 == Type.FLOAT || t2 == Type.FLOAT ? Type.FLOAT : Type.INT;
+            }
+            if (e instanceof Unary) {
+                Unary u = (Unary)e;
+                Type t = type(u.term);
+                if (t == null) return null;
+                if (u.op == Operator.NOT) return Type.BOOL;
+                if (u.op == Operator.NEG) return t == Type.FLOAT ? t : Type.INT;
+                if (u.op == Operator.INT) return Type.INT;
+                if (u.op == Operator.FLOAT) return Type.FLOAT;
+                if (u.op == Operator.CHAR) return Type.CHAR;
+            }
+            return null;
+        }
+
+        Type binary (Binary b) {
+            if (b.op.BooleanOp( )) {   // && and || short-circuit
+                if (expression(b.term1) != Type.BOOL) return null;
+                emit(DUP);
+                if (b.op == Operator.OR) emit(NOT);
+                int end = jump(IFFALSE);
+                emit(POP);
+                if (expression(b.term2) != Type.BOOL) return null;
+                code[end] = length;
+                return Type.BOOL;
+            }
+            // operands are promoted to float when either one is a float
+            Type t1 = type(b.term1), t2 = type(b.term2);
+            if (t1 == null || t2 == null) return null;
+            boolean real = t1 == Type.FLOAT || t2 == Type.FLOAT;
+            expression(b.term1);
+            if (real && t1 != Type.FLOAT) emit(I2F);
+            expression(b.term2);
+            if (real && t2 != Type.FLOAT) emit(I2F);
+            Operator op = b.op;
+            if (op == Operator.PLUS) emit(real ? FADD : IADD);
+            else if (op == Operator.MINUS) emit(real ? FSUB : ISUB);
+            else if (op == Operator.TIMES) emit(real ? FMUL : IMUL);
+            else if (op == Operator.DIV) emit(real ? FDIV : IDIV);
+            else {
+                int test;
+                if (op == Operator.LT) test = LT;
+                else if (op == Operator.LE) test = LE;
+                else if (op == Operator.EQ) test = EQ;
+                else if (op == Operator.NE) test = NE;
+                else if (op == Operator.GT) test = GT;
+                else if (op == Operator.GE) test = GE;
+                else return null;   // typed operators are not produced by the parser
+                // as the JVM's fcmpg and fcmpl: a NaN operand makes < <= > >= false
+                emit(!real ? ICMP : test == LT || test == LE ? FCMPG : FCMPL);
+                emit(test);
+                return Type.BOOL;
+            }
+            return real ? Type.FLOAT : Type.INT;
+        }
+
+        Type unary (Unary u) {
+            Type t = expression(u.term);
+            if (t == null) return null;
+            Operator op = u.op;
+            if (op == Operator.NOT) {
+                emit(NOT);
+                return Type.BOOL;
+            }
+            if (op == Operator.NEG) {
+                emit(t == Type.FLOAT ? FNEG : INEG);
+                return t == Type.FLOAT ? t : Type.INT;
+            }
+            if (op == Operator.INT) {
+                if (t == Type.FLOAT) emit(F2I);
+                return Type.INT;
+            }
+            if (op == Operator.FLOAT) {
+                if (t != Type.FLOAT) emit(I2F);
+                return Type.FLOAT;
+            }
+            if (op == Operator.CHAR && t != Type.FLOAT) {
+                emit(I2C);
+                return Type.CHAR;
+            }
+            return null;
+        }
+    }
+
+    // Runs the code on state; false if it could not start.
+    public boolean run (State state) {
+        int[ ] vars = new int[slots.length];
+        boolean[ ] defined = new boolean[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            Value v = state.get(slots[i]);
+            defined[i] = v != null && !v.isUndef();
+            if (!defined[i]) {
+                if (reads[i]) return false;
+                continue;
+            }
+            Type t = v.type();
+            if (t != types[i]) return false;
+            if (t == Type.FLOAT) vars[i] = Float.floatToRawIntBits(v.floatValue());
+            else if (t == Type.CHAR) vars[i] = v.charValue();
+            else vars[i] = v.intValue();
+        }
+        execute(vars, defined);
+        for (int i = 0; i < slots.length; i++) {
+            if (!defined[i]) continue;
+            Type t = types[i];
+            int x = vars[i];
+            Value v;
+            if (t == Type.FLOAT) v = new FloatValue(Float.intBitsToFloat(x));
+            else if (t == Type.CHAR) v = CharValue.of((char)x);
+            else if (t == Type.BOOL) v = BoolValue.of(x != 0);
+            else v = IntValue.of(x);
+            state.onion(slots[i], v);
+        }
+        return true;
+    }
+
+    private void execute (int[ ] vars, boolean[ ] defined) {
+        final int[ ] code = this.code;
+        int[ ] stack = new int[maxStack + 1];
+        int sp = 0, pc = 0;
+        while (true) {
+            switch (code[pc++]) {
+            case HALT: return;
+            case CONST: stack[sp++] = code[pc++]; break;
+            case LOAD: stack[sp++] = vars[code[pc++]]; break;
+            case STORE: {
+                int s = code[pc++];
+                vars[s] = stack[--sp];
+                defined[s] = true;
+                break;
+            }
+            case DUP: stack[sp] = stack[sp-1]; sp++; break;
+            case POP: sp--; break;
+            case JUMP: pc = code[pc]; break;
+            case IFFALSE: pc = stack[--sp] == 0 ? code[pc] : pc + 1; break;
+            case IADD: sp--; stack[sp-1] += stack[sp]; break;
+            case ISUB: sp--; stack[sp-1] -= stack[sp]; break;
+            case IMUL: sp--; stack[sp-1] *= stack[sp]; break;
+            case IDIV: sp--; stack[sp-1] /= stack[sp]; break;
+            case INEG: stack[sp-1] = -stack[sp-1]; break;
+            case FADD: sp--; stack[sp-1] = bits(real(stack[sp-1]) + real(stack[sp])); break;
+            case FSUB: sp--; stack[sp-1] = bits(real(stack[sp-1]) - real(stack[sp])); break;
+            case FMUL: sp--; stack[sp-1] = bits(real(stack[sp-1]) * real(stack[sp])); break;
+            case FDIV: sp--; stack[sp-1] = bits(real(stack[sp-1]) / real(stack[sp])); break;
+            case FNEG: stack[sp-1] = bits(-real(stack[sp-1])); break;
+            case ICMP: sp--; stack[sp-1] = Integer.compare(stack[sp-1], stack[sp]); break;
+            case FCMPL: sp--; stack[sp-1] = fcmp(real(stack[sp-1]), real(stack[sp]), -1); break;
+            case FCMPG: sp--; stack[sp-1] = fcmp(real(stack[sp-1]), real(stack[sp]), 1); break;
+            case LT: stack[sp-1] = stack[sp-1] < 0 ? 1 : 0; break;
+            case LE: stack[sp-1] = stack[sp-1] <= 0 ? 1 : 0; break;
+            case EQ: stack[sp-1] = stack[sp-1] == 0 ? 1 : 0; break;
+            case NE: stack[sp-1] = stack[sp-1] != 0 ? 1 : 0; break;
+            case GT: stack[sp-1] = stack[sp-1] > 0 ? 1 : 0; break;
+            case GE: stack[sp-1] = stack[sp-1] >= 0 ? 1 : 0; break;
+            case NOT: stack[sp-1] ^= 1; break;
+            case I2F: stack[sp-1] = bits(stack[sp-1]); break;
+            case F2I: stack[sp-1] = (int)real(stack[sp-1]); break;
+            case I2C: stack[sp-1] = (char)stack[sp-1]; break;
+            default: throw new IllegalStateException("bad opcode at " + (pc - 1));
+            }
+        }
+    }
+
+    private static float real (int x) { return Float.intBitsToFloat(x); }
+
+    // -1, 0 or 1 as a < b, a == b or a > b (so -0.0 equals 0.0), else nan
+    private static int fcmp (float a, float b, int nan) {
+        return a < b ? -1 : a > b ? 1 : a == b ? 0 : nan;
+    }
+
+    private static int bits (float f) { return Float.floatToRawIntBits(f); }
+
+} // class Bytecode
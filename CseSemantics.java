@@ -0,0 +1,102 @@
+import java.util.*;
+
+// Semantics with common-subexpression elimination over a hash-consed
+// program.  The value of a shared Binary or Unary node is kept together
+// with the assignment epoch it was computed in; every Assignment starts
+// a new epoch and records it for its target.  A kept value is reused as
+// long as none of the variables the node reads was assigned after it.
+
+public class CseSemantics extends Semantics {
+
+    private static final class Memo {
+        final Value value;
+        final long epoch;
+        Memo (Value v, long e) { value = v; epoch = e; }
+    }
+
+    private final HashCons nodes;
+    private long epoch = 0;
+    private final HashMap<Variable, Long> assignedAt = new HashMap<Variable, Long>();
+    private final IdentityHashMap<Expression, Memo> memo = new IdentityHashMap<Expression, Memo>();
+    private final IdentityHashMap<Expression, Variable[ ]> reads = new IdentityHashMap<Expression, Variable[ ]>();
+    long reused = 0;    // evaluations answered from a kept value
+
+    public CseSemantics (HashCons h) { nodes = h; }
+
+    State M (Assignment a, State state) {
+        state = super.M(a, state);
+        assignedAt.put(a.target, ++epoch);  // after the source was evaluated
+        return state;
+    }
+
+    Value M (Expression e, State state) {
+        if (!nodes.isShared(e) || e instanceof Variable || e instanceof Value)
+            return super.M(e, state);
+        Memo m = memo.get(e);
+        if (m != null && valid(e, m.epoch)) {
+            evaluations++;
+            reused++;
+            return m.value;
+        }
+        Value v = super.M(e, state);
+        memo.put(e, new Memo(v, epoch));
+        return v;
+    }
+
+    private boolean valid (Expression e, long computed) {
+        for (Variable v : reads(e)) {
+            Long t = assignedAt.get(v);
+            if (t != null && t > computed)
+                return false;
+        }
+        return true;
+    }
+
+    // the distinct variables e reads
+    private Variable[ ] reads (Expression e) {
+        Variable[ ] r = reads.get(e);
+        if (r == null) {
+            Set<Variable> s = new LinkedHashSet<Variable>();
+            collect(e, s);
+            r = s.toArray(new Variable[s.size()]);
+            reads.put(e, r);
+        }
+        return r;
+    }
+
+    private static void collect (Expression e, Set<Variable> s) {
+        if (e instanceof Variable)
+            s.add((Variable)e);
+        else if (e instanceof Binary) {
+            collect(((Binary)e).term1, s);
+            collect(((Binary)e).term2, s);
+        } else if (e instanceof Unary)
+            collect(((Unary)e).term, s);
+        else if (e instanceof ArrayRef) {
+            s.add(((ArrayRef)e).array);     // an element write assigns the array
+            collect(((ArrayRef)e).index, s);
+        }
+    }
+
+    public static void main(String args[]) {
+        Program tree = new Parser(new Lexer(args[0])).program();
+        HashCons nodes = new HashCons();
+        Program dag = new Parser(new Lexer(args[0]), nodes).program();
+        StaticTypeCheck.V(dag);
+        Semantics plain = new Semantics( );
+        CseSemantics cse = new CseSemantics(nodes);
+        State expected = plain.M(tree);
+        State actual = cse.M(dag);
+        for (Declaration d : tree.decpart)
+            StaticTypeCheck.check(("" + expected.get(d.v)).equals("" + actual.get(d.v)),
+                   "CSE result differs at " + d.v + ": "
+                   + expected.get(d.v) + " != " + actual.get(d.v));
+        System.out.print("Final State: ");
+        actual.display( );
+        System.out.println("expression nodes: " + nodes.requests
+                           + " -> " + nodes.size() + " distinct");
+        System.out.println("evaluations: " + plain.evaluations + " -> "
+                           + cse.evaluations + " (" + cse.reused + " reused)");
+    } //main
+
+} // class CseSemantics
@@ -0,0 +1,114 @@
+import java.util.*;
+
+// Definite assignment for C++Lite.  Flowing forward through the program,
+// the set of variables assigned on every path so far is:
+//   Assignment   the set, plus the target, after the source is read
+//   Block        each member's set flows into the next
+//   Conditional  both branches start from the set; after it, the
+//                variables both assigned
+//   Loop         the body starts from the set, as in the first
+//                iteration; after it, the set itself, since the body
+//                may not run
+// Nothing is ever unassigned, so the sets only grow and the first pass
+// is already the fixed point; later iterations of a loop read with at
+// least what the first one had.  Arrays are not tracked: their elements
+// start at zero, and an element write only reads its index.  A read
+// whose variable is in the set is proven; the others are diagnostics.
+// The proven Variable nodes come back in an identity set (with
+// hash-consed nodes, a node only if every read through it is), which
+// StaticTypeCheck keeps as Program.proven; Semantics and Bytecode skip
+// the undef check of a read in it.
+// Usage: java DefiniteAssignment prog.c
+
+public class DefiniteAssignment {
+
+    private final HashMap<Variable, Integer> index = new HashMap<Variable, Integer>();
+    private final IdentityHashMap<Variable, Boolean> reads = new IdentityHashMap<Variable, Boolean>();
+    private final LinkedHashSet<String> diagnostics = new LinkedHashSet<String>();
+    private int line;       // of the statement being read
+
+    private DefiniteAssignment (Declarations d) {
+        for (Declaration decl : d)
+            if (decl.t.element() == null)   // elements start at zero
+                index.putIfAbsent(decl.v, index.size());
+    }
+
+    // returns the proven reads of p; adds the others to diagnostics, in source order
+    public static Set<Variable> analyze (Program p, List<String> diagnostics) {
+        DefiniteAssignment a = new DefiniteAssignment(p.decpart);
+        a.statement(p.body, new BitSet());
+        Set<Variable> proven = Collections.newSetFromMap(new IdentityHashMap<Variable, Boolean>());
+        for (Map.Entry<Variable, Boolean> r : a.reads.entrySet())
+            if (r.getValue())
+                proven.add(r.getKey());
+        diagnostics.addAll(a.diagnostics);
+        return proven;
+    }
+
+    // the set after s, given the set before; in may be changed
+    private BitSet statement (Statement s, BitSet in) {
+        if (s.line > 0)
+            line = s.line;
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            if (a.element != null)
+                expression(a.element.index, in);
+            expression(a.source, in);
+            Integer i = index.get(a.target);
+            if (i != null)
+                in.set(i);
+            return in;
+        }
+        if (s instanceof Block) {
+            for (Statement m : ((Block)s).members)
+                in = statement(m, in);
+            return in;
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            expression(c.test, in);
+            BitSet then = statement(c.thenbranch, (BitSet)in.clone());
+            BitSet out = statement(c.elsebranch, in);
+            out.and(then);
+            return out;
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop)s;
+            expression(l.test, in);
+            statement(l.body, (BitSet)in.clone());
+            return in;
+        }
+        return in;  // Skip
+    }
+
+    private void expression (Expression e, BitSet assigned) {
+        if (e instanceof Variable) {
+            Variable v = (Variable)e;
+            Integer i = index.get(v);
+            if (i == null) return;      // undeclared; StaticTypeCheck says so
+            boolean proven = assigned.get(i);
+            if (!proven)
+                diagnostics.add((line > 0 ? "line " + line + ": " : "")
+                                + v + " may be read before it is assigned");
+            reads.merge(v, proven, Boolean::logicalAnd);
+        } else if (e instanceof Binary) {
+            expression(((Binary)e).term1, assigned);
+            expression(((Binary)e).term2, assigned);
+        } else if (e instanceof Unary) {
+            expression(((Unary)e).term, assigned);
+        } else if (e instanceof ArrayRef) {
+            expression(((ArrayRef)e).index, assigned);
+        }
+    }
+
+    public static void main (String args[]) {
+        Program prog = new Parser(new Lexer(args[0])).program();
+        StaticTypeCheck.V(prog);
+        List<String> unproven = new ArrayList<String>();
+        analyze(prog, unproven);
+        for (String d : unproven)
+            System.out.println(d);
+        System.out.println(unproven.size() + " reads not proven");
+    } // main
+
+} // class DefiniteAssignment
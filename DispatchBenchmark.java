@@ -0,0 +1,221 @@
+import java.util.*;
+
+// Per-node cost of type checking with StaticTypeCheck's visitors against
+// the instanceof cascade it was written with before.  Cascade is that
+// checker, with the array rules added since and the same check (and
+// Metrics count) as the visitors, so the two differ only in how they
+// dispatch.  Both check every statement of the same synthetic, well
+// typed Block against the same TypeMap.
+// Usage: java DispatchBenchmark [statements]
+
+public class DispatchBenchmark {
+
+    static final class Cascade {
+
+        private static void check (boolean test, String msg) {
+            Metrics.checks.increment();
+            if (!test) Metrics.error(Metrics.TYPE);
+            StaticTypeCheck.check(test, msg);
+        }
+
+        static Type typeOf (Expression e, TypeMap tm) {
+            if (e instanceof Value) return ((Value)e).type();
+            if (e instanceof Variable) {
+                Variable v = (Variable)e;
+                check (tm.containsKey(v), "undefined variable: " + v);
+                return tm.get(v);
+            }
+            if (e instanceof Binary) {
+                Binary b = (Binary)e;
+                if (b.op.ArithmeticOp( ))
+                    if (typeOf(b.term1,tm)== Type.FLOAT)
+                        return (Type.FLOAT);
+                    else return (Type.INT);
+                if (b.op.RelationalOp( ) || b.op.BooleanOp( ))
+                    return (Type.BOOL);
+            }
+            if (e instanceof Unary) {
+                Unary u = (Unary)e;
+                if (u.op.NotOp( ))        return (Type.BOOL);
+                else if (u.op.NegateOp( )) return typeOf(u.term,tm);
+                else if (u.op.intOp( ))    return (Type.INT);
+                else if (u.op.floatOp( )) return (Type.FLOAT);
+                else if (u.op.charOp( ))  return (Type.CHAR);
+            }
+            if (e instanceof ArrayRef) {
+                ArrayRef r = (ArrayRef)e;
+                Type t = tm.get(r.array);
+                check (t != null && t.element() != null, "not an array: " + r.array);
+                return t.element();
+            }
+            throw new IllegalArgumentException("should never reach here");
+        }
+
+        static void V (Expression e, TypeMap tm) {
+            if (e instanceof Value)
+                return;
+            if (e instanceof Variable) {
+                Variable v = (Variable)e;
+                check( tm.containsKey(v), "undeclared variable: " + v);
+                check( tm.get(v).element() == null, "array used without an index: " + v);
+                return;
+            }
+            if (e instanceof Binary) {
+                Binary b = (Binary) e;
+                Type typ1 = typeOf(b.term1, tm);
+                Type typ2 = typeOf(b.term2, tm);
+                V (b.term1, tm);
+                V (b.term2, tm);
+                if (b.op.ArithmeticOp( ))
+                    check( typ1 == typ2 &&
+                           (typ1 == Type.INT || typ1 == Type.FLOAT)
+                           , "type error for " + b.op);
+                else if (b.op.RelationalOp( ))
+                    check( typ1 == typ2 , "type error for " + b.op);
+                else if (b.op.BooleanOp( ))
+                    check( typ1 == Type.BOOL && typ2 == Type.BOOL,
+                           b.op + ": non-bool operand");
+                else
+                    throw new IllegalArgumentException("should never reach here BinaryOp error");
+                return;
+            }
+            if (e instanceof Unary) {
+                Unary u = (Unary) e;
+                Type type = typeOf(u.term, tm);
+                V(u.term, tm);
+                if (u.op.NotOp())
+                    check((type == Type.BOOL), "type error for NotOp " + u.op);
+                else if (u.op.NegateOp())
+                    check((type == (Type.INT) || type == (Type.FLOAT)), "type error for NegateOp " + u.op);
+                else
+                    throw new IllegalArgumentException("should never reach here UnaryOp error");
+                return;
+            }
+            if (e instanceof ArrayRef) {
+                ArrayRef r = (ArrayRef)e;
+                Type t = tm.get(r.array);
+                check( t != null && t.element() != null, "not an array: " + r.array);
+                V (r.index, tm);
+                check( typeOf(r.index, tm) == Type.INT, "array index is not an int: " + r.index);
+                return;
+            }
+            throw new IllegalArgumentException("should never reach here");
+        }
+
+        static void V (Statement s, TypeMap tm) {
+            if ( s == null )
+                throw new IllegalArgumentException( "AST error: null statement");
+            else if (s instanceof Skip) return;
+            else if (s instanceof Assignment) {
+                Assignment a = (Assignment)s;
+                check( tm.containsKey(a.target)
+                       , " undefined target in assignment: " + a.target);
+                V(a.source, tm);
+                Type ttype = tm.get(a.target);
+                if (a.element != null) {
+                    check( ttype.element() != null, "not an array: " + a.target);
+                    V (a.element.index, tm);
+                    check( typeOf(a.element.index, tm) == Type.INT,
+                           "array index is not an int: " + a.element.index);
+                    ttype = ttype.element();
+                } else
+                    check( ttype.element() == null, "assignment to a whole array: " + a.target);
+                Type srctype = typeOf(a.source, tm);
+                if (ttype != srctype) {
+                    if (ttype == Type.FLOAT)
+                        check( srctype == Type.INT
+                               , "mixed mode assignment to " + a.target);
+                    else if (ttype == Type.INT)
+                        check( srctype == Type.CHAR
+                               , "mixed mode assignment to " + a.target);
+                    else
+                        check( false
+                               , "mixed mode assignment to " + a.target);
+                }
+            }
+            else if (s instanceof Conditional) {
+                Conditional c = (Conditional)s;
+                V(c.test, tm);
+                Type testtype = typeOf(c.test, tm);
+                if (testtype == Type.BOOL) {
+                    V(c.thenbranch, tm);
+                    V(c.elsebranch, tm);
+                } else
+                    check( false, "poorly typed if in Conditional: " + c.test);
+            }
+            else if (s instanceof Loop) {
+                Loop l = (Loop)s;
+                V(l.test, tm);
+                Type testtype = typeOf(l.test, tm);
+                if (testtype == Type.BOOL)
+                    V(l.body, tm);
+                else
+                    check ( false, "poorly typed test in while Loop in Conditional: " + l.test);
+            }
+            else if (s instanceof Block) {
+                for (Statement i : ((Block)s).members)
+                    V(i, tm);
+            }
+            else
+                throw new IllegalArgumentException("should never reach here");
+        }
+    }
+
+    static Declarations declarations ( ) {
+        Declarations d = new Declarations();
+        d.add(new Declaration("x", Type.INT));
+        d.add(new Declaration("y", Type.INT));
+        d.add(new Declaration("f", Type.FLOAT));
+        d.add(new Declaration("a", Type.INT_ARRAY, 16));
+        return d;
+    }
+
+    // a well typed mix of every Statement and Expression class
+    static Block program (int statements) {
+        Variable x = new Variable("x"), y = new Variable("y"), f = new Variable("f"),
+                 a = new Variable("a");
+        Block b = new Block();
+        for (int i = 0; i < statements; i++) {
+            Expression sum = new Binary(Operator.PLUS, x, IntValue.of(i));
+            Expression test = new Binary(Operator.LT, new Unary(Operator.NEG, x), y);
+            switch (i % 5) {
+            case 0:
+                b.members.add(new Assignment(x, sum));
+                break;
+            case 1:
+                b.members.add(new Conditional(test, new Assignment(y, sum)));
+                break;
+            case 2:
+                Block body = new Block();
+                body.members.add(new Assignment(y, new Binary(Operator.TIMES, sum, y)));
+                body.members.add(new Assignment(f, new Binary(Operator.TIMES, f, new FloatValue(1.5f))));
+                b.members.add(new Loop(test, body));
+                break;
+            case 3:
+                b.members.add(new Assignment(new ArrayRef(a, IntValue.of(i & 15)),
+                                             new Binary(Operator.PLUS, new ArrayRef(a, y), sum)));
+                break;
+            default:
+                b.members.add(new Skip());
+            }
+        }
+        return b;
+    }
+
+    public static void main (String args[]) {
+        int statements = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Block b = program(statements);
+        TypeMap tm = StaticTypeCheck.typing(declarations());
+        long nodes = PhaseEvents.nodes(b);
+        for (int round = 0; round < 10; round++) {  // the first rounds warm up the JIT
+            long t0 = System.nanoTime();
+            Cascade.V(b, tm);
+            long t1 = System.nanoTime();
+            StaticTypeCheck.V(b, tm);
+            long t2 = System.nanoTime();
+            System.out.printf("round %d: %d nodes, instanceof %.2f ns/node, visitor %.2f ns/node%n",
+                              round, nodes, (t1 - t0) / (double)nodes, (t2 - t1) / (double)nodes);
+        }
+    } //main
+
+} // class DispatchBenchmark
@@ -0,0 +1,460 @@
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Turns a Program back into C++Lite source.  The parser, given this
+// emitter's Spans, records the byte range of every statement, block and
+// the declarations, with the identity of their children at parse time.
+// A subtree whose children are still the same objects is written as
+// its range of the original (mapped) input, and so is the text between
+// two statements that were neighbours in the source, so comments and
+// layout survive.  Only rewritten nodes are printed again.  The members
+// list of every parsed Block is replaced by one that marks the Block and
+// the statements around it as touched when it is edited; a subtree that
+// was not touched is copied without looking inside it.  All output
+// goes to one WritableByteChannel; consecutive ranges are merged and
+// written straight from the mapped buffer, so a rewrite of a few
+// statements costs about a file copy.
+// Rewrites must replace nodes rather than change them in place, except
+// for editing the members of a Block: the fields of a touched statement
+// are compared by identity, those of the others are not looked at.
+// Usage: java Emitter file [out]    the file, emitted unchanged
+//        java Emitter [statements]  benchmark over a generated file
+
+public class Emitter {
+
+    interface Spans {
+        void span (Object node, int start, int end);
+    }
+
+    private static final class Span {
+        final int start, end;
+        Object[ ] parts;        // children when parsed; null for an unparsed LazyBlock
+        Span[ ] children;       // spans of the statements in parts, null if none
+        Span parent;            // of the enclosing statement
+        int before = -1;        // end of the preceding sibling, or start of the block
+        boolean touched;        // members of a Block in this subtree were edited
+
+        Span (int s, int e) { start = s; end = e; }
+
+        void touch ( ) {
+            for (Span t = this; t != null && !t.touched; t = t.parent)
+                t.touched = true;
+        }
+    }
+
+    // the members of a parsed Block, which touch its span when edited
+    private static final class Members extends AbstractList<Statement> {
+        private final List<Statement> list;
+        private final Span span;
+
+        Members (List<Statement> l, Span s) { list = l; span = s; }
+
+        public int size ( ) { return list.size(); }
+        public Statement get (int i) { return list.get(i); }
+        public Statement set (int i, Statement s) { span.touch(); return list.set(i, s); }
+        public void add (int i, Statement s) { span.touch(); list.add(i, s); modCount++; }
+        public Statement remove (int i) { span.touch(); modCount++; return list.remove(i); }
+    }
+
+    private final ByteBuffer source;
+    private final IdentityHashMap<Object, Span> spans = new IdentityHashMap<Object, Span>();
+    boolean verbatim = true;    // false: print everything again
+
+    private WritableByteChannel out;
+    private int from = -1, to = -1;     // pending range of source
+    private final StringBuilder text = new StringBuilder();
+
+    public Emitter (ByteBuffer source) {
+        this.source = source;
+    }
+
+    public static Emitter map (Path file) throws IOException {
+        try (FileChannel c = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new Emitter(c.map(FileChannel.MapMode.READ_ONLY, 0, c.size()));
+        }
+    }
+
+    // what Parser.spans should be
+    public Spans spans ( ) {
+        return (node, start, end) -> {
+            Object[ ] parts = null;
+            if (node instanceof Assignment) {
+                Assignment a = (Assignment)node;
+                parts = new Object[ ] { a.target, a.source, a.element };
+            }
+            else if (node instanceof Conditional) {
+                Conditional c = (Conditional)node;
+                parts = new Object[ ] { c.test, c.thenbranch, c.elsebranch };
+            } else if (node instanceof Loop)
+                parts = new Object[ ] { ((Loop)node).test, ((Loop)node).body };
+            else if (node instanceof Block) {
+                if (!(node instanceof LazyBlock) || ((LazyBlock)node).parsed()) {
+                    parts = ((Block)node).members.toArray();
+                    int at = start;
+                    for (Object m : parts) {
+                        Span s = spans.get(m);
+                        if (s == null) break;
+                        s.before = at;
+                        at = s.end;
+                    }
+                }
+            } else if (node instanceof Declarations)
+                parts = ((Declarations)node).toArray();
+            Span sp = spans.get(node);  // a LazyBlock is told again once parsed
+            if (sp == null) {
+                sp = new Span(start, end);
+                spans.put(node, sp);
+            }
+            sp.parts = parts;
+            if (parts != null && !(node instanceof Declarations)) {
+                sp.children = new Span[parts.length];
+                for (int i = 0; i < parts.length; i++)
+                    if (parts[i] instanceof Statement) {    // children end first
+                        Span c = sp.children[i] = spans.get(parts[i]);
+                        if (c != null)
+                            c.parent = sp;
+                    }
+            }
+            if (node instanceof Block && !(((Block)node).members instanceof Members))
+                ((Block)node).members = new Members(((Block)node).members, sp);
+        };
+    }
+
+    // parses the source with this emitter's spans
+    public Program parse (boolean lazy) {
+        byte[ ] bytes = new byte[source.limit()];
+        source.duplicate().get(bytes);
+        Parser parser = new Parser(new SourceLexer(bytes, 0));
+        parser.spans = spans();
+        parser.lazy = lazy;
+        return parser.program();
+    }
+
+    public void emit (Program p, WritableByteChannel out) throws IOException {
+        this.out = out;
+        Span decls = verbatim ? spans.get(p.decpart) : null;
+        Span body = verbatim ? spans.get(p.body) : null;
+        int at = -1;
+        if (decls != null && body != null && same(p.decpart, decls)) {
+            copy(0, body.start);
+            at = body.start;
+        } else {
+            write("int main ( ) {");
+            for (Declaration d : p.decpart)
+                write("\n\t" + (d.t.element() != null ? d.t.element() + " " + d.v + "[" + d.size + "]"
+                                                       : d.t + " " + d.v) + ";");
+            write("\n");
+        }
+        at = members(p.body, body, at, 1);
+        if (at >= 0 && at == tail(body))
+            copy(at, source.limit());
+        else
+            write("\n}\n");
+        flush();
+        this.out = null;
+    }
+
+    private static boolean same (Declarations d, Span s) {
+        if (s.parts.length != d.size()) return false;
+        for (int i = 0; i < s.parts.length; i++)
+            if (s.parts[i] != d.get(i)) return false;
+        return true;
+    }
+
+    // True if s, whose span is sp, can be copied from the source.  Only
+    // a touched subtree is looked into, and only its touched children.
+    private boolean unchanged (Statement s, Span sp) {
+        boolean u = sp != null && verbatim;
+        if (u && !sp.touched)
+            return true;
+        if (u && s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            u = a.target == sp.parts[0] && a.source == sp.parts[1] && a.element == sp.parts[2];
+        } else if (u && s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            u = c.test == sp.parts[0] && child(c.thenbranch, sp, 1)
+                && child(c.elsebranch, sp, 2);
+        } else if (u && s instanceof Loop) {
+            u = ((Loop)s).test == sp.parts[0] && child(((Loop)s).body, sp, 1);
+        } else if (u && s instanceof Block) {
+            if (sp.parts != null) {     // a LazyBlock not yet parsed is as it was
+                List<Statement> m = ((Block)s).members;
+                u = m.size() == sp.parts.length;
+                for (int i = 0; u && i < sp.parts.length; i++)
+                    u = child(m.get(i), sp, i);
+            }
+        }
+        return u;
+    }
+
+    // the i-th part of sp, as parsed; the Skip of a missing else has no span
+    private boolean child (Statement s, Span sp, int i) {
+        if (s != sp.parts[i]) return false;
+        Span c = sp.children[i];
+        return c == null ? s instanceof Skip : unchanged(s, c);
+    }
+
+    // end of the block's last statement as parsed
+    private int tail (Span block) {
+        if (block == null || block.parts == null) return -2;
+        if (block.parts.length == 0) return block.start;
+        Span last = spans.get(block.parts[block.parts.length - 1]);
+        return last == null ? -2 : last.end;
+    }
+
+    // The members of b, whose span is bs, indented by level.  at is where
+    // the source can be continued from, or -1; returns the same after the
+    // last member.
+    private int members (Block b, Span bs, int at, int level) {
+        List<Statement> m = b.members;
+        for (int i = 0; i < m.size(); i++) {
+            Statement s = m.get(i);
+            Span ms = !verbatim ? null
+                : bs != null && bs.parts != null && i < bs.parts.length && bs.parts[i] == s
+                ? bs.children[i]        // where it was parsed
+                : spans.get(s);
+            if (at >= 0 && ms != null && ms.before == at)
+                copy(at, ms.start);
+            else
+                write("\n" + indent(level));
+            statement(s, ms, level);
+            at = ms != null ? ms.end : -1;
+        }
+        return at;
+    }
+
+    private void statement (Statement s, int level) {
+        statement(s, spans.get(s), level);
+    }
+
+    private void statement (Statement s, Span sp, int level) {
+        if (unchanged(s, sp)) {
+            copy(sp.start, sp.end);
+        } else if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            write((a.element != null ? expression(a.element, 0, false) : a.target.toString())
+                  + " = " + expression(a.source, 0, false) + ";");
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            write("if (" + expression(c.test, 0, false) + ") ");
+            body(c.thenbranch, level);
+            if (!(c.elsebranch instanceof Skip)) {
+                write(" else ");
+                body(c.elsebranch, level);
+            }
+        } else if (s instanceof Loop) {
+            write("while (" + expression(((Loop)s).test, 0, false) + ") ");
+            body(((Loop)s).body, level);
+        } else if (s instanceof Block) {
+            block((Block)s, level);
+        } else {
+            write(";");
+        }
+    }
+
+    // if and while bodies need their braces
+    private void body (Statement s, int level) {
+        if (s instanceof Block) {
+            block((Block)s, level);
+        } else {
+            write("{\n" + indent(level + 1));
+            statement(s, level + 1);
+            write("\n" + indent(level) + "}");
+        }
+    }
+
+    private void block (Block b, int level) {
+        Span sp = verbatim ? spans.get(b) : null;
+        if (unchanged(b, sp)) {
+            copy(sp.start, sp.end);
+            return;
+        }
+        Span first = sp == null || sp.parts == null || b.members.isEmpty()
+            ? null : spans.get(b.members.get(0));
+        int at = -1;
+        if (first != null && first.before == sp.start)
+            at = sp.start;      // the '{' goes out with the first gap
+        else
+            write("{");
+        at = members(b, sp, at, level + 1);
+        if (at >= 0 && at == tail(sp))
+            copy(at, sp.end);
+        else
+            write("\n" + indent(level) + "}");
+    }
+
+    private static String indent (int level) {
+        return "\t".repeat(level);
+    }
+
+    // operator precedence, higher binds tighter; 8 is a primary
+    private static int precedence (Expression e) {
+        if (e instanceof Binary) {
+            switch (((Binary)e).op.symbol()) {
+                case "||": return 1;
+                case "&&": return 2;
+                case "==": case "!=": return 3;
+                case "<": case "<=": case ">": case ">=": return 4;
+                case "+": case "-": return 5;
+                default: return 6;
+            }
+        }
+        if (e instanceof Unary && ((Unary)e).op.mask != Operator.CAST)
+            return 7;
+        return 8;
+    }
+
+    private static String expression (Expression e, int outer, boolean right) {
+        int p = precedence(e);
+        String s;
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            s = expression(b.term1, p, false) + " " + b.op.symbol() + " "
+                + expression(b.term2, p, true);
+        } else if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            if (p == 8)     // a cast
+                s = u.op.symbol() + "(" + expression(u.term, 0, false) + ")";
+            else            // the operand of ! and - is a primary
+                s = u.op.symbol() + expression(u.term, 8, false);
+        } else if (e instanceof Value) {
+            s = literal((Value)e);
+        } else if (e instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef)e;
+            s = r.array + "[" + expression(r.index, 0, false) + "]";
+        } else
+            s = e.toString();
+        return p < outer || p == outer && right && p < 8 ? "(" + s + ")" : s;
+    }
+
+    private static String literal (Value v) {
+        if (v instanceof CharValue) return "'" + v.charValue() + "'";
+        if (v instanceof FloatValue) {
+            String f = new BigDecimal(Float.toString(v.floatValue())).toPlainString();
+            return f.indexOf('.') < 0 ? f + ".0" : f;
+        }
+        return v.toString();
+    }
+
+    private void copy (int start, int end) {
+        if (start == end) return;
+        if (text.length() > 0)
+            flush();
+        if (start == to) {
+            to = end;
+        } else {
+            flushRange();
+            from = start;
+            to = end;
+        }
+    }
+
+    private void write (String s) {
+        flushRange();
+        text.append(s);
+    }
+
+    private void flushRange ( ) {
+        if (from < 0) return;
+        ByteBuffer b = source.duplicate();
+        b.position(from).limit(to);
+        from = to = -1;
+        try {
+            while (b.hasRemaining())
+                out.write(b);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flush ( ) {
+        flushRange();
+        if (text.length() == 0) return;
+        ByteBuffer b = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+        text.setLength(0);
+        try {
+            while (b.hasRemaining())
+                out.write(b);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // replaces the source of every n-th top-level assignment
+    static int rewrite (Program p, int n) {
+        int count = 0, i = 0;
+        for (Statement s : p.body.members)
+            if (s instanceof Assignment && i++ % n == 0) {
+                Assignment a = (Assignment)s;
+                Expression source = new Binary(Operator.TIMES, a.source, IntValue.of(2));
+                Assignment r = a.element != null ? new Assignment(a.element, source)
+                                                 : new Assignment(a.target, source);
+                p.body.members.set(p.body.members.indexOf(s), r);
+                count++;
+            }
+        return count;
+    }
+
+    static void check (Program p, Path emitted) throws IOException {
+        Program q = new Parser(new SourceLexer(Files.readAllBytes(emitted), 0)).program();
+        if (!Outline.text(q).equals(Outline.text(p)))
+            throw new IllegalStateException("emitted source differs");
+    }
+
+    public static void main (String args[]) throws IOException {
+        if (args.length > 0 && !args[0].matches("\\d+")) {
+            Emitter e = map(Paths.get(args[0]));
+            Program p = e.parse(false);
+            WritableByteChannel out = args.length > 1
+                ? FileChannel.open(Paths.get(args[1]), StandardOpenOption.CREATE,
+                                   StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                : Channels.newChannel(System.out);
+            e.emit(p, out);
+            out.close();
+            return;
+        }
+        int loops = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        Path in = Files.createTempFile("emit", ".c"), out = Files.createTempFile("emitted", ".c");
+        try {
+            Files.write(in, Outline.generate(loops).replace("\t}\n", "\t}\n\tx = i;\n")
+                                                     .getBytes(StandardCharsets.US_ASCII));
+            Emitter e = map(in);
+            Program p = e.parse(false);
+            int rewritten = rewrite(p, 1000);
+            for (int round = 0; round < 5; round++) {
+                long t0 = System.nanoTime();
+                Files.copy(in, out, StandardCopyOption.REPLACE_EXISTING);
+                long t1 = System.nanoTime();
+                e.verbatim = true;
+                try (FileChannel c = FileChannel.open(out, StandardOpenOption.WRITE,
+                                                      StandardOpenOption.TRUNCATE_EXISTING)) {
+                    e.emit(p, c);
+                }
+                long t2 = System.nanoTime();
+                if (round == 0)     // the output parses to the rewritten program
+                    check(p, out);
+                e.verbatim = false;
+                long t3 = System.nanoTime();
+                try (FileChannel c = FileChannel.open(out, StandardOpenOption.WRITE,
+                                                      StandardOpenOption.TRUNCATE_EXISTING)) {
+                    e.emit(p, c);
+                }
+                long t4 = System.nanoTime();
+                if (round == 0)
+                    check(p, out);
+                System.out.printf("round %d: %d KB, %d rewritten: copy %.1f ms, emit %.1f ms,"
+                                  + " print all %.1f ms%n", round, Files.size(in) / 1024,
+                                  rewritten, (t1 - t0) / 1e6, (t2 - t1) / 1e6, (t4 - t3) / 1e6);
+            }
+        } finally {
+            Files.delete(in);
+            Files.delete(out);
+        }
+    } // main
+
+} // class Emitter
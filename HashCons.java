@@ -0,0 +1,89 @@
+import java.util.*;
+
+// Hash-consing factory for expressions.  Structurally equal Binary,
+// Unary, Variable and Value nodes are built once and shared, so the
+// expressions of a program form a DAG.  A Binary or Unary is keyed on
+// its operator and the identity of its children, which are already
+// canonical, so a lookup never walks a subtree.
+// Shared nodes must not be modified in place: passes that rewrite
+// expressions, such as LoopOptimizer, need a parse without a HashCons.
+
+public class HashCons {
+
+    private static final class Key {
+        final Object tag;           // Operator, Type of a literal, or Variable.class
+        final Object value;         // literal bits or variable id, compared by equals
+        final Expression a, b;      // children, compared by identity
+
+        Key (Object t, Object v, Expression a, Expression b) {
+            tag = t; value = v; this.a = a; this.b = b;
+        }
+
+        public boolean equals (Object obj) {
+            Key k = (Key)obj;
+            return tag == k.tag && a == k.a && b == k.b
+                && Objects.equals(value, k.value);
+        }
+
+        public int hashCode ( ) {
+            return ((tag.hashCode() * 31 + Objects.hashCode(value)) * 31
+                    + System.identityHashCode(a)) * 31 + System.identityHashCode(b);
+        }
+    }
+
+    private final HashMap<Key, Expression> nodes = new HashMap<Key, Expression>();
+    private final Set<Expression> shared =
+        Collections.newSetFromMap(new IdentityHashMap<Expression, Boolean>());
+    int requests = 0;   // nodes the parser asked for
+
+    private Expression lookup (Key k) {
+        requests++;
+        Expression e = nodes.get(k);
+        if (e != null)
+            shared.add(e);
+        return e;
+    }
+
+    private Expression add (Key k, Expression e) {    // on a miss only
+        nodes.put(k, e);
+        Metrics.built(e);
+        return e;
+    }
+
+    // true if the parser asked for e more than once
+    boolean isShared (Expression e) { return shared.contains(e); }
+
+    int size ( ) { return nodes.size(); }
+
+    public Variable variable (String id) {
+        Key k = new Key(Variable.class, id, null, null);
+        Expression e = lookup(k);
+        return (Variable)(e != null ? e : add(k, new Variable(id)));
+    }
+
+    public Value value (Value v) {
+        Object bits;
+        if (v.type() == Type.INT) bits = v.intValue();
+        else if (v.type() == Type.FLOAT) bits = Float.floatToIntBits(v.floatValue());
+        else if (v.type() == Type.CHAR) bits = v.charValue();
+        else bits = v.boolValue();
+        Key k = new Key(v.type(), bits, null, null);
+        Expression e = lookup(k);
+        return (Value)(e != null ? e : add(k, v));
+    }
+
+    public Expression binary (Operator op, Expression l, Expression r) {
+        Key k = new Key(op, null, l, r);
+        Expression e = lookup(k);
+        return e != null ? e : add(k, new Binary(op, l, r));
+    }
+
+    public Expression unary (Operator op, Expression term) {
+        if (op == Operator.MINUS)   // as in the Unary constructor
+            op = Operator.NEG;
+        Key k = new Key(op, null, term, null);
+        Expression e = lookup(k);
+        return e != null ? e : add(k, new Unary(op, term));
+    }
+
+} // class HashCons
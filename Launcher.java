@@ -0,0 +1,157 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// One entry point for the front end, so that a build system invoking it
+// once per file can run every command from a single class-data-sharing
+// archive.  A dynamic AppCDS archive (JDK 13 and later) holds the
+// parsed and verified classes a training run loaded; a JVM started
+// with it maps them instead of loading Lexer, Parser, the abstract
+// syntax and StaticTypeCheck again.
+//     java -cp clite.jar Launcher archive clite.jsa test.c
+//     java -XX:SharedArchiveFile=clite.jsa -cp clite.jar Launcher check prog.c
+//     java -cp clite.jar Launcher bench clite.jsa test.c [runs]
+// Commands:
+//   lex | parse | check | run file   Lexer, Parser, StaticTypeCheck and
+//                                    Semantics main
+//   token file                       print the first token and stop
+//   verdict file                     type check quietly, print the verdict
+//   train file                       every phase, quietly; what archive runs
+//   archive jsa file                 train in a child JVM that dumps jsa
+//   bench jsa file [runs]            startup times with and without jsa
+// CDS only archives classes from jars, so run it with -cp clite.jar.
+// The archive is tied to the JVM and class path that wrote it; with a
+// different one the JVM warns and runs without it.
+
+public class Launcher {
+
+    static void dispatch (String command, String[ ] rest) {
+        switch (command) {
+            case "lex":     Lexer.main(rest); break;
+            case "parse":   Parser.main(rest); break;
+            case "check":   StaticTypeCheck.main(rest); break;
+            case "run":     Semantics.main(rest); break;
+            case "token":   System.out.println(new Lexer(rest[0]).next()); break;
+            case "verdict": verdict(rest[0]); break;
+            case "train":   train(rest[0]); break;
+            default:
+                System.out.println("unknown command: " + command);
+                System.exit(1);
+        }
+    }
+
+    // StaticTypeCheck.V exits with the error if the program is not valid
+    static void verdict (String file) {
+        Program prog = new Parser(new Lexer(file)).program();
+        StaticTypeCheck.V(prog);
+        System.out.println("valid");
+    }
+
+    // loads what the commands load, without their printing
+    static void train (String file) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            Lexer lexer = new Lexer(file);
+            while (lexer.next().type() != TokenType.Eof)
+                ;
+            Program prog = new Parser(new Lexer(file)).program();
+            prog.display();
+            StaticTypeCheck.V(prog);
+            StaticTypeCheck.typing(prog.decpart);
+            new Semantics().M(prog);
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    static List<String> java (String... options) {
+        ArrayList<String> command = new ArrayList<String>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(Arrays.asList(options));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("Launcher");
+        return command;
+    }
+
+    static int exec (List<String> command, boolean quiet) throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder(command).redirectErrorStream(true);
+        if (quiet)
+            pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        else
+            pb.inheritIO();
+        return pb.start().waitFor();
+    }
+
+    static void archive (String jsa, String file) throws IOException, InterruptedException {
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator))
+            if (Files.isDirectory(Paths.get(entry))) {     // CDS refuses class directories
+                System.out.println("An archive needs the classes in a jar, not " + entry
+                                   + "\n    jar cf clite.jar *.class; java -cp clite.jar Launcher ...");
+                System.exit(1);
+            }
+        List<String> command = java("-XX:ArchiveClassesAtExit=" + jsa);
+        command.add("train");
+        command.add(file);
+        if (exec(command, true) != 0 || !Files.exists(Paths.get(jsa))) {
+            System.out.println("Cannot write archive " + jsa);
+            System.exit(1);
+        }
+        System.out.println("wrote " + jsa + ", " + Files.size(Paths.get(jsa)) / 1024 + " KB; use"
+                           + "\n    java -XX:SharedArchiveFile=" + jsa + " -cp "
+                           + System.getProperty("java.class.path") + " Launcher command file");
+    }
+
+    // median wall time of runs child JVMs, from process start to exit
+    static double time (List<String> options, String command, String file, int runs)
+            throws IOException, InterruptedException {
+        List<String> line = java(options.toArray(new String[0]));
+        line.add(command);
+        line.add(file);
+        long[ ] nanos = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long t0 = System.nanoTime();
+            if (exec(line, true) != 0) {
+                System.out.println("failed: " + String.join(" ", line));
+                System.exit(1);
+            }
+            nanos[i] = System.nanoTime() - t0;
+        }
+        Arrays.sort(nanos);
+        return nanos[runs / 2] / 1e6;
+    }
+
+    static void bench (String jsa, String file, int runs) throws IOException, InterruptedException {
+        if (!Files.exists(Paths.get(jsa)))
+            archive(jsa, file);
+        List<String> none = Arrays.asList("-Xshare:off");
+        List<String> jdk = Collections.emptyList();     // the JDK's default archive only
+        List<String> app = Arrays.asList("-XX:SharedArchiveFile=" + jsa);
+        System.out.printf("%-22s %10s %10s %10s%n", "median of " + runs + " (ms)",
+                          "no CDS", "JDK CDS", "AppCDS");
+        for (String command : new String[ ] { "token", "verdict" }) {
+            System.out.printf("%-22s %10.1f %10.1f %10.1f%n",
+                              command.equals("token") ? "first token" : "first verdict",
+                              time(none, command, file, runs),
+                              time(jdk, command, file, runs),
+                              time(app, command, file, runs));
+        }
+    }
+
+    public static void main (String args[]) throws IOException, InterruptedException {
+        boolean jsa = args.length > 0 && (args[0].equals("archive") || args[0].equals("bench"));
+        if (args.length < (jsa ? 3 : 2)) {
+            System.out.println(jsa ? "Usage: java Launcher " + args[0] + " jsa file"
+                                   : "Usage: java Launcher command file");
+            System.exit(1);
+        }
+        if (args[0].equals("archive"))
+            archive(args[1], args[2]);
+        else if (args[0].equals("bench"))
+            bench(args[1], args[2], args.length > 3 ? Integer.parseInt(args[3]) : 11);
+        else
+            dispatch(args[0], Arrays.copyOfRange(args, 1, args.length));
+    } // main
+
+} // class Launcher
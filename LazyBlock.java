@@ -0,0 +1,74 @@
+import java.util.*;
+
+// A Block whose members are parsed on first access.  Parser in lazy
+// mode records only where the '{' of an if or while body is; the
+// members list parses the body from there the first time it is read or
+// changed, so code that reads b.members works unchanged.  Bodies nested
+// inside are lazy again.  All the LazyBlocks of one parse share its
+// HashCons and Spans, so they parse under one lock, also shared.
+
+class LazyBlock extends Block {
+
+    private final byte[ ] source;
+    private final int open;         // offset of the body's '{'
+    private final int openLine;     // line of the '{'
+    private final HashCons nodes;
+    private final Emitter.Spans spans;
+    private final Object lock;
+    private final Deferred deferred = new Deferred();
+
+    LazyBlock (byte[ ] source, int open, int openLine, HashCons nodes,
+               Emitter.Spans spans, Object lock) {
+        this.source = source;
+        this.open = open;
+        this.openLine = openLine;
+        ByteLexer first = new ByteLexer(source, open + 1, openLine);
+        first.speculative = true;   // an error is the parse's to report
+        try {
+            first.next();
+            line = first.line();    // a Block's line is that of its first token
+        } catch (IllegalStateException e) {
+            line = openLine;
+        }
+        this.nodes = nodes;
+        this.spans = spans;
+        this.lock = lock;
+        members = deferred;
+    }
+
+    boolean parsed ( ) { return deferred.loaded != null; }
+
+    public void display (int level) { // as the Block it stands for
+        new Indenter(level).display("Block: ");
+        for (Statement s : members)
+            s.display(level+1);
+    }
+
+    // the body's members, parsed by the first call
+    private final class Deferred extends AbstractList<Statement> {
+        private volatile List<Statement> loaded;
+
+        private List<Statement> load ( ) {
+            List<Statement> m = loaded;
+            if (m != null) return m;
+            synchronized (lock) {
+                if (loaded != null) return loaded;
+                Parser parser = new Parser(new SourceLexer(source, open, openLine), nodes);
+                parser.lazy = true;
+                parser.spans = spans;
+                parser.lock = lock;
+                m = parser.block().members;
+                loaded = m;
+                if (spans != null)  // again, now with its members
+                    spans.span(LazyBlock.this, open, parser.end());
+                return m;
+            }
+        }
+
+        public int size ( ) { return load().size(); }
+        public Statement get (int i) { return load().get(i); }
+        public Statement set (int i, Statement s) { return load().set(i, s); }
+        public void add (int i, Statement s) { load().add(i, s); modCount++; }
+        public Statement remove (int i) { modCount++; return load().remove(i); }
+    }
+}
@@ -8,14 +8,37 @@ public class Lexer {
     private String line = "";
     private int lineno = 0;
     private int col = 1;
+    private int offset = -1;    // characters read so far, minus one
+    private int start = 0;      // offset of the last token's first character
+    private int startLine = 0;  // line of the last token
     private final String letters = "abcdefghijklmnopqrstuvwxyz"
         + "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
     private final String digits = "0123456789";
     private final char eolnCh = '\n';
     private final char eofCh = '\004';
+    private String fileName;
+    private PhaseEvents.Lex event;  // this file's tokenization, for JFR
+    private long bytes;
+    private long tokens = 0;
+    private boolean timed = false;  // time each scan(), for a recording that wants Lex events
+    protected long lexing = -1;     // ns spent lexing this file; -1 if not measured
 
 
+    protected Lexer ( ) { } // for subclasses that supply their own tokens
+
+    // for subclasses that scan() the tokens of a source of their own;
+    // next() counts them as it counts this class's
+    protected Lexer (String fileName, long bytes) {
+        this.fileName = fileName;
+        this.bytes = bytes;
+        event = new PhaseEvents.Lex();
+        event.begin();
+    }
+
     public Lexer (String fileName) { // source filename
+        this(fileName, new File(fileName).length());
+        timed = event.isEnabled();
+        if (timed) lexing = 0;
         try {
             input = new BufferedReader (new FileReader(fileName));
         }
@@ -29,6 +52,7 @@ public class Lexer {
         if (ch == eofCh)
             error("Attempt to read past end of file");
         col++;
+        offset++;
         if (col >= line.length()) {
             try {
                 line = input.readLine( );
@@ -49,8 +73,48 @@ public class Lexer {
     }
 
 
+    public int position( ) { // source offset of the last token returned
+        return start;
+    }
+
+    public int line( ) { // source line of the last token returned, 0 if unknown
+        return startLine;
+    }
+
+    // Parsing runs between the scan() calls, so the Lexer's lifetime is
+    // not its lexing time.  Two nanoTime calls a token cost about as
+    // much as scanning it, so scan() is timed only while JFR records
+    // Lex events; a subclass lexing on its own may set lexing instead.
     public Token next( ) { // Return next token
+        Token t;
+        if (timed) {
+            long t0 = System.nanoTime();
+            t = scan();
+            lexing += System.nanoTime() - t0;
+        } else
+            t = scan();
+        tokens++;
+        if (t == Token.eofTok && event != null) {
+            Metrics.tokens.add(tokens);
+            if (lexing >= 0)
+                Metrics.record(Metrics.LEX, lexing);
+            event.end();
+            if (event.shouldCommit()) {
+                event.file = fileName;
+                event.tokens = tokens;
+                event.bytes = bytes;
+                event.lexing = lexing;
+                event.commit();
+            }
+            event = null;
+        }
+        return t;
+    }
+
+    protected Token scan( ) {
         do {
+            start = offset;
+            startLine = lineno;
             if (isLetter(ch)) { // ident or keyword
                 String spelling = concat(letters + digits);
                 return Token.keyword(spelling);
@@ -62,16 +126,21 @@ public class Lexer {
                 return Token.mkFloatLiteral(number);
             } else switch (ch) {
             case ' ': case '\t': case '\r': case eolnCh:
+                // the rest of the run on this line in one loop, not a nextChar() a byte
+                int to = col + 1;
+                while (to < line.length() && ByteScan.space(line.charAt(to)))
+                    to++;
+                offset += to - 1 - col;
+                col = to - 1;
                 ch = nextChar();
                 break;
 
             case '/':  // divide or comment
                 ch = nextChar();
                 if (ch != '/')  return Token.divideTok;
-                // comment
-                do {
-                    ch = nextChar();
-                } while (ch != eolnCh);
+                // comment: jump to the '\n' that ends every line
+                offset += line.length() - 1 - col;
+                col = line.length() - 1;
                 ch = nextChar();
                 break;
 
@@ -102,6 +171,10 @@ public class Lexer {
             	return Token.semicolonTok;
             case ',': ch = nextChar();
             	return Token.commaTok;
+            case '[': ch = nextChar();
+            	return Token.leftBracketTok;
+            case ']': ch = nextChar();
+            	return Token.rightBracketTok;
             // - * ( ) { } ; ,  각 기호에 따라 적절한 token을 리턴해준다.
 
             case '&': check('&'); return Token.andTok;
@@ -124,7 +197,7 @@ public class Lexer {
             default:  error("Illegal character " + ch);
             } // switch
         } while (true);
-    } // next
+    } // scan
 
 
     private boolean isLetter(char c) {
@@ -164,6 +237,7 @@ public class Lexer {
     }
 
     public void error (String msg) {
+        Metrics.error(Metrics.LEXICAL);
         System.err.print(line);
         System.err.println("Error: column " + col + " " + msg);
         System.exit(1);
@@ -0,0 +1,119 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Throughput of Lexer against ByteLexer on a generated C++Lite file.
+// Both token streams are compared first; then each lexer is timed over
+// the whole file several times and the bytes per second are printed,
+// followed by ByteScan's whitespace and comment loops alone, scalar
+// and, when the module is present, on the Vector API.  The "commented"
+// input is deeply indented and has a long comment on every line.
+// Usage: java --add-modules jdk.incubator.vector LexerBenchmark
+//            [statements] [plain | commented | file]
+
+public class LexerBenchmark {
+
+    static String commented (int statements) {
+        StringBuilder sb = new StringBuilder("int main(){\n\tint x, y;\n");
+        String indent = "                                ";
+        for (int i = 0; i < statements; i++)
+            sb.append(indent).append("// step ").append(i)
+              .append(": add y to x and keep the total for the next pass\n")
+              .append(indent).append("x = x + y;   // running total\n");
+        return sb.append("}\n").toString();
+    }
+
+    static String generate (int statements) {
+        StringBuilder sb = new StringBuilder("int main(){\n\tint x, y, count;\n\tfloat rate;\n\tchar c;\n");
+        for (int i = 0; i < statements; i++) {
+            switch (i % 4) {
+            case 0: sb.append("\t// update the running total\n\tx = x + y * ").append(i).append(";\n"); break;
+            case 1: sb.append("\tif (x <= ").append(i).append(" && y != 0) {\n\t\tcount = count - 1;\n\t}\n"); break;
+            case 2: sb.append("\trate = rate / 2.5 + 0.").append(i).append(";\n"); break;
+            default: sb.append("\tc = 'q';\n");
+            }
+        }
+        return sb.append("}\n").toString();
+    }
+
+    static long lexer (String fileName) {
+        Lexer lexer = new Lexer(fileName);
+        long n = 0;
+        while (lexer.next() != Token.eofTok) n++;
+        return n;
+    }
+
+    static long byteLexer (byte[ ] source) {
+        ByteLexer lexer = new ByteLexer(source);
+        long n = 0;
+        while (lexer.next() != Token.eofTok) n++;
+        return n;
+    }
+
+    // crosses source as ByteLexer does, with only the ByteScan loops:
+    // whitespace runs, comment bodies, and one byte for anything else
+    static long scan (byte[ ] s, boolean vector) {
+        long runs = 0;
+        int pos = 0;
+        while (pos < s.length) {
+            pos = vector ? VectorScan.skipWhitespace(s, pos, s.length)
+                         : ByteScan.scalarSkipWhitespace(s, pos, s.length);
+            if (pos + 1 < s.length && s[pos] == '/' && s[pos+1] == '/')
+                pos = vector ? VectorScan.lineEnd(s, pos + 2, s.length)
+                             : ByteScan.scalarLineEnd(s, pos + 2, s.length);
+            else
+                pos++;
+            runs++;
+        }
+        return runs;
+    }
+
+    static void same (String fileName, byte[ ] source) {
+        Lexer a = new Lexer(fileName);
+        ByteLexer b = new ByteLexer(source);
+        for (long i = 0; ; i++) {
+            Token s = a.next(), t = b.next();
+            if (!s.toString().equals(t.toString()))
+                throw new IllegalStateException("token " + i + ": " + s + " != " + t);
+            if (s == Token.eofTok) return;
+        }
+    }
+
+    public static void main (String args[]) throws IOException {
+        int statements = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        String kind = args.length > 1 ? args[1] : "plain";
+        boolean generated = kind.equals("plain") || kind.equals("commented");
+        Path file = generated ? Files.createTempFile("lexer", ".c") : Paths.get(kind);
+        if (generated) {
+            String text = kind.equals("plain") ? generate(statements) : commented(statements);
+            Files.write(file, text.getBytes("US-ASCII"));
+            file.toFile().deleteOnExit();
+        }
+        byte[ ] source = Files.readAllBytes(file);
+        same(file.toString(), source);
+        System.out.println("ByteScan: " + (ByteScan.VECTOR ? "Vector API" : "scalar"));
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.nanoTime();
+            long n1 = lexer(file.toString());
+            long t1 = System.nanoTime();
+            byteLexer(source);
+            long t2 = System.nanoTime();
+            System.out.printf("round %d: %d tokens, Lexer %.1f MB/s, ByteLexer %.1f MB/s%n",
+                              round, n1, source.length * 1e3 / (t1 - t0),
+                              source.length * 1e3 / (t2 - t1));
+        }
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.nanoTime();
+            long runs = scan(source, false);
+            long t1 = System.nanoTime();
+            if (ByteScan.AVAILABLE && scan(source, true) != runs)
+                throw new IllegalStateException("vector scan differs");
+            long t2 = System.nanoTime();
+            System.out.printf("round %d: ByteScan scalar %.1f MB/s", round, source.length * 1e3 / (t1 - t0));
+            if (ByteScan.AVAILABLE)
+                System.out.printf(", vector %.1f MB/s", source.length * 1e3 / (t2 - t1));
+            System.out.println();
+        }
+    } //main
+
+} // class LexerBenchmark
@@ -0,0 +1,308 @@
+import java.util.*;
+
+// Loop optimizations over the abstract syntax of C++Lite.
+// For every Loop the set of variables assigned in its body is computed;
+// an expression that reads none of them is loop invariant.
+//  - code motion: invariant Assignment sources and subexpressions are
+//    computed once into temporaries before the loop
+//  - strength reduction: for an induction variable i updated by
+//    i = i + c, each product i * k with invariant k is replaced by a
+//    temporary that is advanced by c * k right after the update of i
+// Code moved out of a loop is guarded by the loop test, so nothing is
+// evaluated that the original program would not have evaluated.
+// The program is expected to be type checked; the new temporaries
+// are appended to its declarations.
+
+public class LoopOptimizer {
+
+    private Program program;
+    private TypeMap tm;
+    private ExpressionVisitor<Type> typeOf;     // against tm
+    private Set<String> names = new HashSet<String>();
+    private int count = 0;
+    int hoisted = 0, reduced = 0;
+
+    public LoopOptimizer (Program p) {
+        program = p;
+        tm = StaticTypeCheck.typing(p.decpart);
+        typeOf = StaticTypeCheck.typeOf(tm);
+        for (Declaration d : p.decpart)
+            names.add(d.v.id());
+    }
+
+    public void optimize ( ) {
+        optimize(program.body);
+    }
+
+    public static Set<Variable> assigned (Statement s) {
+        return assignments(s, new HashMap<Variable, Integer>()).keySet();
+    }
+
+    private static Map<Variable, Integer> assignments (Statement s, Map<Variable, Integer> counts) {
+        if (s instanceof Assignment) {
+            Variable v = ((Assignment)s).target;
+            Integer n = counts.get(v);
+            counts.put(v, n == null ? 1 : n + 1);
+        } else if (s instanceof Block) {
+            for (Statement m : ((Block)s).members)
+                assignments(m, counts);
+        } else if (s instanceof Conditional) {
+            assignments(((Conditional)s).thenbranch, counts);
+            assignments(((Conditional)s).elsebranch, counts);
+        } else if (s instanceof Loop)
+            assignments(((Loop)s).body, counts);
+        return counts;
+    }
+
+    private Statement optimize (Statement s) {
+        if (s instanceof Block) {
+            Block b = (Block)s;
+            for (int i = 0; i < b.members.size(); i++)
+                b.members.set(i, optimize(b.members.get(i)));
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            c.thenbranch = optimize(c.thenbranch);
+            c.elsebranch = optimize(c.elsebranch);
+        } else if (s instanceof Loop) {
+            Loop l = (Loop)s;
+            l.body = optimize(l.body);  // inner loops first
+            return transform(l);
+        }
+        return s;
+    }
+
+    private Statement transform (Loop l) {
+        if (!(l.body instanceof Block))
+            return l;
+        Block body = (Block)l.body;
+        Map<Variable, Integer> counts = assignments(body, new HashMap<Variable, Integer>());
+        Set<Variable> assigned = counts.keySet();
+        Block pre = new Block();
+        Map<String, Variable> temps = new HashMap<String, Variable>();
+        // only direct members of the body run on every iteration
+        for (Statement s : body.members)
+            if (s instanceof Assignment) {
+                Assignment a = (Assignment)s;
+                a.source = hoist(a.source, assigned, pre, temps);
+            }
+        for (int i = 0; i < body.members.size(); i++)
+            i += reduce(body, i, counts, pre, temps);
+        if (pre.members.isEmpty())
+            return l;
+        pre.members.add(l);
+        return new Conditional(l.test, pre);  // if (test) { pre; while (test) body }
+    }
+
+    private Expression hoist (Expression e, Set<Variable> assigned,
+                              Block pre, Map<String, Variable> temps) {
+        if (e instanceof Binary) {
+            if (invariant(e, assigned))
+                return temporary(e, pre, temps);
+            Binary b = (Binary)e;
+            b.term1 = hoist(b.term1, assigned, pre, temps);
+            if (!b.op.BooleanOp( ))  // the right operand of && and || may be skipped
+                b.term2 = hoist(b.term2, assigned, pre, temps);
+        } else if (e instanceof Unary) {
+            if (invariant(e, assigned))
+                return temporary(e, pre, temps);
+            Unary u = (Unary)e;
+            u.term = hoist(u.term, assigned, pre, temps);
+        }
+        return e;
+    }
+
+    private Variable temporary (Expression e, Block pre, Map<String, Variable> temps) {
+        String k = key(e);
+        Variable t = temps.get(k);
+        if (t == null) {
+            t = declare(e.accept(typeOf));
+            pre.members.add(new Assignment(t, e));
+            temps.put(k, t);
+            hoisted++;
+        }
+        return t;
+    }
+
+    // Strength reduction for the induction update at body.members[i];
+    // returns the number of statements inserted after it.
+    private int reduce (Block body, int i, Map<Variable, Integer> counts,
+                        Block pre, Map<String, Variable> temps) {
+        Statement s = body.members.get(i);
+        if (!(s instanceof Assignment))
+            return 0;
+        Variable iv = ((Assignment)s).target;
+        Expression source = ((Assignment)s).source;
+        if (counts.get(iv) != 1 || !isInt(iv) || !(source instanceof Binary))
+            return 0;
+        Binary update = (Binary)source;
+        Expression step;
+        if (update.op == Operator.PLUS && iv.equals(update.term2))
+            step = update.term1;
+        else if (update.op.ArithmeticOp( ) && iv.equals(update.term1)
+                 && (update.op == Operator.PLUS || update.op == Operator.MINUS))
+            step = update.term2;
+        else
+            return 0;
+        if (!invariant(step, counts.keySet()) || !isInt(step))
+            return 0;
+
+        Map<String, Expression> factors = new LinkedHashMap<String, Expression>();
+        for (Statement m : body.members)
+            if (m instanceof Assignment)
+                products(((Assignment)m).source, iv, counts.keySet(), factors);
+        int inserted = 0;
+        for (Map.Entry<String, Expression> f : factors.entrySet()) {
+            String k = "*" + iv + " " + f.getKey();
+            if (temps.containsKey(k))
+                continue;
+            Variable product = declare(Type.INT);
+            Variable delta = declare(Type.INT);
+            pre.members.add(new Assignment(product,
+                    new Binary(Operator.TIMES, iv, f.getValue())));
+            pre.members.add(new Assignment(delta,
+                    new Binary(Operator.TIMES, step, f.getValue())));
+            body.members.add(i + 1, new Assignment(product,
+                    new Binary(update.op, product, delta)));
+            temps.put(k, product);
+            inserted++;
+            reduced++;
+        }
+        if (inserted > 0)
+            for (Statement m : body.members)
+                replace(m, iv, temps);
+        return inserted;
+    }
+
+    // collect the invariant int factors k of products iv * k that are
+    // evaluated on every iteration
+    private void products (Expression e, Variable iv, Set<Variable> assigned,
+                           Map<String, Expression> factors) {
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            Expression k = factor(b, iv);
+            if (k != null && invariant(k, assigned) && isInt(k)) {
+                factors.put(key(k), k);
+                return;
+            }
+            products(b.term1, iv, assigned, factors);
+            if (!b.op.BooleanOp( ))
+                products(b.term2, iv, assigned, factors);
+        } else if (e instanceof Unary)
+            products(((Unary)e).term, iv, assigned, factors);
+    }
+
+    private static Expression factor (Binary b, Variable iv) {
+        if (b.op != Operator.TIMES)
+            return null;
+        if (iv.equals(b.term1) && !iv.equals(b.term2))
+            return b.term2;
+        if (iv.equals(b.term2) && !iv.equals(b.term1))
+            return b.term1;
+        return null;
+    }
+
+    private void replace (Statement s, Variable iv, Map<String, Variable> temps) {
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            a.source = replace(a.source, iv, temps);
+        } else if (s instanceof Block) {
+            for (Statement m : ((Block)s).members)
+                replace(m, iv, temps);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            c.test = replace(c.test, iv, temps);
+            replace(c.thenbranch, iv, temps);
+            replace(c.elsebranch, iv, temps);
+        } else if (s instanceof Loop) {
+            Loop l = (Loop)s;
+            l.test = replace(l.test, iv, temps);
+            replace(l.body, iv, temps);
+        }
+    }
+
+    private Expression replace (Expression e, Variable iv, Map<String, Variable> temps) {
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            Expression k = factor(b, iv);
+            if (k != null && temps.containsKey("*" + iv + " " + key(k)))
+                return temps.get("*" + iv + " " + key(k));
+            b.term1 = replace(b.term1, iv, temps);
+            b.term2 = replace(b.term2, iv, temps);
+        } else if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            u.term = replace(u.term, iv, temps);
+        }
+        return e;
+    }
+
+    private Variable declare (Type type) {
+        String id;
+        do {
+            id = "t" + count++;
+        } while (names.contains(id));
+        names.add(id);
+        Declaration d = new Declaration(id, type);
+        program.decpart.add(d);
+        tm.put(d.v, type);
+        return d.v;
+    }
+
+    private boolean isInt (Expression e) {
+        return e.accept(typeOf) == Type.INT;
+    }
+
+    static boolean invariant (Expression e, Set<Variable> assigned) {
+        if (e instanceof Variable)
+            return !assigned.contains(e);
+        if (e instanceof Binary)
+            return invariant(((Binary)e).term1, assigned)
+                && invariant(((Binary)e).term2, assigned);
+        if (e instanceof Unary)
+            return invariant(((Unary)e).term, assigned);
+        if (e instanceof ArrayRef)      // an element write assigns the array
+            return !assigned.contains(((ArrayRef)e).array)
+                && invariant(((ArrayRef)e).index, assigned);
+        return true;
+    }
+
+    // structural key: equal keys mean the expressions compute the same value
+    static String key (Expression e) {
+        if (e instanceof Variable)
+            return e.toString();
+        if (e instanceof Value)
+            return ((Value)e).type().getId() + ":" + e;
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            return "(" + b.op + " " + key(b.term1) + " " + key(b.term2) + ")";
+        }
+        if (e instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef)e;
+            return r.array + "[" + key(r.index) + "]";
+        }
+        Unary u = (Unary)e;
+        return "(" + u.op + " " + key(u.term) + ")";
+    }
+
+    public static void main(String args[]) {
+        // differential execution: run the original and the optimized
+        // program and compare every declared variable
+        Program original = new Parser(new Lexer(args[0])).program();
+        Program program = new Parser(new Lexer(args[0])).program();
+        StaticTypeCheck.V(program);
+        LoopOptimizer optimizer = new LoopOptimizer(program);
+        optimizer.optimize();
+        program.display();
+        Semantics before = new Semantics( ), after = new Semantics( );
+        State expected = before.M(original);
+        State actual = after.M(program);
+        for (Declaration d : original.decpart)
+            StaticTypeCheck.check(("" + expected.get(d.v)).equals("" + actual.get(d.v)),
+                   "optimized program differs at " + d.v + ": "
+                   + expected.get(d.v) + " != " + actual.get(d.v));
+        System.out.println("hoisted: " + optimizer.hoisted
+                           + ", strength reduced: " + optimizer.reduced);
+        System.out.println("evaluations: " + before.evaluations
+                           + " -> " + after.evaluations);
+    } //main
+
+} // class LoopOptimizer
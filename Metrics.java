@@ -0,0 +1,215 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.management.ObjectName;
+
+// Process-wide counters of the front end, for long-running use.
+// Everything is a LongAdder, so compiles on many threads update their
+// own cells instead of contending on one field.  Lexer adds its token
+// count once per file; Parser counts the nodes it builds, by class;
+// StaticTypeCheck counts checks and errors; each phase records its
+// latency in a histogram of power-of-two nanosecond buckets.  A parser
+// lexes between its own steps, so only lexing timed on its own is
+// recorded as lex: PipelinedLexer's producer thread, or a Lexer whose
+// JFR Lex event is enabled (see Lexer.next); the parse latency
+// includes the lexing of its tokens either way.
+// The counters are read through JMX (register(), or -Dclite.jmx=true)
+// or as a text dump every few seconds (startDump, or
+// -Dclite.metrics.dump=<seconds>, written to System.err).
+
+public class Metrics implements MetricsMXBean {
+
+    // AST classes counted
+    static final int BINARY = 0, UNARY = 1, VARIABLE = 2, INT_VALUE = 3,
+        FLOAT_VALUE = 4, CHAR_VALUE = 5, BOOL_VALUE = 6;
+    private static final String[ ] NODE_NAMES = {"Binary", "Unary", "Variable",
+        "IntValue", "FloatValue", "CharValue", "BoolValue"};
+
+    // error categories
+    static final int LEXICAL = 0, SYNTAX = 1, TYPE = 2;
+    private static final String[ ] ERROR_NAMES = {"lexical", "syntax", "type"};
+
+    // phases timed
+    static final int LEX = 0, PARSE = 1, TYPE_CHECK = 2;
+    private static final String[ ] PHASE_NAMES = {"lex", "parse", "typecheck"};
+
+    static final class Histogram {
+        private final LongAdder[ ] buckets = new LongAdder[64];  // bucket b: [2^(b-1), 2^b) ns
+        private final LongAdder count = new LongAdder(), total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+        Histogram ( ) {
+            for (int b = 0; b < buckets.length; b++)
+                buckets[b] = new LongAdder();
+        }
+
+        void record (long nanos) {
+            nanos = Math.max(0, nanos);
+            buckets[64 - Long.numberOfLeadingZeros(nanos) & 63].increment();
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        // upper bound of the bucket holding quantile q, in ns
+        long quantile (double q) {
+            long n = count.sum(), seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b].sum();
+                if (n > 0 && seen >= q * n)
+                    return b == 0 ? 0 : Math.min(1L << b, max.get());
+            }
+            return max.get();
+        }
+
+        void reset ( ) {
+            for (LongAdder b : buckets) b.reset();
+            count.reset();
+            total.reset();
+            max.reset();
+        }
+    }
+
+    static final LongAdder tokens = new LongAdder();
+    static final LongAdder checks = new LongAdder();
+    static final LongAdder[ ] nodes = adders(NODE_NAMES.length);
+    static final LongAdder[ ] errors = adders(ERROR_NAMES.length);
+    static final Histogram[ ] latency = new Histogram[PHASE_NAMES.length];
+
+    static {
+        for (int p = 0; p < latency.length; p++)
+            latency[p] = new Histogram();
+        if (Boolean.getBoolean("clite.jmx"))
+            register();
+        int seconds = Integer.getInteger("clite.metrics.dump", 0);
+        if (seconds > 0)
+            startDump(seconds, System.err);
+    }
+
+    private static LongAdder[ ] adders (int n) {
+        LongAdder[ ] a = new LongAdder[n];
+        for (int i = 0; i < n; i++)
+            a[i] = new LongAdder();
+        return a;
+    }
+
+    static void built (Expression e) {
+        int kind;
+        if (e instanceof Binary) kind = BINARY;
+        else if (e instanceof Unary) kind = UNARY;
+        else if (e instanceof Variable || e instanceof ArrayRef) kind = VARIABLE;
+        else {
+            Type t = ((Value)e).type();
+            kind = t == Type.INT ? INT_VALUE : t == Type.FLOAT ? FLOAT_VALUE
+                 : t == Type.CHAR ? CHAR_VALUE : BOOL_VALUE;
+        }
+        nodes[kind].increment();
+    }
+
+    static void error (int category) {
+        errors[category].increment();
+    }
+
+    static void time (int phase, long startNanos) {
+        record(phase, System.nanoTime() - startNanos);
+    }
+
+    static void record (int phase, long nanos) {
+        latency[phase].record(nanos);
+    }
+
+    private static final Metrics instance = new Metrics();
+    private static boolean registered = false;
+
+    // registers the MBean with the platform MBean server, once
+    public static synchronized void register ( ) {
+        if (registered) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(instance, new ObjectName("clite:type=Metrics"));
+            registered = true;
+        } catch (Exception e) {
+            System.err.println("Metrics: " + e);
+        }
+    }
+
+    // prints a dump to out every period seconds, on a daemon thread
+    public static ScheduledExecutorService startDump (long period, PrintStream out) {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics dump");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleAtFixedRate(() -> out.print(instance.dump()), period, period, TimeUnit.SECONDS);
+        return timer;
+    }
+
+    public static Metrics get ( ) { return instance; }
+
+    public long getTokensLexed ( ) { return tokens.sum(); }
+
+    public long getTypeChecks ( ) { return checks.sum(); }
+
+    private static Map<String, Long> sums (String[ ] names, LongAdder[ ] adders) {
+        Map<String, Long> m = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < names.length; i++)
+            m.put(names[i], adders[i].sum());
+        return m;
+    }
+
+    public Map<String, Long> getNodesBuilt ( ) { return sums(NODE_NAMES, nodes); }
+
+    public Map<String, Long> getErrors ( ) { return sums(ERROR_NAMES, errors); }
+
+    public Map<String, Double> getLatencyMillis ( ) {
+        Map<String, Double> m = new LinkedHashMap<String, Double>();
+        for (int p = 0; p < latency.length; p++) {
+            Histogram h = latency[p];
+            long n = h.count.sum();
+            String name = PHASE_NAMES[p];
+            m.put(name + ".count", (double)n);
+            m.put(name + ".mean", n == 0 ? 0 : h.total.sum() / 1e6 / n);
+            m.put(name + ".p50", h.quantile(0.5) / 1e6);
+            m.put(name + ".p99", h.quantile(0.99) / 1e6);
+            m.put(name + ".max", h.max.get() / 1e6);
+        }
+        return m;
+    }
+
+    public String dump ( ) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("tokens.lexed ").append(getTokensLexed()).append('\n');
+        for (Map.Entry<String, Long> e : getNodesBuilt().entrySet())
+            sb.append("nodes.").append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        sb.append("typechecks ").append(getTypeChecks()).append('\n');
+        for (Map.Entry<String, Long> e : getErrors().entrySet())
+            sb.append("errors.").append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        Map<String, Double> l = getLatencyMillis();
+        for (String phase : PHASE_NAMES)
+            sb.append(String.format("latency.%s count=%.0f mean=%.3fms p50<=%.3fms p99<=%.3fms max=%.3fms%n",
+                                    phase, l.get(phase + ".count"), l.get(phase + ".mean"),
+                                    l.get(phase + ".p50"), l.get(phase + ".p99"),
+                                    l.get(phase + ".max")));
+        return sb.toString();
+    }
+
+    public void reset ( ) {
+        tokens.reset();
+        checks.reset();
+        for (LongAdder a : nodes) a.reset();
+        for (LongAdder a : errors) a.reset();
+        for (Histogram h : latency) h.reset();
+    }
+
+    static public void main ( String[] argv ) {
+        // front end over each file, then the counters
+        for (String file : argv) {
+            Program p = new Parser(new Lexer(file)).program();
+            StaticTypeCheck.V(p, null);
+        }
+        System.out.print(instance.dump());
+    } // main
+
+} // class Metrics
@@ -0,0 +1,20 @@
+import java.util.*;
+
+// The JMX view of Metrics, registered as clite:type=Metrics.
+
+public interface MetricsMXBean {
+
+    long getTokensLexed ( );
+
+    long getTypeChecks ( );
+
+    Map<String, Long> getNodesBuilt ( );       // by AST class
+
+    Map<String, Long> getErrors ( );           // by category
+
+    Map<String, Double> getLatencyMillis ( );  // phase.count, phase.mean, phase.p50, ...
+
+    String dump ( );
+
+    void reset ( );
+}
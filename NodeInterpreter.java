@@ -0,0 +1,861 @@
+import java.util.*;
+
+// A self-specializing interpreter for C++Lite.  The program is turned
+// into executable nodes that mirror its abstract syntax; variables become
+// slots of a Frame that holds ints and floats unboxed.  An expression or
+// assignment node starts uninitialized: on its first execution it runs
+// the generic Semantics code, looks at the run-time types it saw and
+// replaces itself in its parent with a node specialized for them (int
+// add, float compare, short-circuit bool and, ...).  Specialized nodes
+// pass primitives to each other through executeInt, executeFloat and
+// executeBool; when an operand has another type after all the node
+// replaces itself with the generic version for good, so it cannot flip
+// back and forth.  Each node class does one thing, so the JIT sees
+// monomorphic call sites along a hot path.
+
+public class NodeInterpreter {
+
+    private static final Semantics GENERIC = new Semantics( );
+    static long specialized = 0, deoptimized = 0;
+
+    // values of the variables; bool and char are held in ints
+    static final class Frame {
+        final Type[ ] types;        // run-time type of each value
+        final boolean[ ] defined;
+        final int[ ] ints;
+        final float[ ] floats;
+
+        Frame (Type[ ] declared) {
+            int n = declared.length;
+            types = declared.clone();
+            defined = new boolean[n];
+            ints = new int[n];
+            floats = new float[n];
+        }
+
+        Value get (int s) {
+            Type t = types[s];
+            if (!defined[s]) return Value.mkValue(t);
+            if (t == Type.INT) return IntValue.of(ints[s]);
+            if (t == Type.FLOAT) return new FloatValue(floats[s]);
+            if (t == Type.BOOL) return BoolValue.of(ints[s] != 0);
+            return CharValue.of((char)ints[s]);
+        }
+
+        void set (int s, Value v) {
+            Type t = v.type();
+            types[s] = t;
+            defined[s] = !v.isUndef();
+            if (!defined[s]) return;
+            if (t == Type.INT) ints[s] = v.intValue();
+            else if (t == Type.FLOAT) floats[s] = v.floatValue();
+            else if (t == Type.BOOL) ints[s] = v.boolValue() ? 1 : 0;
+            else ints[s] = v.charValue();
+        }
+    }
+
+    // a value of another type than the caller asked for
+    static final class UnexpectedType extends Exception {
+        private static final long serialVersionUID = 1L;
+        final Value result;
+        UnexpectedType (Value v) {
+            super(null, null, false, false);
+            result = v;
+        }
+    }
+
+    static int expectInt (Value v) throws UnexpectedType {
+        if (v.type() != Type.INT || v.isUndef()) throw new UnexpectedType(v);
+        return v.intValue();
+    }
+
+    static float expectFloat (Value v) throws UnexpectedType {
+        if (v.type() != Type.FLOAT || v.isUndef()) throw new UnexpectedType(v);
+        return v.floatValue();
+    }
+
+    static boolean expectBool (Value v) throws UnexpectedType {
+        if (v.type() != Type.BOOL || v.isUndef()) throw new UnexpectedType(v);
+        return v.boolValue();
+    }
+
+    abstract static class Node {
+        Node parent;
+
+        <T extends Node> T adopt (T child) {
+            child.parent = this;
+            return child;
+        }
+
+        // puts n in this node's place in the tree
+        <T extends Node> T replace (T n) {
+            n.parent = parent;
+            parent.replaceChild(this, n);
+            return n;
+        }
+
+        void replaceChild (Node old, Node n) {
+            throw new IllegalStateException("no children");
+        }
+    }
+
+    // ---------------------------------------------------------------- expressions
+
+    abstract static class ExprNode extends Node {
+        abstract Value execute (Frame f);
+
+        int executeInt (Frame f) throws UnexpectedType { return expectInt(execute(f)); }
+
+        float executeFloat (Frame f) throws UnexpectedType { return expectFloat(execute(f)); }
+
+        boolean executeBool (Frame f) throws UnexpectedType { return expectBool(execute(f)); }
+    }
+
+    static final class Constant extends ExprNode {
+        final Value value;
+        Constant (Value v) { value = v; }
+
+        Value execute (Frame f) { return value; }
+    }
+
+    abstract static class Read extends ExprNode {
+        final int slot;
+        Read (int s) { slot = s; }
+
+        Value generic (Frame f) {
+            deoptimized++;
+            return replace(new ReadGeneric(slot)).execute(f);
+        }
+    }
+
+    static final class ReadUninitialized extends Read {
+        ReadUninitialized (int s) { super(s); }
+
+        Value execute (Frame f) {
+            Type t = f.defined[slot] ? f.types[slot] : null;
+            specialized++;
+            if (t == Type.INT) replace(new ReadInt(slot));
+            else if (t == Type.FLOAT) replace(new ReadFloat(slot));
+            else if (t == Type.BOOL) replace(new ReadBool(slot));
+            else replace(new ReadGeneric(slot));
+            return f.get(slot);
+        }
+    }
+
+    static final class ReadGeneric extends Read {
+        ReadGeneric (int s) { super(s); }
+
+        Value execute (Frame f) { return f.get(slot); }
+    }
+
+    static final class ReadInt extends Read {
+        ReadInt (int s) { super(s); }
+
+        int executeInt (Frame f) throws UnexpectedType {
+            if (f.types[slot] == Type.INT && f.defined[slot]) return f.ints[slot];
+            throw new UnexpectedType(generic(f));
+        }
+
+        Value execute (Frame f) {
+            if (f.types[slot] == Type.INT && f.defined[slot]) return IntValue.of(f.ints[slot]);
+            return generic(f);
+        }
+    }
+
+    static final class ReadFloat extends Read {
+        ReadFloat (int s) { super(s); }
+
+        float executeFloat (Frame f) throws UnexpectedType {
+            if (f.types[slot] == Type.FLOAT && f.defined[slot]) return f.floats[slot];
+            throw new UnexpectedType(generic(f));
+        }
+
+        Value execute (Frame f) {
+            if (f.types[slot] == Type.FLOAT && f.defined[slot]) return new FloatValue(f.floats[slot]);
+            return generic(f);
+        }
+    }
+
+    static final class ReadBool extends Read {
+        ReadBool (int s) { super(s); }
+
+        boolean executeBool (Frame f) throws UnexpectedType {
+            if (f.types[slot] == Type.BOOL && f.defined[slot]) return f.ints[slot] != 0;
+            throw new UnexpectedType(generic(f));
+        }
+
+        Value execute (Frame f) {
+            if (f.types[slot] == Type.BOOL && f.defined[slot]) return BoolValue.of(f.ints[slot] != 0);
+            return generic(f);
+        }
+    }
+
+    abstract static class BinaryNode extends ExprNode {
+        final Operator op;
+        ExprNode left, right;
+
+        BinaryNode (Operator op, ExprNode l, ExprNode r) {
+            this.op = op;
+            left = adopt(l);
+            right = adopt(r);
+        }
+
+        BinaryNode (BinaryNode n) { this(n.op, n.left, n.right); }
+
+        void replaceChild (Node old, Node n) {
+            if (left == old) left = (ExprNode)n;
+            if (right == old) right = (ExprNode)n;
+        }
+
+        // back to the generic node for good; the value of this expression
+        Value generic (Frame f) {
+            deoptimized++;
+            return replace(new BinaryGeneric(this)).execute(f);
+        }
+    }
+
+    static final class BinaryUninitialized extends BinaryNode {
+        BinaryUninitialized (Operator op, ExprNode l, ExprNode r) { super(op, l, r); }
+
+        Value execute (Frame f) {
+            specialized++;
+            if (op == Operator.AND) return replace(new And(this)).execute(f);
+            if (op == Operator.OR) return replace(new Or(this)).execute(f);
+            Value a = left.execute(f), b = right.execute(f);
+            Value result = GENERIC.applyBinary(op, a, b);
+            Type t = a.type() == b.type() ? a.type() : null;
+            if (t == Type.INT && op.ArithmeticOp()) {
+                if (op == Operator.PLUS) replace(new IntAdd(this));
+                else if (op == Operator.MINUS) replace(new IntSub(this));
+                else if (op == Operator.TIMES) replace(new IntMul(this));
+                else replace(new IntDiv(this));
+            } else if (t == Type.FLOAT && op.ArithmeticOp()) {
+                if (op == Operator.PLUS) replace(new FloatAdd(this));
+                else if (op == Operator.MINUS) replace(new FloatSub(this));
+                else if (op == Operator.TIMES) replace(new FloatMul(this));
+                else replace(new FloatDiv(this));
+            } else if (t == Type.INT && op.RelationalOp())
+                replace(new IntCompare(this));
+            else if (t == Type.FLOAT && op.RelationalOp())
+                replace(new FloatCompare(this));
+            else
+                replace(new BinaryGeneric(this));
+            return result;
+        }
+    }
+
+    static final class BinaryGeneric extends BinaryNode {
+        BinaryGeneric (BinaryNode n) { super(n); }
+
+        Value execute (Frame f) {
+            if (op.BooleanOp( )) {  // && and || short-circuit
+                boolean l = left.execute(f).boolValue( );
+                if (op == Operator.AND ? !l : l)
+                    return BoolValue.of(l);
+                return BoolValue.of(right.execute(f).boolValue( ));
+            }
+            return GENERIC.applyBinary(op, left.execute(f), right.execute(f));
+        }
+    }
+
+    abstract static class IntArith extends BinaryNode {
+        IntArith (BinaryNode n) { super(n); }
+
+        Value execute (Frame f) {
+            try {
+                return IntValue.of(executeInt(f));
+            } catch (UnexpectedType e) {
+                return e.result;
+            }
+        }
+    }
+
+    static final class IntAdd extends IntArith {
+        IntAdd (BinaryNode n) { super(n); }
+
+        int executeInt (Frame f) throws UnexpectedType {
+            try {
+                return left.executeInt(f) + right.executeInt(f);
+            } catch (UnexpectedType e) {
+                return expectInt(generic(f));
+            }
+        }
+    }
+
+    static final class IntSub extends IntArith {
+        IntSub (BinaryNode n) { super(n); }
+
+        int executeInt (Frame f) throws UnexpectedType {
+            try {
+                return left.executeInt(f) - right.executeInt(f);
+            } catch (UnexpectedType e) {
+                return expectInt(generic(f));
+            }
+        }
+    }
+
+    static final class IntMul extends IntArith {
+        IntMul (BinaryNode n) { super(n); }
+
+        int executeInt (Frame f) throws UnexpectedType {
+            try {
+                return left.executeInt(f) * right.executeInt(f);
+            } catch (UnexpectedType e) {
+                return expectInt(generic(f));
+            }
+        }
+    }
+
+    static final class IntDiv extends IntArith {
+        IntDiv (BinaryNode n) { super(n); }
+
+        int executeInt (Frame f) throws UnexpectedType {
+            try {
+                return left.executeInt(f) / right.executeInt(f);
+            } catch (UnexpectedType e) {
+                return expectInt(generic(f));
+            }
+        }
+    }
+
+    abstract static class FloatArith extends BinaryNode {
+        FloatArith (BinaryNode n) { super(n); }
+
+        Value execute (Frame f) {
+            try {
+                return new FloatValue(executeFloat(f));
+            } catch (UnexpectedType e) {
+                return e.result;
+            }
+        }
+    }
+
+    static final class FloatAdd extends FloatArith {
+        FloatAdd (BinaryNode n) { super(n); }
+
+        float executeFloat (Frame f) throws UnexpectedType {
+            try {
+                return left.executeFloat(f) + right.executeFloat(f);
+            } catch (UnexpectedType e) {
+                return expectFloat(generic(f));
+            }
+        }
+    }
+
+    static final class FloatSub extends FloatArith {
+        FloatSub (BinaryNode n) { super(n); }
+
+        float executeFloat (Frame f) throws UnexpectedType {
+            try {
+                return left.executeFloat(f) - right.executeFloat(f);
+            } catch (UnexpectedType e) {
+                return expectFloat(generic(f));
+            }
+        }
+    }
+
+    static final class FloatMul extends FloatArith {
+        FloatMul (BinaryNode n) { super(n); }
+
+        float executeFloat (Frame f) throws UnexpectedType {
+            try {
+                return left.executeFloat(f) * right.executeFloat(f);
+            } catch (UnexpectedType e) {
+                return expectFloat(generic(f));
+            }
+        }
+    }
+
+    static final class FloatDiv extends FloatArith {
+        FloatDiv (BinaryNode n) { super(n); }
+
+        float executeFloat (Frame f) throws UnexpectedType {
+            try {
+                return left.executeFloat(f) / right.executeFloat(f);
+            } catch (UnexpectedType e) {
+                return expectFloat(generic(f));
+            }
+        }
+    }
+
+    abstract static class BoolNode extends BinaryNode {
+        BoolNode (BinaryNode n) { super(n); }
+
+        Value execute (Frame f) {
+            try {
+                return BoolValue.of(executeBool(f));
+            } catch (UnexpectedType e) {
+                return e.result;
+            }
+        }
+    }
+
+    static boolean test (Operator op, int cmp) {
+        if (op == Operator.LT) return cmp < 0;
+        if (op == Operator.LE) return cmp <= 0;
+        if (op == Operator.EQ) return cmp == 0;
+        if (op == Operator.NE) return cmp != 0;
+        if (op == Operator.GT) return cmp > 0;
+        return cmp >= 0;
+    }
+
+    static final class IntCompare extends BoolNode {
+        IntCompare (BinaryNode n) { super(n); }
+
+        boolean executeBool (Frame f) throws UnexpectedType {
+            try {
+                return test(op, Integer.compare(left.executeInt(f), right.executeInt(f)));
+            } catch (UnexpectedType e) {
+                return expectBool(generic(f));
+            }
+        }
+    }
+
+    static final class FloatCompare extends BoolNode {
+        FloatCompare (BinaryNode n) { super(n); }
+
+        boolean executeBool (Frame f) throws UnexpectedType {
+            try {
+                return Semantics.test(op, left.executeFloat(f), right.executeFloat(f));
+            } catch (UnexpectedType e) {
+                return expectBool(generic(f));
+            }
+        }
+    }
+
+    static final class And extends BoolNode {
+        And (BinaryNode n) { super(n); }
+
+        boolean executeBool (Frame f) throws UnexpectedType {
+            try {
+                return left.executeBool(f) && right.executeBool(f);
+            } catch (UnexpectedType e) {
+                return expectBool(generic(f));
+            }
+        }
+    }
+
+    static final class Or extends BoolNode {
+        Or (BinaryNode n) { super(n); }
+
+        boolean executeBool (Frame f) throws UnexpectedType {
+            try {
+                return left.executeBool(f) || right.executeBool(f);
+            } catch (UnexpectedType e) {
+                return expectBool(generic(f));
+            }
+        }
+    }
+
+    abstract static class UnaryNode extends ExprNode {
+        final Operator op;
+        ExprNode term;
+
+        UnaryNode (Operator op, ExprNode t) {
+            this.op = op;
+            term = adopt(t);
+        }
+
+        UnaryNode (UnaryNode n) { this(n.op, n.term); }
+
+        void replaceChild (Node old, Node n) {
+            if (term == old) term = (ExprNode)n;
+        }
+
+        Value generic (Frame f) {
+            deoptimized++;
+            return replace(new UnaryGeneric(this)).execute(f);
+        }
+    }
+
+    static final class UnaryUninitialized extends UnaryNode {
+        UnaryUninitialized (Operator op, ExprNode t) { super(op, t); }
+
+        Value execute (Frame f) {
+            Value v = term.execute(f);
+            Value result = GENERIC.applyUnary(op, v);
+            Type t = v.type();
+            specialized++;
+            if (op == Operator.NOT && t == Type.BOOL) replace(new Not(this));
+            else if (op == Operator.NEG && t == Type.INT) replace(new IntNeg(this));
+            else if (op == Operator.NEG && t == Type.FLOAT) replace(new FloatNeg(this));
+            else replace(new UnaryGeneric(this));
+            return result;
+        }
+    }
+
+    static final class UnaryGeneric extends UnaryNode {
+        UnaryGeneric (UnaryNode n) { super(n); }
+
+        Value execute (Frame f) { return GENERIC.applyUnary(op, term.execute(f)); }
+    }
+
+    static final class Not extends UnaryNode {
+        Not (UnaryNode n) { super(n); }
+
+        boolean executeBool (Frame f) throws UnexpectedType {
+            try {
+                return !term.executeBool(f);
+            } catch (UnexpectedType e) {
+                return expectBool(generic(f));
+            }
+        }
+
+        Value execute (Frame f) {
+            try {
+                return BoolValue.of(executeBool(f));
+            } catch (UnexpectedType e) {
+                return e.result;
+            }
+        }
+    }
+
+    static final class IntNeg extends UnaryNode {
+        IntNeg (UnaryNode n) { super(n); }
+
+        int executeInt (Frame f) throws UnexpectedType {
+            try {
+                return -term.executeInt(f);
+            } catch (UnexpectedType e) {
+                return expectInt(generic(f));
+            }
+        }
+
+        Value execute (Frame f) {
+            try {
+                return IntValue.of(executeInt(f));
+            } catch (UnexpectedType e) {
+                return e.result;
+            }
+        }
+    }
+
+    static final class FloatNeg extends UnaryNode {
+        FloatNeg (UnaryNode n) { super(n); }
+
+        float executeFloat (Frame f) throws UnexpectedType {
+            try {
+                return -term.executeFloat(f);
+            } catch (UnexpectedType e) {
+                return expectFloat(generic(f));
+            }
+        }
+
+        Value execute (Frame f) {
+            try {
+                return new FloatValue(executeFloat(f));
+            } catch (UnexpectedType e) {
+                return e.result;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- statements
+
+    abstract static class StmtNode extends Node {
+        abstract void execute (Frame f);
+    }
+
+    static final class SkipNode extends StmtNode {
+        void execute (Frame f) { }
+    }
+
+    static final class BlockNode extends StmtNode {
+        final StmtNode[ ] members;
+
+        BlockNode (StmtNode[ ] m) {
+            members = m;
+            for (StmtNode s : m) adopt(s);
+        }
+
+        void replaceChild (Node old, Node n) {
+            for (int i = 0; i < members.length; i++)
+                if (members[i] == old) members[i] = (StmtNode)n;
+        }
+
+        void execute (Frame f) {
+            for (StmtNode s : members)
+                s.execute(f);
+        }
+    }
+
+    static boolean condition (ExprNode test, Frame f) {
+        try {
+            return test.executeBool(f);
+        } catch (UnexpectedType e) {
+            return e.result.boolValue( );
+        }
+    }
+
+    static final class IfNode extends StmtNode {
+        ExprNode test;
+        StmtNode thenbranch, elsebranch;
+
+        IfNode (ExprNode t, StmtNode tp, StmtNode ep) {
+            test = adopt(t); thenbranch = adopt(tp); elsebranch = adopt(ep);
+        }
+
+        void replaceChild (Node old, Node n) {
+            if (test == old) test = (ExprNode)n;
+            if (thenbranch == old) thenbranch = (StmtNode)n;
+            if (elsebranch == old) elsebranch = (StmtNode)n;
+        }
+
+        void execute (Frame f) {
+            if (condition(test, f))
+                thenbranch.execute(f);
+            else
+                elsebranch.execute(f);
+        }
+    }
+
+    static final class WhileNode extends StmtNode {
+        ExprNode test;
+        StmtNode body;
+
+        WhileNode (ExprNode t, StmtNode b) { test = adopt(t); body = adopt(b); }
+
+        void replaceChild (Node old, Node n) {
+            if (test == old) test = (ExprNode)n;
+            if (body == old) body = (StmtNode)n;
+        }
+
+        void execute (Frame f) {
+            while (condition(test, f))
+                body.execute(f);
+        }
+    }
+
+    abstract static class Assign extends StmtNode {
+        final int slot;
+        ExprNode source;
+
+        Assign (int s, ExprNode e) { slot = s; source = adopt(e); }
+
+        void replaceChild (Node old, Node n) {
+            if (source == old) source = (ExprNode)n;
+        }
+
+        // Semantics.M(Assignment) on a frame slot
+        void assign (Frame f, Value v) {
+            Type target = f.types[slot];
+            if (target == Type.FLOAT && v.type() != Type.FLOAT)
+                v = new FloatValue(Semantics.asInt(v));     // implicit int -> float
+            else if (target == Type.INT && v.type() == Type.CHAR)
+                v = IntValue.of(v.charValue());            // implicit char -> int
+            f.set(slot, v);
+        }
+
+        void generic (Frame f, Value v) {
+            deoptimized++;
+            replace(new AssignGeneric(slot, source)).assign(f, v);
+        }
+    }
+
+    static final class AssignUninitialized extends Assign {
+        AssignUninitialized (int s, ExprNode e) { super(s, e); }
+
+        void execute (Frame f) {
+            Type target = f.types[slot];
+            Value v = source.execute(f);
+            Type t = v.isUndef() ? null : v.type();
+            specialized++;
+            if (target == Type.INT && t == Type.INT) replace(new AssignInt(slot, source));
+            else if (target == Type.FLOAT && t == Type.FLOAT) replace(new AssignFloat(slot, source));
+            else if (target == Type.FLOAT && t == Type.INT) replace(new AssignIntToFloat(slot, source));
+            else if (target == Type.BOOL && t == Type.BOOL) replace(new AssignBool(slot, source));
+            else replace(new AssignGeneric(slot, source));
+            assign(f, v);
+        }
+    }
+
+    static final class AssignGeneric extends Assign {
+        AssignGeneric (int s, ExprNode e) { super(s, e); }
+
+        void execute (Frame f) { assign(f, source.execute(f)); }
+    }
+
+    static final class AssignInt extends Assign {
+        AssignInt (int s, ExprNode e) { super(s, e); }
+
+        void execute (Frame f) {
+            try {
+                int x = source.executeInt(f);
+                if (f.types[slot] == Type.INT) {
+                    f.ints[slot] = x;
+                    f.defined[slot] = true;
+                } else generic(f, IntValue.of(x));
+            } catch (UnexpectedType e) {
+                generic(f, e.result);
+            }
+        }
+    }
+
+    static final class AssignFloat extends Assign {
+        AssignFloat (int s, ExprNode e) { super(s, e); }
+
+        void execute (Frame f) {
+            try {
+                float x = source.executeFloat(f);
+                if (f.types[slot] == Type.FLOAT) {
+                    f.floats[slot] = x;
+                    f.defined[slot] = true;
+                } else generic(f, new FloatValue(x));
+            } catch (UnexpectedType e) {
+                generic(f, e.result);
+            }
+        }
+    }
+
+    static final class AssignIntToFloat extends Assign {
+        AssignIntToFloat (int s, ExprNode e) { super(s, e); }
+
+        void execute (Frame f) {
+            try {
+                int x = source.executeInt(f);
+                if (f.types[slot] == Type.FLOAT) {
+                    f.floats[slot] = x;
+                    f.defined[slot] = true;
+                } else generic(f, IntValue.of(x));
+            } catch (UnexpectedType e) {
+                generic(f, e.result);
+            }
+        }
+    }
+
+    static final class AssignBool extends Assign {
+        AssignBool (int s, ExprNode e) { super(s, e); }
+
+        void execute (Frame f) {
+            try {
+                boolean x = source.executeBool(f);
+                if (f.types[slot] == Type.BOOL) {
+                    f.ints[slot] = x ? 1 : 0;
+                    f.defined[slot] = true;
+                } else generic(f, BoolValue.of(x));
+            } catch (UnexpectedType e) {
+                generic(f, e.result);
+            }
+        }
+    }
+
+    // the root of the tree, so its body can be replaced like any child
+    static final class Root extends StmtNode {
+        StmtNode body;
+
+        Root (StmtNode b) { body = adopt(b); }
+
+        void replaceChild (Node old, Node n) {
+            if (body == old) body = (StmtNode)n;
+        }
+
+        void execute (Frame f) { body.execute(f); }
+    }
+
+    // ---------------------------------------------------------------- translation
+
+    private final Variable[ ] variables;
+    private final Type[ ] declared;
+    private final HashMap<Variable, Integer> slots = new HashMap<Variable, Integer>();
+    private final Root root;
+
+    public NodeInterpreter (Program p) {
+        int n = p.decpart.size();
+        variables = new Variable[n];
+        declared = new Type[n];
+        for (int i = 0; i < n; i++) {
+            Declaration d = p.decpart.get(i);
+            if (d.t.element() != null)
+                throw new IllegalArgumentException("arrays are not supported: " + d.v);
+            variables[i] = d.v;
+            declared[i] = d.t;
+            slots.put(d.v, i);
+        }
+        root = new Root(statement(p.body));
+    }
+
+    private int slot (Variable v) {
+        Integer s = slots.get(v);
+        if (s == null)
+            throw new IllegalArgumentException("undeclared variable: " + v);
+        return s;
+    }
+
+    private StmtNode statement (Statement s) {
+        if (s instanceof Skip)
+            return new SkipNode();
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            return new AssignUninitialized(slot(a.target), expression(a.source));
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            return new IfNode(expression(c.test), statement(c.thenbranch), statement(c.elsebranch));
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop)s;
+            return new WhileNode(expression(l.test), statement(l.body));
+        }
+        if (s instanceof Block) {
+            List<Statement> members = ((Block)s).members;
+            StmtNode[ ] m = new StmtNode[members.size()];
+            for (int i = 0; i < m.length; i++)
+                m[i] = statement(members.get(i));
+            return new BlockNode(m);
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    private ExprNode expression (Expression e) {
+        if (e instanceof Value)
+            return new Constant((Value)e);
+        if (e instanceof Variable)
+            return new ReadUninitialized(slot((Variable)e));
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            return new BinaryUninitialized(b.op, expression(b.term1), expression(b.term2));
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            return new UnaryUninitialized(u.op, expression(u.term));
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    // runs the program from its initial state; the nodes stay specialized
+    public State run ( ) {
+        Frame f = new Frame(declared);
+        root.execute(f);
+        State state = new State();
+        for (int i = 0; i < variables.length; i++)
+            state.put(variables[i], f.get(i));
+        return state;
+    }
+
+    public static void main(String args[]) {
+        Program prog = new Parser(new Lexer(args[0])).program();
+        StaticTypeCheck.V(prog);
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        NodeInterpreter nodes = new NodeInterpreter(prog);
+        for (int round = 0; round < runs; round++) {
+            long t0 = System.nanoTime();
+            State expected = new Semantics( ).M(prog);
+            long t1 = System.nanoTime();
+            State actual = nodes.run( );
+            long t2 = System.nanoTime();
+            for (Declaration d : prog.decpart)
+                StaticTypeCheck.check(("" + expected.get(d.v)).equals("" + actual.get(d.v)),
+                       "specialized result differs at " + d.v + ": "
+                       + expected.get(d.v) + " != " + actual.get(d.v));
+            if (round == runs - 1) {
+                System.out.print("Final State: ");
+                actual.display( );
+                System.out.println("specialized nodes: " + specialized
+                                   + ", deoptimized: " + deoptimized);
+            }
+            System.out.printf("round %d: Semantics %.2f ms, specialized nodes %.2f ms%n",
+                              round, (t1 - t0) / 1e6, (t2 - t1) / 1e6);
+        }
+    } //main
+
+} // class NodeInterpreter
@@ -0,0 +1,97 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// The outline of a C++Lite program: its Declarations and the kind and
+// position of each top-level statement, from Parser.outline().  The
+// statements are not parsed; with a SourceLexer the bodies of if and
+// while are stepped over on the bytes by brace matching.
+// main compares a full parse, a lazy parse (Parser.lazy) and an
+// outline of the same file.
+// Usage: java Outline [file | statements]
+
+public class Outline {
+
+    static final String ASSIGNMENT = "assignment", IF = "if", WHILE = "while",
+        BLOCK = "block", SKIP = "skip";
+
+    static final class Entry {
+        final String kind;
+        final int position;     // offset of the first token
+        final int line;         // 0 if the lexer does not count lines
+
+        Entry (String k, int p, int l) { kind = k; position = p; line = l; }
+
+        public String toString ( ) {
+            return kind + " @" + position + (line > 0 ? " line " + line : "");
+        }
+    }
+
+    final Declarations decpart;
+    final ArrayList<Entry> statements = new ArrayList<Entry>();
+
+    Outline (Declarations d) { decpart = d; }
+
+    void add (String kind, int position, int line) {
+        statements.add(new Entry(kind, position, line));
+    }
+
+    public void display ( ) {
+        System.out.println("Outline: ");
+        decpart.display(1);
+        System.out.println();
+        for (Entry e : statements)
+            System.out.println("\t" + e);
+    }
+
+    static String generate (int loops) {
+        StringBuilder sb = new StringBuilder("int main(){\n\tint x, y, i;\n\tfloat f;\n");
+        for (int i = 0; i < loops; i++) {
+            sb.append("\ti = 0;\n\twhile (i < ").append(i).append(") {\n")
+              .append("\t\t// scale and accumulate\n")
+              .append("\t\tx = x + y * (i - 3) / 2;\n")
+              .append("\t\tif (x > 1000 && y != 0) {\n\t\t\tx = x - 1000;\n\t\t} else {\n")
+              .append("\t\t\tf = f * 1.5 + 0.25;\n\t\t}\n")
+              .append("\t\ti = i + 1;\n\t}\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    static String text (Program p) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(bytes));
+        p.display();
+        System.setOut(out);
+        return bytes.toString();
+    }
+
+    public static void main (String args[]) throws IOException {
+        byte[ ] source;
+        if (args.length > 0 && !args[0].matches("\\d+"))
+            source = Files.readAllBytes(Paths.get(args[0]));
+        else
+            source = generate(args.length > 0 ? Integer.parseInt(args[0]) : 20000)
+                     .getBytes("US-ASCII");
+        Parser lazy = new Parser(new SourceLexer(source, 0));
+        lazy.lazy = true;
+        String expected = text(new Parser(new SourceLexer(source, 0)).program());
+        if (!text(lazy.program()).equals(expected))
+            throw new IllegalStateException("lazy parse differs");
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.nanoTime();
+            Program full = new Parser(new SourceLexer(source, 0)).program();
+            long t1 = System.nanoTime();
+            Parser p = new Parser(new SourceLexer(source, 0));
+            p.lazy = true;
+            Program deferred = p.program();
+            long t2 = System.nanoTime();
+            Outline o = new Parser(new SourceLexer(source, 0)).outline();
+            long t3 = System.nanoTime();
+            System.out.printf("round %d: %d statements, full %.1f ms, lazy %.1f ms, outline %.1f ms%n",
+                              round, o.statements.size(), (t1 - t0) / 1e6,
+                              (t2 - t1) / 1e6, (t3 - t2) / 1e6);
+        }
+    } // main
+
+} // class Outline
@@ -0,0 +1,126 @@
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Parallel tokenization of one large source file.  The bytes are cut
+// into chunks just after a newline and every chunk is lexed by its own
+// ByteLexer on a fork-join pool, each assuming it starts between tokens.
+// The chunk results are then stitched in order: a chunk is kept only if
+// its first token starts exactly where the previous chunk's lexer found
+// its next token, i.e. both lexers agree on the state at the cut.  A
+// chunk that began inside a token, a // comment or a char literal fails
+// that test, or fails to lex, and is lexed again from the right offset,
+// so the result is always the token sequence of Lexer.next().
+
+public class ParallelLexer {
+
+    static final int MIN_CHUNK = 1 << 16;   // smaller chunks are not worth a task
+
+    private static final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final byte[ ] source;
+        final int from, to;
+        final boolean last;
+        ArrayList<Token> tokens = new ArrayList<Token>();
+        int first = -1;         // offset of the first token found
+        int resume;             // offset of the first token at or past to
+        boolean failed = false;
+
+        Chunk (byte[ ] s, int f, int t, boolean l) {
+            source = s; from = f; to = t; last = l;
+        }
+
+        protected void compute ( ) {
+            try {
+                lex(from, true);
+            } catch (IllegalStateException e) {
+                failed = true;
+            }
+        }
+
+        // tokens starting before to; the last chunk runs to Eof
+        void lex (int start, boolean speculative) {
+            tokens.clear();
+            ByteLexer lexer = new ByteLexer(source, start);
+            lexer.speculative = speculative;
+            while (true) {
+                Token t = lexer.next();
+                if (first < 0)
+                    first = lexer.position();
+                if (!last && t != Token.eofTok && lexer.position() >= to) {
+                    resume = lexer.position();
+                    return;
+                }
+                tokens.add(t);
+                if (t == Token.eofTok) {
+                    resume = Integer.MAX_VALUE;
+                    return;
+                }
+            }
+        }
+    }
+
+    public static List<Token> tokenize (byte[ ] source, int chunks, ForkJoinPool pool) {
+        chunks = Math.max(1, Math.min(chunks, source.length / MIN_CHUNK));
+        Chunk[ ] parts = new Chunk[chunks];
+        int from = 0;
+        for (int i = 0; i < chunks; i++) {
+            int to = i == chunks - 1 ? source.length
+                                     : (int)((long)source.length * (i + 1) / chunks);
+            while (to < source.length && to > from && source[to - 1] != '\n')
+                to++;           // cut just after a newline
+            parts[i] = new Chunk(source, from, to, i == chunks - 1);
+            from = to;
+        }
+        pool.invoke(new RecursiveAction() {
+            protected void compute ( ) { invokeAll(parts); }
+        });
+
+        ArrayList<Token> result = new ArrayList<Token>();
+        int expected = 0;       // where the previous lexer found its next token
+        for (Chunk c : parts) {
+            if (c.failed || c.first != expected) {
+                c.first = -1;
+                c.lex(expected, false);
+            }
+            for (Token t : c.tokens) {
+                result.add(t);
+                if (t == Token.eofTok)
+                    return result;
+            }
+            expected = c.resume;
+        }
+        return result;
+    }
+
+    public static List<Token> tokenize (byte[ ] source) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        return tokenize(source, pool.getParallelism() * 4, pool);
+    }
+
+    static public void main ( String[] argv ) throws Exception {
+        byte[ ] source = Files.readAllBytes(Paths.get(argv[0]));
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.nanoTime();
+            ArrayList<Token> sequential = new ArrayList<Token>();
+            ByteLexer lexer = new ByteLexer(source);
+            Token tok;
+            do {
+                tok = lexer.next();
+                sequential.add(tok);
+            } while (tok != Token.eofTok);
+            long t1 = System.nanoTime();
+            List<Token> parallel = tokenize(source);
+            long t2 = System.nanoTime();
+            if (parallel.size() != sequential.size())
+                throw new IllegalStateException("token counts differ");
+            for (int i = 0; i < parallel.size(); i++)
+                if (!parallel.get(i).toString().equals(sequential.get(i).toString()))
+                    throw new IllegalStateException("token " + i + " differs");
+            System.out.printf("round %d: %d tokens, sequential %.1f MB/s, parallel %.1f MB/s%n",
+                              round, parallel.size(), source.length * 1e3 / (t1 - t0),
+                              source.length * 1e3 / (t2 - t1));
+        }
+    } // main
+
+} // class ParallelLexer
@@ -8,28 +8,53 @@ public class Parser {
 
     Token token;          // current token from the input stream
     Lexer lexer;
+    HashCons nodes;       // shares equal expression nodes, if not null
+    boolean lazy = false; // if and while bodies become LazyBlocks (with a SourceLexer)
+    SymbolIndex.Uses uses;  // told of every variable occurrence, if not null
+    Emitter.Spans spans;    // told the byte range of each statement, if not null
+    AstArena arena;         // holds the statements instead of a tree, if not null
+    Object lock;            // parses LazyBlocks one at a time, shared by their Parsers
+    boolean speculative = false;  // syntax errors throw instead of exiting
+    private int last;       // offset of the last matched token, with spans
+    private final HashMap<String, String> names = new HashMap<String, String>();
 
     public Parser(Lexer ts) { // Open the C++Lite source program
         lexer = ts;                          // as a token stream, and
         token = lexer.next();            // retrieve its first Token
     }
 
+    public Parser(Lexer ts, HashCons h) { // build expressions as a DAG
+        this(ts);
+        nodes = h;
+    }
+
     private String match (TokenType t) { // * return the string of a token if it matches with t *
         String value = token.value();
-        if (token.type().equals(t))
+        if (token.type().equals(t)) {
+            if (spans != null)
+                last = lexer.position();
             token = lexer.next();
+        }
         else
             error(t);
         return value;
     }
 
     private void error(TokenType tok) {
+        Metrics.error(Metrics.SYNTAX);
+        if (speculative)
+            throw new IllegalStateException("Syntax error: expecting: " + tok
+                                            + "; saw: " + token);
         System.err.println("Syntax error: expecting: " + tok
                            + "; saw: " + token);
         System.exit(1);
     }
 
     private void error(String tok) {
+        Metrics.error(Metrics.SYNTAX);
+        if (speculative)
+            throw new IllegalStateException("Syntax error: expecting: " + tok
+                                            + "; saw: " + token);
         System.err.println("Syntax error: expecting: " + tok
                            + "; saw: " + token);
         System.exit(1);
@@ -37,58 +62,200 @@ public class Parser {
 
     public Program program() {
         // Program --> void main ( ) '{' Declarations Statements '}'
+        long started = System.nanoTime();
+        PhaseEvents.Parse event = new PhaseEvents.Parse();
+        event.begin();
         TokenType[ ] header = {TokenType.Int, TokenType.Main,
                           TokenType.LeftParen, TokenType.RightParen};
         for (int i=0; i<header.length; i++)   // bypass "int main ( )"
             match(header[i]);
         match(TokenType.LeftBrace);
         Declarations d = declarations();
+        int start = lexer.position();
         Block b = statements();
         // program함수의 경우 Program을 리턴한다. 이때 Program은 Declarations변수와 Block변수를 파라미터로 갖는다. 따라서 각각 하나씩 변수로 만들어주고 각각읠 declarations, statements함수를 이용해서 구조화 해준다.
         match(TokenType.RightBrace);
+        if (spans != null) {     // the body runs to the end of main's '}'
+            spans.span(d, 0, start);
+            spans.span(b, start, end());
+        }
+        Metrics.time(Metrics.PARSE, started);
+        event.end();
+        if (event.shouldCommit()) {
+            event.nodes = 1 + d.size() + PhaseEvents.nodes(b);
+            event.depth = 1 + PhaseEvents.depth(b);
+            event.commit();
+        }
+        if (arena != null)
+            return arena.program(arena.program(d, b, 0));
         return new Program(d,b);  // 완성된 Declarations, Block변수를 파라미터로 한 새로운 Program변수를 만들어 리턴해준다.
     }
 
+    public Outline outline() {
+        // Program --> void main ( ) '{' Declarations Statements '}',
+        // with each top-level statement only located, not parsed
+        TokenType[ ] header = {TokenType.Int, TokenType.Main,
+                          TokenType.LeftParen, TokenType.RightParen};
+        for (int i=0; i<header.length; i++)
+            match(header[i]);
+        match(TokenType.LeftBrace);
+        Outline o = new Outline(declarations());
+        while (!token.type().equals(TokenType.RightBrace)) {
+            int position = lexer.position(), line = lexer.line();
+            if (token.type().equals(TokenType.Identifier)) {
+                o.add(Outline.ASSIGNMENT, position, line);
+                while (!token.type().equals(TokenType.Semicolon)
+                       && !token.type().equals(TokenType.Eof))
+                    token = lexer.next();
+                match(TokenType.Semicolon);
+            } else if (token.type().equals(TokenType.If)) {
+                o.add(Outline.IF, position, line);
+                match(TokenType.If);
+                skipParens();
+                skipBody();
+                if (token.type().equals(TokenType.Else)) {
+                    match(TokenType.Else);
+                    skipBody();
+                }
+            } else if (token.type().equals(TokenType.While)) {
+                o.add(Outline.WHILE, position, line);
+                match(TokenType.While);
+                skipParens();
+                skipBody();
+            } else if (token.type().equals(TokenType.LeftBrace)) {
+                o.add(Outline.BLOCK, position, line);
+                skipBody();
+            } else {
+                o.add(Outline.SKIP, position, line);
+                match(TokenType.Semicolon);
+            }
+        }
+        match(TokenType.RightBrace);
+        return o;
+    }
+
+    private void skipParens () {
+        // '(' ... ')' with nested parentheses
+        match(TokenType.LeftParen);
+        for (int depth = 1; depth > 0; ) {
+            if (token.type().equals(TokenType.LeftParen)) depth++;
+            else if (token.type().equals(TokenType.RightParen)) depth--;
+            else if (token.type().equals(TokenType.Eof)) error(TokenType.RightParen);
+            if (depth > 0) token = lexer.next();
+        }
+        match(TokenType.RightParen);
+    }
+
+    // '{' ... '}', stepped over on the bytes with a SourceLexer; returns
+    // the offset of the '{'
+    private int skipBody () {
+        int open = lexer.position();
+        if (!token.type().equals(TokenType.LeftBrace))
+            error(TokenType.LeftBrace);
+        if (lexer instanceof SourceLexer) {
+            SourceLexer source = (SourceLexer)lexer;
+            int close = SourceLexer.skipBody(source.source(), open);
+            if (close < 0)
+                error(TokenType.RightBrace);
+            source.seek(close);
+            token = lexer.next();
+        } else {
+            token = lexer.next();
+            for (int depth = 1; depth > 0; ) {
+                if (token.type().equals(TokenType.LeftBrace)) depth++;
+                else if (token.type().equals(TokenType.RightBrace)) depth--;
+                else if (token.type().equals(TokenType.Eof)) error(TokenType.RightBrace);
+                if (depth > 0) token = lexer.next();
+            }
+        }
+        match(TokenType.RightBrace);
+        return open;
+    }
+
+    Block block () {
+        // '{' Statements '}'
+        int start = lexer.position();
+        match(TokenType.LeftBrace);
+        Block b = statements();
+        match(TokenType.RightBrace);
+        if (spans != null)
+            spans.span(b, start, end());
+        return b;
+    }
+
+    int end () { // offset just past the ';' or '}' that ended the last statement
+        return last + 1;
+    }
+
+    private Block body () {
+        // '{' Statements '}' of an if or while; only located in lazy mode
+        if (lazy && lexer instanceof SourceLexer) {
+            int line = lexer.line();
+            int open = skipBody();
+            if (lock == null)
+                lock = new Object();
+            Block b = new LazyBlock(((SourceLexer)lexer).source(), open, line, nodes, spans, lock);
+            if (spans != null)
+                spans.span(b, open, end());
+            return b;
+        }
+        return block();
+    }
+
     private Declarations declarations () {
         // Declarations --> { Declaration }
         Declarations d = new Declarations();
         while(isType()){
         	declaration(d);
         }
+        d.trimToSize();
         return d;  //여러개의 declaration들을 declarations로 묶어서 리턴한다.
     }
 
     private void declaration (Declarations ds) {
-        // Declaration  --> Type Identifier { , Identifier } ;
+        // Declaration  --> Type Declarator { , Declarator } ;
         Type type = type();
-        Declaration d = new Declaration(match(TokenType.Identifier), type);
+        Declaration d = declarator(type);
         ds.add(d);		//ds에 새로운 declaration 삽입
         while(token.type() == TokenType.Comma){
         	match(TokenType.Comma);
-        	Declaration dT = new Declaration(match(TokenType.Identifier),type);
+        	Declaration dT = declarator(type);
         	ds.add(dT);
         }
         match(TokenType.Semicolon);
         // 여러개의 선언문을 인식하는 함수이다. 하나의 타입에 여러 변수를 생성할 수 있으므로 다음 토큰이 ','인 경우 같은 타입으로 변수 선언을 했음을 인식해준다. 또한 이렇게 완성한 Declaration을 Declarations에 추가해준다.
     }
 
+    private Declaration declarator (Type type) {
+        // Declarator --> Identifier [ '[' IntLiteral ']' ],  arrays of int or float
+        String id = name(match(TokenType.Identifier));
+        if (!token.type().equals(TokenType.LeftBracket))
+            return new Declaration(id, type);
+        if (type != Type.INT && type != Type.FLOAT)
+            error("; (arrays are int or float)");
+        match(TokenType.LeftBracket);
+        int size = Integer.parseInt(match(TokenType.IntLiteral));
+        match(TokenType.RightBracket);
+        return new Declaration(id, Type.arrayOf(type), size);
+    }
+
     private Type type () {
         // Type  -->  int | bool | float | char
         Type t;
         if(token == Token.intTok){
-        	t = new Type("int");
+        	t = Type.INT;
         	match(TokenType.Int);
         }
         else if(token == Token.floatTok){
-        	t = new Type("float");
+        	t = Type.FLOAT;
         	match(TokenType.Float);
         }
         else if(token == Token.boolTok){
-        	t = new Type("bool");
+        	t = Type.BOOL;
         	match(TokenType.Bool);
         }
         else{
-        	t = new Type("char");
+        	t = Type.CHAR;
         	match(TokenType.Char);
         }
         // 변수의 타입을 인식하는 함수이다. Type변수를 만들어서 다음 토큰을 인식하고 각 토큰에 따라 각 타입을 할당해준다.
@@ -97,17 +264,30 @@ public class Parser {
 
     private Block statements () {
         // Block --> '{' Statements '}'
+        if (arena != null) {    // each statement goes into the arena once parsed
+            int mark = arena.mark(), start = lexer.position();
+            while (!token.type().equals(TokenType.RightBrace)) {
+                int at = lexer.position();
+                arena.push(arena.statement(statement(), at));
+            }
+            return arena.block(mark, start);
+        }
         Block b = new Block();
+        b.line = lexer.line();
+        ArrayList<Statement> members = new ArrayList<Statement>();
         while(!token.type().equals(TokenType.RightBrace)){
-        	b.members.add(statement());
+        	members.add(statement());
         }
+        members.trimToSize();
+        b.members = members;
         // 선언문 다음으로 statement들을 구조화하는 함수로 Block을 리턴해준다. 또한 프로그램 종료를 알리는 '}'기호를 만나기 전까지 계속해서 statement들을 입력받아 추가한다.
         return b;
     }
 
     private Statement statement() {
         // Statement --> ; | Block | Assignment | IfStatement | WhileStatement
-        Statement s = new Skip();
+        int line = lexer.line(), start = lexer.position();
+        Statement s;
         if(token.type().equals(TokenType.If)){
         	s = ifStatement();
         }
@@ -124,17 +304,33 @@ public class Parser {
         }
         else{
         	match(TokenType.Semicolon);
+        	s = new Skip();
         }
         //각각 다음 토큰이 '{', 'ID', 'while', 'if',';'일 경우 각각 block, assignment, while문, if문, 세미콜론으로 인식을 해서 각각을 구조화해주는 함수를 발동시켜준다.
+        if (s.line == 0)
+            s.line = line;
+        if (spans != null)
+            spans.span(s, start, end());
         return s;
     }
 
     private Assignment assignment () {
-    	Variable target = new Variable(match(TokenType.Identifier));
+        int at = lexer.position();
+    	Variable target = new Variable(name(match(TokenType.Identifier)));
+        used(target, at, true);
+        Metrics.built(target);
+        ArrayRef element = null;
+        if (token.type().equals(TokenType.LeftBracket)) {
+            match(TokenType.LeftBracket);
+            element = new ArrayRef(target, expression());
+            match(TokenType.RightBracket);
+        }
     	match(TokenType.Assign);
     	Expression source = expression();
     	match(TokenType.Semicolon);
-        // Assignment --> Identifier = Expression ;
+        // Assignment --> Identifier [ '[' Expression ']' ] = Expression ;
+        if (element != null)
+            return new Assignment(element, source);
         return new Assignment(target,source);  //assignment의 경우 id = expression형태이므로 id를 인식해서 이를 Variable변수에 넣고 '='뒤에 오는 표현식을 expression함수를 이용해서 구조화한다. 이렇게 만든 Variable과 Expression 변수를 파라미터로 하는 Assignment를 새로 만들어 리턴해준다.
     }
 
@@ -144,15 +340,11 @@ public class Parser {
         match(TokenType.LeftParen);
         Expression e = expression();
         match(TokenType.RightParen);
-        match(TokenType.LeftBrace);
-        Statement s = statements();
-        match(TokenType.RightBrace);
+        Statement s = body();
 
         if(token.type().equals(TokenType.Else)){
         	match(TokenType.Else);
-        	match(TokenType.LeftBrace);
-        	Statement st = statements();
-        	match(TokenType.RightBrace);
+        	Statement st = body();
         	return new Conditional(e,s,st);
         }
         else{
@@ -167,9 +359,7 @@ public class Parser {
         match(TokenType.LeftParen);
         Expression e = expression();
         match(TokenType.RightParen);
-        match(TokenType.LeftBrace);
-        Statement s = statements();
-        match(TokenType.RightBrace);
+        Statement s = body();
         return new Loop(e,s);  // 순서대로 while, '(' 을 입력받고 expression을 하나 구조화하고 ')'를 인식하고 statements를 통해 statement들을 인식받는다.
     }
 
@@ -177,15 +367,15 @@ public class Parser {
         // Expression --> Conjunction { || Conjunction }
         Expression e = conjunction();
         if(token.type().equals(TokenType.Or)){
-        	Operator op = new Operator("||");
+        	Operator op = Operator.OR;
         	match(TokenType.Or);
         	Expression et = conjunction();
-        	Binary b = new Binary(op,e,et);
+        	Expression b = binary(op,e,et);
         	while(token.type().equals(TokenType.Or)){
         		match(TokenType.Or);
 	        	Expression ett = conjunction();
-	        	Binary bt = b;
-	        	b = new Binary(op,bt,ett);
+	        	Expression bt = b;
+	        	b = binary(op,bt,ett);
         	}
         	return b;
         }
@@ -199,15 +389,15 @@ public class Parser {
         // Conjunction --> Equality { && Equality }
         Expression e = equality();
         if(token.type().equals(TokenType.And)){
-        	Operator op = new Operator("&&");
+        	Operator op = Operator.AND;
         	match(TokenType.And);
         	Expression et = equality();
-        	Binary b = new Binary(op,e,et);
+        	Expression b = binary(op,e,et);
         	while(token.type().equals(TokenType.And)){
         		match(TokenType.And);
         		Expression ett = equality();
-        		Binary bt = b;
-        		b = new Binary(op,bt,ett);
+        		Expression bt = b;
+        		b = binary(op,bt,ett);
         	}
         	return b;
         }
@@ -221,10 +411,11 @@ public class Parser {
         // Equality --> Relation [ EquOp Relation ]
         Expression e = relation();
         while(isEqualityOp()){
-        	Operator op = new Operator(match(token.type()));
+        	Operator op = Operator.of(token.type());
+        	match(token.type());
         	match(token.type());
         	Expression et = relation();
-        	e = new Binary(op,e,et);
+        	e = binary(op,e,et);
         }
         return e;  // 하나의 Realation을 먼저 relation함수를 이용해서 구조화 하고, 다음 토큰이 '==', '!='인지 확인하고 맞는 경우 다음 relation을 구조화한다.
     }
@@ -233,12 +424,13 @@ public class Parser {
         // Relation --> Addition [RelOp Addition]
         Expression e = addition();
         while(isRelationalOp()){
-        	Operator op = new Operator(match(token.type()));
+        	Operator op = Operator.of(token.type());
+        	match(token.type());
         	if(token.type().equals(TokenType.Assign)){
         		match(token.type());
         	}
         	Expression et = addition();
-        	e = new Binary(op,e,et);
+        	e = binary(op,e,et);
         }
         return e;  // 하나의 Addition을 먼저 addition함수를 이용해서 구조화 하고, 다음 토큰이 '>', '<', '<=', '>=' 인지 확인해서 맞는 경우 다음 Addition을 구조화한다.
     }
@@ -247,9 +439,10 @@ public class Parser {
         // Addition --> Term { AddOp Term }
         Expression e = term();
         while (isAddOp()) {
-            Operator op = new Operator(match(token.type()));
+            Operator op = Operator.of(token.type());
+            match(token.type());
             Expression term2 = term();
-            e = new Binary(op, e, term2);
+            e = binary(op, e, term2);
         }
         return e;
     }
@@ -258,9 +451,10 @@ public class Parser {
         // Term --> Factor { MultiplyOp Factor }
         Expression e = factor();
         while (isMultiplyOp()) {
-            Operator op = new Operator(match(token.type()));
+            Operator op = Operator.of(token.type());
+            match(token.type());
             Expression term2 = factor();
-            e = new Binary(op, e, term2);
+            e = binary(op, e, term2);
         }
         return e;
     }
@@ -268,19 +462,27 @@ public class Parser {
     private Expression factor() {
         // Factor --> [ UnaryOp ] Primary
         if (isUnaryOp()) {
-            Operator op = new Operator(match(token.type()));
+            Operator op = Operator.of(token.type());
+            match(token.type());
             Expression term = primary();
-            return new Unary(op, term);
+            return unary(op, term);
         }
         else return primary();
     }
 
     private Expression primary () {
-        // Primary --> Identifier | Literal | ( Expression )
-        //             | Type ( Expression )
+        // Primary --> Identifier [ '[' Expression ']' ] | Literal
+        //             | ( Expression ) | Type ( Expression )
         Expression e = null;
         if (token.type().equals(TokenType.Identifier)) {
-            e = new Variable(match(TokenType.Identifier));
+            int at = lexer.position();
+            e = variable(match(TokenType.Identifier));
+            used((Variable)e, at, false);
+            if (token.type().equals(TokenType.LeftBracket)) {
+                match(TokenType.LeftBracket);
+                e = new ArrayRef((Variable)e, expression());
+                match(TokenType.RightBracket);
+            }
         } else if (isLiteral()) {
             e = literal();
         } else if (token.type().equals(TokenType.LeftParen)) {
@@ -288,11 +490,12 @@ public class Parser {
             e = expression();
             match(TokenType.RightParen);
         } else if (isType( )) {
-            Operator op = new Operator(match(token.type()));
+            Operator op = Operator.of(token.type());
+            match(token.type());
             match(TokenType.LeftParen);
             Expression term = expression();
             match(TokenType.RightParen);
-            e = new Unary(op, term);
+            e = unary(op, term);
         } else error("Identifier | Literal | ( | Type");
         return e;
     }
@@ -302,40 +505,82 @@ public class Parser {
     	if(token.type().equals(TokenType.IntLiteral)){
     		int s = Integer.parseInt(match(TokenType.IntLiteral));
     		//토큰이 int형일 경우 이를 int형으로 바꿔 저장해주고
-    		v = new IntValue(s);
+    		v = IntValue.of(s);
     		//이를 다시 IntValue로 만들어줘서 리턴한다.
-    		return v;
+    		return value(v);
     	}
     	else if(token.type().equals(TokenType.FloatLiteral)){
     		float s = Float.parseFloat(match(TokenType.FloatLiteral));
     		//토큰이 float형일 경우 이를 float형으로 바꿔 저장해주고
     		v = new FloatValue(s);
     		//이를 다시 FloatValue로 만들어줘서 리턴한다.
-    		return v;
+    		return value(v);
     	}
     	else if(token.type().equals(TokenType.CharLiteral)){
     		String t = match(TokenType.CharLiteral);
     		char s = t.charAt(0);
     		//char형일 경우 스트링을 받아 이 스트링의 첫번째 char를 받아서 저장해주고
-    		v = new CharValue(s);
+    		v = CharValue.of(s);
     		//이를 CharValue로 만들어줘서 리턴한다.
-    		return v;
+    		return value(v);
     	}
     	else{
     		if(token.type().equals(TokenType.True)){
-    			v = new BoolValue(true);
+    			v = BoolValue.TRUE;
     			//다음 토큰이 True일 경우 true를 BoolValue파라미터로 넣어서 리턴한다.
-    			return v;
+    			return value(v);
     		}
     		else{
-    			v = new BoolValue(false);
+    			v = BoolValue.FALSE;
     			//다음 토큰이 False일 경우 false를 BoolValue파라미터로 넣어서 리턴한다.
-    			return v;
+    			return value(v);
     		}
     	}
     }
 
 
+    private void used (Variable v, int position, boolean write) {
+        if (uses != null)
+            uses.use(v.id(), position, write);
+    }
+
+    // With a HashCons, it counts the nodes it builds; a shared one is
+    // not built again.
+
+    private Expression binary (Operator op, Expression l, Expression r) {
+        if (nodes != null)
+            return nodes.binary(op, l, r);
+        Metrics.nodes[Metrics.BINARY].increment();
+        return new Binary(op, l, r);
+    }
+
+    private Expression unary (Operator op, Expression term) {
+        if (nodes != null)
+            return nodes.unary(op, term);
+        Metrics.nodes[Metrics.UNARY].increment();
+        return new Unary(op, term);
+    }
+
+    private Variable variable (String id) {
+        if (nodes != null)
+            return nodes.variable(id);
+        Metrics.nodes[Metrics.VARIABLE].increment();
+        return new Variable(name(id));
+    }
+
+    // one String per identifier, shared by all its Variables
+    private String name (String id) {
+        String n = names.putIfAbsent(id, id);
+        return n != null ? n : id;
+    }
+
+    private Value value (Value v) {
+        if (nodes != null)
+            return nodes.value(v);
+        Metrics.built(v);
+        return v;
+    }
+
     private boolean isAddOp( ) {
         return token.type().equals(TokenType.Plus) ||
                token.type().equals(TokenType.Minus);
@@ -0,0 +1,135 @@
+import jdk.jfr.*;
+
+// JDK Flight Recorder events for the phases of the front end.  An event
+// is begun and ended around its phase; its fields are filled in only
+// when shouldCommit() says the recording wants it, so a disabled event
+// costs an allocation the JIT removes and no tree walks.  BlockCheck is
+// fine-grained and off unless a recording enables it, e.g.
+//     java -XX:StartFlightRecording=filename=front.jfr,settings=profile
+//          StaticTypeCheck prog.c
+//     jfr print --events clite.Parse,clite.TypeCheck front.jfr
+// Lexing is on demand from the parser, so a Lex event spans from the
+// Lexer's construction to the Eof token, parsing included; its Lexing
+// Time field is the time spent lexing within that span.
+
+public class PhaseEvents {
+
+    @Name("clite.Lex")
+    @Label("Lex")
+    @Category({"C++Lite", "Front End"})
+    @Description("Tokenization of one source file by Lexer")
+    static class Lex extends Event {
+        @Label("File") String file;
+        @Label("Tokens") long tokens;
+        @Label("Bytes") @DataAmount long bytes;
+        @Label("Lexing Time") @Timespan long lexing;   // Lexer.next's, not the event's duration
+    }
+
+    @Name("clite.Parse")
+    @Label("Parse")
+    @Category({"C++Lite", "Front End"})
+    @Description("Parser.program()")
+    static class Parse extends Event {
+        @Label("Nodes") long nodes;     // a body not parsed yet counts as one
+        @Label("Max Depth") int depth;
+    }
+
+    @Name("clite.TypeCheck")
+    @Label("Type Check")
+    @Category({"C++Lite", "Front End"})
+    @Description("StaticTypeCheck.V(Program)")
+    static class TypeCheck extends Event {
+        @Label("Variables") int variables;
+        @Label("Statements") long statements;
+        @Label("Parallel") boolean parallel;
+    }
+
+    @Name("clite.BlockCheck")
+    @Label("Block Check")
+    @Category({"C++Lite", "Front End"})
+    @Description("Type checking of one Block")
+    @Enabled(false)
+    @Threshold("0 ms")
+    static class BlockCheck extends Event {
+        @Label("Members") int members;
+    }
+
+    // A LazyBlock that has not parsed its body counts as one node, a
+    // leaf, so that measuring a lazy parse does not parse everything.
+    private static boolean unparsed (Statement s) {
+        return s instanceof LazyBlock && !((LazyBlock)s).parsed();
+    }
+
+    // nodes of the abstract syntax, statements and expressions
+    static long nodes (Statement s) {
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            return 1 + (a.element != null ? nodes(a.element) : nodes(a.target)) + nodes(a.source);
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            return 1 + nodes(c.test) + nodes(c.thenbranch) + nodes(c.elsebranch);
+        }
+        if (s instanceof Loop)
+            return 1 + nodes(((Loop)s).test) + nodes(((Loop)s).body);
+        long n = 1;
+        if (s instanceof Block && !unparsed(s))
+            for (Statement m : ((Block)s).members)
+                n += nodes(m);
+        return n;
+    }
+
+    static long nodes (Expression e) {
+        if (e instanceof Binary)
+            return 1 + nodes(((Binary)e).term1) + nodes(((Binary)e).term2);
+        if (e instanceof Unary)
+            return 1 + nodes(((Unary)e).term);
+        if (e instanceof ArrayRef)      // the reference, its array and index
+            return 2 + nodes(((ArrayRef)e).index);
+        return 1;
+    }
+
+    static int depth (Statement s) {
+        if (s instanceof Assignment)
+            return 1 + Math.max(((Assignment)s).element != null ? depth(((Assignment)s).element) : 1,
+                                depth(((Assignment)s).source));
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            return 1 + Math.max(depth(c.test),
+                                Math.max(depth(c.thenbranch), depth(c.elsebranch)));
+        }
+        if (s instanceof Loop)
+            return 1 + Math.max(depth(((Loop)s).test), depth(((Loop)s).body));
+        int d = 0;
+        if (s instanceof Block && !unparsed(s))
+            for (Statement m : ((Block)s).members)
+                d = Math.max(d, depth(m));
+        return 1 + d;
+    }
+
+    static int depth (Expression e) {
+        if (e instanceof Binary)
+            return 1 + Math.max(depth(((Binary)e).term1), depth(((Binary)e).term2));
+        if (e instanceof Unary)
+            return 1 + depth(((Unary)e).term);
+        if (e instanceof ArrayRef)
+            return 1 + Math.max(1, depth(((ArrayRef)e).index));
+        return 1;
+    }
+
+    // statements, not counting the Blocks that group them
+    static long statements (Statement s) {
+        if (s instanceof Conditional)
+            return 1 + statements(((Conditional)s).thenbranch)
+                     + statements(((Conditional)s).elsebranch);
+        if (s instanceof Loop)
+            return 1 + statements(((Loop)s).body);
+        if (!(s instanceof Block))
+            return 1;
+        long n = 0;
+        for (Statement m : ((Block)s).members)
+            n += statements(m);
+        return n;
+    }
+
+} // class PhaseEvents
@@ -0,0 +1,199 @@
+import java.lang.management.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// A Lexer whose tokens are produced ahead of time by a ByteLexer running
+// on its own thread, so lexing overlaps with parsing:
+//     new Parser(new PipelinedLexer(fileName))
+// The threads share a bounded single-producer/single-consumer ring of
+// primitive slots: token type, start offset, line and length (or the
+// character of a char literal).  Token objects are only made on the
+// consumer side, and keywords and symbols are the shared Token constants.
+// Each side publishes its counter once per batch; a full ring stops the
+// producer until the parser has caught up, so memory stays bounded.
+// Tokens reach the parser through Lexer.next, which counts them.  A
+// lexing error on the producer is thrown from next() once the tokens
+// before it are read; close() stops a producer no longer needed.  The
+// producer's CPU time, less its waits on a full ring, is the lexing
+// time Lexer reports for the file.
+
+public class PipelinedLexer extends Lexer implements AutoCloseable {
+
+    static final int BATCH = 256;           // slots published at a time
+    private static final TokenType[ ] TYPES = TokenType.values();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final byte[ ] source;
+    private final int capacity, mask;
+    private final int[ ] type, start, line, length;
+    private final Thread producer;
+    private volatile IllegalStateException failure;    // ends the producer's tokens
+    private volatile long lexed = -1;   // producer's ns up to Eof, set before Eof is published
+    private final AtomicLong tail = new AtomicLong();  // slots written by the producer
+    private final AtomicLong head = new AtomicLong();  // slots read by the consumer
+
+    private long read = 0;          // consumer's next slot
+    private long available = 0;     // consumer's last view of tail
+    private int position = 0, lineno = 0;
+    private boolean eof = false;
+
+    public PipelinedLexer (String fileName) {
+        this(fileName, read(fileName), 1 << 16);
+    }
+
+    public PipelinedLexer (byte[ ] source, int capacity) { // capacity: a power of two
+        this(null, source, capacity);
+    }
+
+    private PipelinedLexer (String fileName, byte[ ] source, int capacity) {
+        super(fileName, source.length);
+        this.source = source;
+        this.capacity = capacity;
+        mask = capacity - 1;
+        type = new int[capacity];
+        start = new int[capacity];
+        line = new int[capacity];
+        length = new int[capacity];
+        producer = new Thread(this::produce, "lexer");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    private static byte[ ] read (String fileName) {
+        try {
+            return Files.readAllBytes(Paths.get(fileName));
+        } catch (java.io.IOException e) {
+            System.out.println("File not found: " + fileName);
+            System.exit(1);
+            return null;
+        }
+    }
+
+    // spin, then yield, then sleep briefly while the other side catches up
+    private static void pause (int round) {
+        if (round < 64) Thread.onSpinWait();
+        else if (round < 128) Thread.yield();
+        else LockSupport.parkNanos(20_000);
+    }
+
+    // the calling thread's CPU time in ns, or wall-clock time without it
+    private static long clock ( ) {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime()
+                                                         : System.nanoTime();
+    }
+
+    private void produce ( ) {
+        ByteLexer lexer = new ByteLexer(source);
+        lexer.speculative = true;   // errors throw, to be handed to the parser
+        long written = 0, limit = capacity, busy = 0, since = clock();
+        Token tok;
+        do {
+            try {
+                tok = lexer.next();
+            } catch (IllegalStateException e) {
+                tail.set(written);  // before failure, so the parser sees both
+                failure = e;
+                return;
+            }
+            if (tok == Token.eofTok)
+                lexed = busy + clock() - since;
+            if (written == limit) {     // ring full: publish and wait for the parser
+                tail.lazySet(written);
+                busy += clock() - since;
+                for (int round = 0; (limit = head.get() + capacity) == written; round++) {
+                    if (Thread.interrupted())   // closed
+                        return;
+                    pause(round);
+                }
+                since = clock();
+            }
+            int i = (int)written & mask;
+            TokenType t = tok.type();
+            type[i] = t.ordinal();
+            start[i] = lexer.position();
+            line[i] = lexer.line();
+            length[i] = t == TokenType.CharLiteral ? tok.value().charAt(0)
+                                                   : lexer.end() - lexer.position();
+            written++;
+            if ((written & (BATCH - 1)) == 0) {
+                tail.lazySet(written);
+                if (Thread.currentThread().isInterrupted())     // closed
+                    return;
+            }
+        } while (tok != Token.eofTok);
+        tail.lazySet(written);
+    }
+
+    public int position( ) { // byte offset of the last token returned
+        return position;
+    }
+
+    public int line( ) { // source line of the last token returned
+        return lineno;
+    }
+
+    // stops the producer; next() then returns eof
+    public void close ( ) {
+        eof = true;
+        producer.interrupt();
+    }
+
+    protected Token scan( ) { // Return next token, for Lexer.next
+        if (eof)
+            return Token.eofTok;
+        if (read == available) {
+            head.lazySet(read);
+            for (int round = 0; (available = tail.get()) == read; round++) {
+                if (failure != null && (available = tail.get()) == read) {
+                    Metrics.error(Metrics.LEXICAL);
+                    throw new IllegalStateException(failure.getMessage(), failure);
+                }
+                pause(round);
+            }
+        }
+        int i = (int)read & mask;
+        TokenType t = TYPES[type[i]];   // read before the slot is handed back
+        int len = length[i];
+        position = start[i];
+        lineno = line[i];
+        read++;
+        if ((read & (BATCH - 1)) == 0)
+            head.lazySet(read);
+        if (t.compareTo(TokenType.Identifier) < 0) {
+            eof = t == TokenType.Eof;
+            if (eof) lexing = lexed;
+            return Token.fixed(t);
+        }
+        if (t == TokenType.CharLiteral)
+            return Token.mkCharLiteral("" + (char)len);
+        String spelling = new String(source, position, len, StandardCharsets.ISO_8859_1);
+        if (t == TokenType.Identifier) return Token.mkIdentTok(spelling);
+        if (t == TokenType.IntLiteral) return Token.mkIntLiteral(spelling);
+        return Token.mkFloatLiteral(spelling);
+    }
+
+    static public void main ( String[] argv ) {
+        // the same tokens as ByteLexer, then parse time without and with the pipeline
+        byte[ ] source = read(argv[0]);
+        ByteLexer plain = new ByteLexer(source);
+        PipelinedLexer piped = new PipelinedLexer(source, 1 << 16);
+        for (long i = 0; ; i++) {
+            Token a = plain.next(), b = piped.next();
+            if (!a.toString().equals(b.toString()) || plain.line() != piped.line())
+                throw new IllegalStateException("token " + i + ": " + a + " != " + b);
+            if (a == Token.eofTok) break;
+        }
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.nanoTime();
+            new Parser(new Lexer(argv[0])).program();
+            long t1 = System.nanoTime();
+            new Parser(new PipelinedLexer(source, 1 << 16)).program();
+            long t2 = System.nanoTime();
+            System.out.printf("round %d: Lexer + Parser %.1f ms, pipelined %.1f ms%n",
+                              round, (t1 - t0) / 1e6, (t2 - t1) / 1e6);
+        }
+    } // main
+
+} // class PipelinedLexer
@@ -0,0 +1,231 @@
+import java.util.*;
+
+// Following is the semantics class:
+// The meaning M of a Statement is a State
+// The meaning M of an Expression is a Value
+// Operators are applied according to the run-time types of their
+// operands, so the program does not have to be type transformed first.
+
+public class Semantics {
+
+    long evaluations = 0;   // expression nodes evaluated so far
+    Set<Variable> proven = Collections.emptySet();  // the program's, once M(Program) runs
+
+    State M (Program p) {
+        proven = p.proven;
+        return M (p.body, initialState(p.decpart));
+    }
+
+    State initialState (Declarations d) {
+        State state = new State();
+        for (Declaration decl : d)
+            state.put(decl.v, decl.t.element() != null ? new ArrayValue(decl.t, decl.size)
+                                                       : Value.mkValue(decl.t));
+        return state;
+    }
+
+    State M (Statement s, State state) {
+        if (s instanceof Skip) return M((Skip)s, state);
+        if (s instanceof Assignment)  return M((Assignment)s, state);
+        if (s instanceof Conditional)  return M((Conditional)s, state);
+        if (s instanceof Loop)  return M((Loop)s, state);
+        if (s instanceof Block)  return M((Block)s, state);
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    State M (Skip s, State state) {
+        return state;
+    }
+
+    State M (Assignment a, State state) {
+        if (a.element != null)
+            return element(a, state);
+        Value v = M (a.source, state);
+        Type target = state.get(a.target).type();
+        if (target == Type.FLOAT && v.type() != Type.FLOAT)
+            v = new FloatValue(asInt(v));       // implicit int -> float
+        else if (target == Type.INT && v.type() == Type.CHAR)
+            v = IntValue.of(v.charValue());    // implicit char -> int
+        return state.onion(a.target, v);
+    }
+
+    // target[index] = source; the element takes the array's element type
+    State element (Assignment a, State state) {
+        ArrayValue array = (ArrayValue)state.get(a.target);
+        int i = index(a.element, array, state);
+        Value v = M (a.source, state);
+        if (!defined(a.source) && v.isUndef( ))
+            throw new ArrayAccessException("reference to undef value");
+        if (array.type() == Type.FLOAT_ARRAY)
+            array.setFloat(i, asFloat(v));
+        else
+            array.setInt(i, asInt(v));
+        return state;
+    }
+
+    int index (ArrayRef r, ArrayValue array, State state) {
+        Value v = M (r.index, state);
+        if (!defined(r.index) && v.isUndef( ))
+            throw new ArrayAccessException("reference to undef value");
+        int i = v.intValue();
+        if (r.checked)
+            array.check(i);
+        return i;
+    }
+
+    State M (Block b, State state) {
+        for (Statement s : b.members)
+            state = M (s, state);
+        return state;
+    }
+
+    State M (Conditional c, State state) {
+        if (M(c.test, state).boolValue( ))
+            return M (c.thenbranch, state);
+        else
+            return M (c.elsebranch, state);
+    }
+
+    State M (Loop l, State state) {
+        while (M (l.test, state).boolValue( ))
+            state = M(l.body, state);
+        return state;
+    }
+
+    static int asInt (Value v) {
+        if (v.type() == Type.CHAR) return v.charValue();
+        return v.intValue();
+    }
+
+    static float asFloat (Value v) {
+        if (v.type() == Type.FLOAT) return v.floatValue();
+        return asInt(v);
+    }
+
+    Value applyBinary (Operator op, Value v1, Value v2) {
+        StaticTypeCheck.check( ! v1.isUndef( ) && ! v2.isUndef( ),
+               "reference to undef value");
+        return binary(op, v1, v2);
+    }
+
+    // applyBinary for operands known to be defined
+    static Value binary (Operator op, Value v1, Value v2) {
+        boolean real = v1.type() == Type.FLOAT || v2.type() == Type.FLOAT;
+        if (op.ArithmeticOp( )) {
+            if (real) {
+                float a = asFloat(v1), b = asFloat(v2);
+                if (op == Operator.PLUS) return new FloatValue(a + b);
+                if (op == Operator.MINUS) return new FloatValue(a - b);
+                if (op == Operator.TIMES) return new FloatValue(a * b);
+                return new FloatValue(a / b);
+            }
+            int a = asInt(v1), b = asInt(v2);
+            if (op == Operator.PLUS) return IntValue.of(a + b);
+            if (op == Operator.MINUS) return IntValue.of(a - b);
+            if (op == Operator.TIMES) return IntValue.of(a * b);
+            return IntValue.of(a / b);
+        }
+        if (op.RelationalOp( )) {
+            if (real)   // as C: -0.0 == 0.0, and only != holds for NaN
+                return BoolValue.of(test(op, asFloat(v1), asFloat(v2)));
+            int cmp = Integer.compare(asInt(v1), asInt(v2));
+            if (op == Operator.LT) return BoolValue.of(cmp < 0);
+            if (op == Operator.LE) return BoolValue.of(cmp <= 0);
+            if (op == Operator.EQ) return BoolValue.of(cmp == 0);
+            if (op == Operator.NE) return BoolValue.of(cmp != 0);
+            if (op == Operator.GT) return BoolValue.of(cmp > 0);
+            return BoolValue.of(cmp >= 0);
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    static boolean test (Operator op, float a, float b) {
+        if (op == Operator.LT) return a < b;
+        if (op == Operator.LE) return a <= b;
+        if (op == Operator.EQ) return a == b;
+        if (op == Operator.NE) return a != b;
+        if (op == Operator.GT) return a > b;
+        return a >= b;
+    }
+
+    Value applyUnary (Operator op, Value v) {
+        StaticTypeCheck.check( ! v.isUndef( ),
+               "reference to undef value");
+        return unary(op, v);
+    }
+
+    static Value unary (Operator op, Value v) {
+        if (op.NotOp( ))
+            return BoolValue.of(!v.boolValue( ));
+        else if (op.NegateOp( ))
+            return v.type() == Type.FLOAT ? new FloatValue(-v.floatValue( ))
+                                          : IntValue.of(-asInt(v));
+        else if (op.intOp( ))
+            return IntValue.of(v.type() == Type.FLOAT ? (int)v.floatValue( ) : asInt(v));
+        else if (op.floatOp( ))
+            return new FloatValue(asFloat(v));
+        else if (op.charOp( ))
+            return CharValue.of((char)asInt(v));
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    // True if e cannot evaluate to undef: an operator result, an array
+    // element, a defined literal or a read DefiniteAssignment proved; no
+    // need to check it.
+    boolean defined (Expression e) {
+        if (e instanceof Variable) return proven.contains(e);
+        return !(e instanceof Value) || !((Value)e).isUndef();
+    }
+
+    Value M (Expression e, State state) {
+        evaluations++;
+        if (e instanceof Value)
+            return (Value)e;
+        if (e instanceof Variable)
+            return state.get(e);
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            if (b.op.BooleanOp( )) {  // && and || short-circuit
+                boolean left = M(b.term1, state).boolValue( );
+                if (b.op == Operator.AND ? !left : left)
+                    return BoolValue.of(left);
+                return BoolValue.of(M(b.term2, state).boolValue( ));
+            }
+            Value v1 = M(b.term1, state), v2 = M(b.term2, state);
+            if (defined(b.term1) && defined(b.term2))
+                return binary(b.op, v1, v2);
+            return applyBinary (b.op, v1, v2);
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            Value v = M(u.term, state);
+            return defined(u.term) ? unary(u.op, v) : applyUnary(u.op, v);
+        }
+        if (e instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef)e;
+            ArrayValue array = (ArrayValue)state.get(r.array);
+            return array.get(index(r, array, state));
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    public static void main(String args[]) {
+        Parser parser  = new Parser(new Lexer(args[0]));
+        Program prog = parser.program();
+        prog.display();
+        System.out.println("\nBegin type checking...");
+        for (String w : StaticTypeCheck.V(prog))
+            System.err.println(w);
+        System.out.println("\nBegin interpreting...");
+        Semantics semantics = new Semantics( );
+        State state = null;
+        try {
+            state = semantics.M(prog);
+        } catch (ArrayAccessException e) {
+            StaticTypeCheck.check(false, e.getMessage());
+        }
+        System.out.print("Final State: ");
+        state.display( );
+    } //main
+
+} // class Semantics
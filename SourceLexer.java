@@ -0,0 +1,86 @@
+import java.io.*;
+import java.nio.file.*;
+
+// A Lexer over source bytes in memory, driven by a ByteLexer, that can
+// be moved to any offset between tokens.  Parser uses it to step over
+// a '{' ... '}' body without lexing its contents (skipBody), and to
+// parse a body later from the offset of its '{'.
+
+public class SourceLexer extends Lexer {
+
+    private final byte[ ] source;
+    private final ByteLexer lexer;
+
+    public SourceLexer (byte[ ] source, int from) {
+        this.source = source;
+        lexer = new ByteLexer(source, from);
+    }
+
+    public SourceLexer (byte[ ] source, int from, int line) { // from is on line
+        this.source = source;
+        lexer = new ByteLexer(source, from, line);
+    }
+
+    public SourceLexer (String fileName) {
+        this(read(fileName), 0);
+    }
+
+    private static byte[ ] read (String fileName) {
+        try {
+            return Files.readAllBytes(Paths.get(fileName));
+        } catch (IOException e) {
+            System.out.println("File not found: " + fileName);
+            System.exit(1);
+            return null;
+        }
+    }
+
+    public byte[ ] source ( ) { return source; }
+
+    void speculative (boolean on) { // lexing errors throw instead of exiting
+        lexer.speculative = on;
+    }
+
+    public int position( ) { // byte offset of the last token returned
+        return lexer.position();
+    }
+
+    public int line( ) { // source line of the last token returned
+        return lexer.line();
+    }
+
+    public Token next( ) { // Return next token
+        return lexer.next();
+    }
+
+    // the next token is the one at or after offset
+    public void seek (int offset) {
+        lexer.seek(offset);
+    }
+
+    // Offset of the '}' matching the '{' at open, or -1.  Braces inside
+    // // comments and char literals do not count.
+    public static int skipBody (byte[ ] s, int open) {
+        int depth = 0;
+        for (int p = open; p < s.length; p++) {
+            switch (s[p]) {
+            case '{': depth++; break;
+            case '}':
+                if (--depth == 0) return p;
+                break;
+            case '/':
+                if (p + 1 < s.length && s[p+1] == '/')
+                    p = ByteScan.lineEnd(s, p, s.length);
+                break;
+            case '\'':  // 'c', where c is one UTF-8 character
+                p++;
+                while (p + 1 < s.length && (s[p+1] & 0xc0) == 0x80)
+                    p++;
+                p++;
+                break;
+            }
+        }
+        return -1;
+    }
+
+} // class SourceLexer
@@ -0,0 +1,1164 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// A control-flow graph of basic blocks in SSA form, lowered from a type
+// checked C++Lite Program.  Instruction v is described by kind[v],
+// op[v], type[v], a[v], b[v] and block[v] instead of by one heap
+// object; the operands of a phi are a run of b[v] entries starting at
+// a[v] in the shared list array.
+//
+//   kind     op            type      a           b
+//   CONST    -             type      value bits  -
+//   UNDEF    -             type      -           -
+//   PHI      -             type      first slot  count
+//   COPY     -             type      value       -
+//   BINARY   typed op      result    term1       term2
+//   UNARY    typed op      result    term        -
+//   LOAD     declaration   element   index       checked (1 or 0)
+//   STORE    declaration   element   index       value (always checked)
+//
+// Values are held as ints, as in Bytecode: int, char and bool (0 or 1)
+// as themselves, float as its bits.  Every operator is the typed one
+// (INT+, FLOAT<, I2F, ...); the implicit int -> float and char -> int
+// conversions of Semantics are explicit.  A block holds its phis, then
+// its code, then a jump to succ1 or, if cond is a value, a branch to
+// succ1 (true) or succ2 (false); the exit block has no successor and
+// returns the final value of each declared variable.  Phi operand j
+// comes from pred j.  && and || are lowered to branches, and an edge
+// from a branch never goes straight to a merge, so the graph has no
+// critical edges.
+//
+// Lowering follows Braun et al., Simple and Efficient Construction of
+// SSA Form: each block keeps the current value of the variables it
+// defines, in a map; a read in a block without one asks its
+// predecessors, placing a phi at a merge, and a while header stays
+// unsealed, with its phis incomplete, until the back edge is known.
+// The lookup runs on an explicit stack of phis still waiting for their
+// operands rather than by recursion, so it is not bounded by the
+// thread's stack however many merges it passes.  The passes then work
+// on the graph:
+//   copyPropagation  forwards copies and phis whose operands are all one
+//                    value (or the phi itself)
+//   valueNumbering   global value numbering over the dominator tree; an
+//                    instruction equal to one in a dominating block is
+//                    replaced by it
+//   deadCode         removes instructions nothing live uses
+// each in time linear in the instructions (and the dominator tree in
+// near-linear time on the reducible graphs lowering builds).  Like
+// Bytecode, the IR is exact for a program whose reads are defined: dead
+// code that reads an undef value is removed, where Semantics would stop.
+// Stores, checked loads and int divisions by anything but a non-zero
+// constant are never removed.
+// Usage: java Ssa prog.c       dump, run and compare with Semantics
+//        java Ssa [loops]      time the passes on generated programs
+
+public class Ssa {
+
+    static final int CONST = 0, UNDEF = 1, PHI = 2, COPY = 3, BINARY = 4, UNARY = 5,
+        LOAD = 6, STORE = 7;
+
+    static final Type[ ] TYPES = AstArena.TYPES;    // int, bool, char, float
+
+    static final Operator[ ] OPERATORS = Operator.values();
+
+    final Declarations decpart;
+
+    // instructions; block[v] is -1 once v is removed
+    int[ ] kind, op, type, a, b, block;
+    int size = 0;
+    int[ ] list = new int[16];
+    int listSize = 0;
+
+    // blocks
+    int[ ][ ] phis = new int[8][ ], code = new int[8][ ], preds = new int[8][ ];
+    int[ ] phiCount = new int[8], codeCount = new int[8], predCount = new int[8];
+    int[ ] succ1 = new int[8], succ2 = new int[8], cond = new int[8];
+    int blocks = 0;
+    int exit;
+    int[ ] results;     // final value of each declaration, -1 for an array
+
+    Ssa (Declarations d, int capacity) {
+        decpart = d;
+        kind = new int[capacity];
+        op = new int[capacity];
+        type = new int[capacity];
+        a = new int[capacity];
+        b = new int[capacity];
+        block = new int[capacity];
+    }
+
+    static int typeIndex (Type t) {
+        for (int i = 0; i < TYPES.length; i++)
+            if (TYPES[i] == t) return i;
+        throw new IllegalArgumentException("not a value type: " + t);
+    }
+
+    private static int[ ] push (int[ ] list, int count, int x) {
+        if (count == list.length)
+            list = Arrays.copyOf(list, Math.max(4, count * 2));
+        list[count] = x;
+        return list;
+    }
+
+    int newBlock ( ) {
+        if (blocks == succ1.length) {
+            int n = blocks * 2;
+            phis = Arrays.copyOf(phis, n);
+            code = Arrays.copyOf(code, n);
+            preds = Arrays.copyOf(preds, n);
+            phiCount = Arrays.copyOf(phiCount, n);
+            codeCount = Arrays.copyOf(codeCount, n);
+            predCount = Arrays.copyOf(predCount, n);
+            succ1 = Arrays.copyOf(succ1, n);
+            succ2 = Arrays.copyOf(succ2, n);
+            cond = Arrays.copyOf(cond, n);
+        }
+        phis[blocks] = new int[2];
+        code[blocks] = new int[4];
+        preds[blocks] = new int[2];
+        succ1[blocks] = succ2[blocks] = cond[blocks] = -1;
+        return blocks++;
+    }
+
+    void jump (int from, int to) {
+        succ1[from] = to;
+        preds[to] = push(preds[to], predCount[to], from);
+        predCount[to]++;
+    }
+
+    void branch (int from, int test, int then, int otherwise) {
+        cond[from] = test;
+        jump(from, then);
+        succ2[from] = otherwise;
+        preds[otherwise] = push(preds[otherwise], predCount[otherwise], from);
+        predCount[otherwise]++;
+    }
+
+    // a new instruction at the end of bl's code, or among its phis
+    int add (int bl, int k, int o, int t, int x, int y) {
+        if (size == kind.length) {
+            int n = size * 2;
+            kind = Arrays.copyOf(kind, n);
+            op = Arrays.copyOf(op, n);
+            type = Arrays.copyOf(type, n);
+            a = Arrays.copyOf(a, n);
+            b = Arrays.copyOf(b, n);
+            block = Arrays.copyOf(block, n);
+        }
+        kind[size] = k;
+        op[size] = o;
+        type[size] = t;
+        a[size] = x;
+        b[size] = y;
+        block[size] = bl;
+        if (k == PHI) {
+            phis[bl] = push(phis[bl], phiCount[bl], size);
+            phiCount[bl]++;
+        } else {
+            code[bl] = push(code[bl], codeCount[bl], size);
+            codeCount[bl]++;
+        }
+        return size++;
+    }
+
+    // sets the operands of phi v; they are not set before
+    void operands (int v, int[ ] values, int count) {
+        if (listSize + count > list.length)
+            list = Arrays.copyOf(list, Math.max(list.length * 2, listSize + count));
+        System.arraycopy(values, 0, list, listSize, count);
+        a[v] = listSize;
+        b[v] = count;
+        listSize += count;
+    }
+
+    boolean live (int v) { return v >= 0 && v < size && block[v] >= 0; }
+
+    // the operands of u, if it is not a phi, are a[u] and then b[u]
+    private int operandCount (int u) {
+        switch (kind[u]) {
+            case COPY: case UNARY: case LOAD: return 1;
+            case BINARY: case STORE: return 2;
+            default: return 0;
+        }
+    }
+
+    private int operand (int u, int i) { return i == 0 ? a[u] : b[u]; }
+
+    // ------------------------------------------------------------ lowering
+
+    public static Ssa lower (Program p) {
+        return new Lowering(p).ssa;
+    }
+
+    private static final class Lowering {
+        final Ssa ssa;
+        final HashMap<Variable, Integer> vars = new HashMap<Variable, Integer>();
+        final Type[ ] declared;
+        final ArrayList<Defs> defs = new ArrayList<Defs>();     // per block, or null
+        final ArrayList<HashMap<Integer, Integer>> incomplete = new ArrayList<HashMap<Integer, Integer>>();
+        final ArrayDeque<Pending> pending = new ArrayDeque<Pending>();
+        boolean[ ] sealed = new boolean[8];
+        int cur;
+
+        Lowering (Program p) {
+            ssa = new Ssa(p.decpart, 64);
+            declared = new Type[p.decpart.size()];
+            for (int i = 0; i < declared.length; i++) {
+                Declaration d = p.decpart.get(i);
+                vars.putIfAbsent(d.v, i);
+                declared[i] = d.t;
+            }
+            cur = block();
+            seal(cur);
+            for (int i = 0; i < declared.length; i++)    // every variable starts undef
+                if (declared[i].element() == null && vars.get(p.decpart.get(i).v) == i)
+                    write(i, cur, ssa.add(cur, UNDEF, 0, typeIndex(declared[i]), 0, 0));
+            statement(p.body);
+            ssa.exit = cur;
+            ssa.results = new int[declared.length];
+            for (int i = 0; i < declared.length; i++)
+                ssa.results[i] = declared[i].element() != null ? -1
+                                 : read(vars.get(p.decpart.get(i).v), cur);
+        }
+
+        int block ( ) {
+            int bl = ssa.newBlock();
+            defs.add(null);
+            incomplete.add(null);
+            if (bl == sealed.length)
+                sealed = Arrays.copyOf(sealed, bl * 2);
+            return bl;
+        }
+
+        // variable -> value of one block, open addressing on int arrays;
+        // a block defines few of the variables
+        private static final class Defs {
+            int[ ] vars = new int[4], values = new int[4];  // vars: variable + 1, 0 if free
+            int count = 0;
+
+            private int slot (int var) {
+                int mask = vars.length - 1, i = (var * 0x9e3779b1 >>> 16) & mask;
+                while (vars[i] != 0 && vars[i] != var + 1)
+                    i = (i + 1) & mask;
+                return i;
+            }
+
+            int get (int var) { // -1 if absent
+                int i = slot(var);
+                return vars[i] != 0 ? values[i] : -1;
+            }
+
+            void put (int var, int value) {
+                int i = slot(var);
+                if (vars[i] == 0) {
+                    if (2 * (count + 1) > vars.length) {    // keep it at most half full
+                        int[ ] v = vars, x = values;
+                        vars = new int[2 * v.length];
+                        values = new int[2 * v.length];
+                        count = 0;
+                        for (int j = 0; j < v.length; j++)
+                            if (v[j] != 0)
+                                put(v[j] - 1, x[j]);
+                        i = slot(var);
+                    }
+                    vars[i] = var + 1;
+                    count++;
+                }
+                values[i] = value;
+            }
+        }
+
+        // a phi whose operands are being read, from pred next on
+        private static final class Pending {
+            final int phi;
+            final int[ ] values;
+            int next = 0;
+
+            Pending (int phi, int n) { this.phi = phi; values = new int[n]; }
+        }
+
+        void write (int var, int bl, int value) {
+            Defs d = defs.get(bl);
+            if (d == null)
+                defs.set(bl, d = new Defs());
+            d.put(var, value);
+        }
+
+        int def (int var, int bl) { // -1 if bl does not define var
+            Defs d = defs.get(bl);
+            return d == null ? -1 : d.get(var);
+        }
+
+        int read (int var, int bl) {
+            int v = def(var, bl);
+            return v >= 0 ? v : complete(var, lookup(var, bl));
+        }
+
+        // The value of var at the end of bl, which does not define it:
+        // up through blocks with one predecessor to a definition, an
+        // incomplete phi in an unsealed block, or a new phi at a merge,
+        // left pending.  Every block passed on the way gets the value.
+        int lookup (int var, int bl) {
+            int from = bl, v;
+            while ((v = def(var, bl)) < 0 && sealed[bl] && ssa.predCount[bl] == 1)
+                bl = ssa.preds[bl][0];
+            if (v < 0) {
+                v = ssa.add(bl, PHI, 0, typeIndex(declared[var]), 0, 0);
+                if (!sealed[bl]) {
+                    if (incomplete.get(bl) == null)
+                        incomplete.set(bl, new HashMap<Integer, Integer>());
+                    incomplete.get(bl).put(var, v);
+                } else
+                    pending.push(new Pending(v, ssa.predCount[bl]));
+                write(var, bl, v);      // breaks cycles through the loop
+            }
+            for (; from != bl; from = ssa.preds[from][0])
+                write(var, from, v);
+            return v;
+        }
+
+        // reads the operands of the pending phis, depth first; returns v
+        int complete (int var, int v) {
+            while (!pending.isEmpty()) {
+                Pending p = pending.peek();
+                int bl = ssa.block[p.phi];
+                if (p.next == p.values.length) {
+                    ssa.operands(p.phi, p.values, p.values.length);
+                    pending.pop();
+                    continue;
+                }
+                int pred = ssa.preds[bl][p.next], w = def(var, pred);
+                p.values[p.next++] = w >= 0 ? w : lookup(var, pred);
+            }
+            return v;
+        }
+
+        void phiOperands (int var, int phi) {
+            pending.push(new Pending(phi, ssa.predCount[ssa.block[phi]]));
+            complete(var, phi);
+        }
+
+        void seal (int bl) {
+            HashMap<Integer, Integer> phis = incomplete.get(bl);
+            if (phis != null)
+                for (Map.Entry<Integer, Integer> e : phis.entrySet())
+                    phiOperands(e.getKey(), e.getValue());
+            incomplete.set(bl, null);
+            sealed[bl] = true;
+        }
+
+        void statement (Statement s) {
+            if (s instanceof Assignment) {
+                Assignment as = (Assignment)s;
+                int var = vars.get(as.target);
+                Type t = declared[var];
+                if (as.element != null) {
+                    int index = expression(as.element.index);
+                    int value = convert(expression(as.source), t.element());
+                    ssa.add(cur, STORE, var, typeIndex(t.element()), index, value);
+                } else {
+                    int value = convert(expression(as.source), t);  // && and || move cur
+                    write(var, cur, value);
+                }
+            } else if (s instanceof Block) {
+                for (Statement m : ((Block)s).members)
+                    statement(m);
+            } else if (s instanceof Conditional) {
+                Conditional c = (Conditional)s;
+                int test = expression(c.test), from = cur;
+                int then = block(), otherwise = block();
+                ssa.branch(from, test, then, otherwise);
+                seal(then);
+                seal(otherwise);
+                cur = then;
+                statement(c.thenbranch);
+                int thenEnd = cur;
+                cur = otherwise;
+                statement(c.elsebranch);
+                int join = block();
+                ssa.jump(thenEnd, join);
+                ssa.jump(cur, join);
+                seal(join);
+                cur = join;
+            } else if (s instanceof Loop) {
+                Loop l = (Loop)s;
+                int header = block();
+                ssa.jump(cur, header);
+                cur = header;
+                int test = expression(l.test);
+                int body = block(), after = block();
+                ssa.branch(cur, test, body, after);
+                seal(body);
+                seal(after);
+                cur = body;
+                statement(l.body);
+                ssa.jump(cur, header);
+                seal(header);
+                cur = after;
+            }
+            // Skip: nothing
+        }
+
+        // v as a value of type t, as Semantics stores it
+        int convert (int v, Type t) {
+            Type from = TYPES[ssa.type[v]];
+            if (t == Type.FLOAT && from != Type.FLOAT)
+                return unary(Operator.I2F, Type.FLOAT, v);
+            if (t == Type.INT && from == Type.CHAR)
+                return unary(Operator.C2I, Type.INT, v);
+            return v;
+        }
+
+        int unary (Operator o, Type t, int v) {
+            return ssa.add(cur, UNARY, o.ordinal(), typeIndex(t), v, 0);
+        }
+
+        int expression (Expression e) {
+            if (e instanceof Value) {
+                Value v = (Value)e;
+                int t = typeIndex(v.type());
+                if (v.isUndef())
+                    return ssa.add(cur, UNDEF, 0, t, 0, 0);
+                return ssa.add(cur, CONST, 0, t, bits(v), 0);
+            }
+            if (e instanceof Variable)
+                return read(vars.get(e), cur);
+            if (e instanceof ArrayRef) {
+                ArrayRef r = (ArrayRef)e;
+                int var = vars.get(r.array);
+                int index = expression(r.index);
+                return ssa.add(cur, LOAD, var, typeIndex(declared[var].element()),
+                               index, r.checked ? 1 : 0);
+            }
+            if (e instanceof Unary) {
+                Unary u = (Unary)e;
+                int v = expression(u.term);
+                Type t = TYPES[ssa.type[v]];
+                if (u.op == Operator.NOT)
+                    return unary(Operator.NOT, Type.BOOL, v);
+                if (u.op.NegateOp( ))
+                    return t == Type.FLOAT ? unary(Operator.FLOAT_NEG, t, v)
+                                           : unary(Operator.INT_NEG, Type.INT, v);
+                if (u.op == Operator.INT)
+                    return t == Type.FLOAT ? unary(Operator.F2I, Type.INT, v)
+                         : t == Type.INT ? v : unary(Operator.C2I, Type.INT, v);
+                if (u.op == Operator.FLOAT)
+                    return t == Type.FLOAT ? v : unary(Operator.I2F, Type.FLOAT, v);
+                if (u.op == Operator.CHAR)
+                    return t == Type.CHAR ? v : unary(Operator.I2C, Type.CHAR, v);
+                throw new IllegalArgumentException("cannot lower " + u.op);
+            }
+            Binary bi = (Binary)e;
+            if (bi.op.BooleanOp( ))
+                return shortCircuit(bi);
+            int v1 = expression(bi.term1), v2 = expression(bi.term2);
+            boolean real = ssa.type[v1] == typeIndex(Type.FLOAT)
+                        || ssa.type[v2] == typeIndex(Type.FLOAT);
+            if (real) {
+                v1 = convert(v1, Type.FLOAT);
+                v2 = convert(v2, Type.FLOAT);
+            }
+            Operator o = real ? Operator.floatMap(bi.op) : Operator.intMap(bi.op);
+            Type t = bi.op.RelationalOp( ) ? Type.BOOL : real ? Type.FLOAT : Type.INT;
+            return ssa.add(cur, BINARY, o.ordinal(), typeIndex(t), v1, v2);
+        }
+
+        // left && right: the left value if it decides, else the right one
+        int shortCircuit (Binary bi) {
+            int left = expression(bi.term1), from = cur;
+            int right = block(), skip = block(), join = block();
+            if (bi.op == Operator.AND)
+                ssa.branch(from, left, right, skip);
+            else
+                ssa.branch(from, left, skip, right);
+            seal(right);
+            seal(skip);
+            ssa.jump(skip, join);
+            cur = right;
+            int value = expression(bi.term2);
+            ssa.jump(cur, join);
+            seal(join);
+            cur = join;
+            int phi = ssa.add(join, PHI, 0, typeIndex(Type.BOOL), 0, 0);
+            ssa.operands(phi, new int[ ] { left, value }, 2);   // preds: skip, right
+            return phi;
+        }
+    }
+
+    static int bits (Value v) {
+        Type t = v.type();
+        if (t == Type.FLOAT) return Float.floatToRawIntBits(v.floatValue());
+        if (t == Type.CHAR) return v.charValue();
+        if (t == Type.BOOL) return v.boolValue() ? 1 : 0;
+        return v.intValue();
+    }
+
+    static Value value (Type t, int bits) {
+        if (t == Type.FLOAT) return new FloatValue(Float.intBitsToFloat(bits));
+        if (t == Type.CHAR) return CharValue.of((char)bits);
+        if (t == Type.BOOL) return BoolValue.of(bits != 0);
+        return IntValue.of(bits);
+    }
+
+    // ------------------------------------------------------------- passes
+
+    private int[ ] rep;     // value each removed value was replaced by
+
+    private int find (int v) {
+        int r = v;
+        while (rep[r] != r)
+            r = rep[r];
+        while (rep[v] != r) {
+            int next = rep[v];
+            rep[v] = r;
+            v = next;
+        }
+        return r;
+    }
+
+    private void startReplacing ( ) {
+        rep = new int[size];
+        for (int i = 0; i < size; i++)
+            rep[i] = i;
+    }
+
+    // Points every operand at its replacement and drops the replaced
+    // instructions; returns how many were dropped.
+    private int finishReplacing ( ) {
+        int removed = 0;
+        for (int v = 0; v < size; v++) {
+            if (block[v] < 0) continue;
+            if (find(v) != v) {
+                block[v] = -1;
+                removed++;
+            } else if (kind[v] == PHI) {
+                for (int i = a[v]; i < a[v] + b[v]; i++)
+                    list[i] = find(list[i]);
+            } else {
+                int n = operandCount(v);
+                if (n > 0) a[v] = find(a[v]);
+                if (n > 1) b[v] = find(b[v]);
+            }
+        }
+        for (int bl = 0; bl < blocks; bl++)
+            if (cond[bl] >= 0)
+                cond[bl] = find(cond[bl]);
+        for (int i = 0; i < results.length; i++)
+            if (results[i] >= 0)
+                results[i] = find(results[i]);
+        compact();
+        rep = null;
+        return removed;
+    }
+
+    // drops removed instructions from the blocks
+    private void compact ( ) {
+        for (int bl = 0; bl < blocks; bl++) {
+            phiCount[bl] = compact(phis[bl], phiCount[bl]);
+            codeCount[bl] = compact(code[bl], codeCount[bl]);
+        }
+    }
+
+    private int compact (int[ ] insts, int count) {
+        int n = 0;
+        for (int i = 0; i < count; i++)
+            if (block[insts[i]] >= 0)
+                insts[n++] = insts[i];
+        return n;
+    }
+
+    public int copyPropagation ( ) {
+        startReplacing();
+        int[ ][ ] users = new int[size][ ];     // the phis using each value
+        int[ ] userCount = new int[size];
+        ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+        for (int v = 0; v < size; v++) {
+            if (block[v] < 0) continue;
+            if (kind[v] == COPY)
+                rep[v] = a[v];
+            else if (kind[v] == PHI) {
+                for (int i = a[v]; i < a[v] + b[v]; i++) {
+                    int u = list[i];
+                    if (users[u] == null) users[u] = new int[2];
+                    users[u] = push(users[u], userCount[u], v);
+                    userCount[u]++;
+                }
+                work.add(v);
+            }
+        }
+        while (!work.isEmpty()) {
+            int p = work.poll();
+            if (find(p) != p) continue;
+            int same = -1;
+            boolean trivial = true;
+            for (int i = a[p]; i < a[p] + b[p] && trivial; i++) {
+                int x = find(list[i]);
+                if (x == p || x == same) continue;
+                if (same >= 0) trivial = false;
+                same = x;
+            }
+            if (!trivial || same < 0) continue;     // same < 0: only itself, unreachable
+            rep[p] = same;
+            for (int i = 0; i < userCount[p]; i++)
+                work.add(users[p][i]);
+        }
+        return finishReplacing();
+    }
+
+    private static final class Key {
+        final int[ ] fields;
+        final int hash;
+        Key (int... f) { fields = f; hash = Arrays.hashCode(f); }
+        public int hashCode ( ) { return hash; }
+        public boolean equals (Object o) {
+            return o instanceof Key && Arrays.equals(fields, ((Key)o).fields);
+        }
+    }
+
+    private static boolean commutative (Operator o) {
+        switch (o) {
+            case INT_PLUS: case INT_TIMES: case INT_EQ: case INT_NE:
+            case FLOAT_PLUS: case FLOAT_TIMES: case FLOAT_EQ: case FLOAT_NE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // the value-numbering key of v, or null if v is not numbered
+    private Key key (int v) {
+        switch (kind[v]) {
+            case CONST: return new Key(CONST, type[v], a[v]);
+            case UNDEF: return new Key(UNDEF, type[v]);
+            case UNARY: return new Key(UNARY, op[v], find(a[v]));
+            case BINARY: {
+                int x = find(a[v]), y = find(b[v]);
+                if (commutative(OPERATORS[op[v]]) && x > y) { int t = x; x = y; y = t; }
+                return new Key(BINARY, op[v], x, y);
+            }
+            case PHI: {             // equal phis of one block
+                int[ ] f = new int[b[v] + 2];
+                f[0] = PHI;
+                f[1] = block[v];
+                for (int i = 0; i < b[v]; i++)
+                    f[i + 2] = find(list[a[v] + i]);
+                return new Key(f);
+            }
+            default: return null;   // loads and stores touch memory
+        }
+    }
+
+    public int valueNumbering ( ) {
+        startReplacing();
+        int[ ] idom = dominators();
+        int[ ][ ] children = new int[blocks][ ];
+        int[ ] childCount = new int[blocks];
+        for (int bl = 0; bl < blocks; bl++)
+            if (idom[bl] >= 0 && idom[bl] != bl) {
+                int d = idom[bl];
+                if (children[d] == null) children[d] = new int[2];
+                children[d] = push(children[d], childCount[d], bl);
+                childCount[d]++;
+            }
+        HashMap<Key, Integer> table = new HashMap<Key, Integer>();
+        ArrayList<Key> scope = new ArrayList<Key>();    // keys added, innermost last
+        int[ ] stack = new int[blocks * 2];             // block, or ~mark on the way out
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int bl = stack[--top];
+            if (bl < 0) {
+                for (int mark = ~bl; scope.size() > mark; )
+                    table.remove(scope.remove(scope.size() - 1));
+                continue;
+            }
+            stack[top++] = ~scope.size();
+            for (int i = 0; i < phiCount[bl]; i++)
+                number(phis[bl][i], table, scope);
+            for (int i = 0; i < codeCount[bl]; i++)
+                number(code[bl][i], table, scope);
+            for (int i = 0; i < childCount[bl]; i++)
+                stack[top++] = children[bl][i];
+        }
+        return finishReplacing();
+    }
+
+    private void number (int v, HashMap<Key, Integer> table, ArrayList<Key> scope) {
+        Key k = key(v);
+        if (k == null) return;
+        Integer known = table.get(k);
+        if (known != null)
+            rep[v] = known;
+        else {
+            table.put(k, v);
+            scope.add(k);
+        }
+    }
+
+    // v may stop the program (a checked load or a division that can be by
+    // zero) or changes memory, so it stays even if unused
+    private boolean effect (int v) {
+        if (kind[v] == STORE || kind[v] == LOAD && b[v] != 0)
+            return true;
+        if (kind[v] == BINARY && OPERATORS[op[v]] == Operator.INT_DIV)
+            return !(kind[b[v]] == CONST && a[b[v]] != 0);
+        return false;
+    }
+
+    public int deadCode ( ) {
+        boolean[ ] used = new boolean[size];
+        int[ ] work = new int[size];
+        int top = 0;
+        for (int v = 0; v < size; v++)
+            if (block[v] >= 0 && effect(v)) { used[v] = true; work[top++] = v; }
+        for (int bl = 0; bl < blocks; bl++)
+            if (cond[bl] >= 0 && !used[cond[bl]]) { used[cond[bl]] = true; work[top++] = cond[bl]; }
+        for (int r : results)
+            if (r >= 0 && !used[r]) { used[r] = true; work[top++] = r; }
+        while (top > 0) {
+            int v = work[--top];
+            if (kind[v] == PHI) {
+                for (int i = a[v]; i < a[v] + b[v]; i++)
+                    if (!used[list[i]]) { used[list[i]] = true; work[top++] = list[i]; }
+            } else
+                for (int i = 0; i < operandCount(v); i++) {
+                    int u = operand(v, i);
+                    if (!used[u]) { used[u] = true; work[top++] = u; }
+                }
+        }
+        int removed = 0;
+        for (int v = 0; v < size; v++)
+            if (block[v] >= 0 && !used[v]) {
+                block[v] = -1;
+                removed++;
+            }
+        compact();
+        return removed;
+    }
+
+    public void optimize ( ) {
+        copyPropagation();
+        valueNumbering();
+        copyPropagation();      // phis that became trivial
+        deadCode();
+    }
+
+    // ---------------------------------------------------------- dominators
+
+    // reverse postorder from the entry block
+    int[ ] order ( ) {
+        int[ ] order = new int[blocks], stack = new int[blocks * 2];
+        boolean[ ] seen = new boolean[blocks];
+        int n = blocks, top = 0;
+        stack[top++] = 0;
+        seen[0] = true;
+        while (top > 0) {
+            int bl = stack[--top];
+            if (bl < 0) {
+                order[--n] = ~bl;
+                continue;
+            }
+            stack[top++] = ~bl;
+            for (int s : new int[ ] { succ2[bl], succ1[bl] })
+                if (s >= 0 && !seen[s]) {
+                    seen[s] = true;
+                    stack[top++] = s;
+                }
+        }
+        return Arrays.copyOfRange(order, n, blocks);
+    }
+
+    // Immediate dominator of each block (the entry its own, -1 if
+    // unreachable): Cooper, Harvey and Kennedy, A Simple, Fast Dominance
+    // Algorithm, iterated over reverse postorder.
+    int[ ] dominators ( ) {
+        int[ ] rpo = order(), number = new int[blocks], idom = new int[blocks];
+        Arrays.fill(number, -1);
+        Arrays.fill(idom, -1);
+        for (int i = 0; i < rpo.length; i++)
+            number[rpo[i]] = i;
+        idom[0] = 0;
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (int i = 1; i < rpo.length; i++) {
+                int bl = rpo[i], d = -1;
+                for (int j = 0; j < predCount[bl]; j++) {
+                    int p = preds[bl][j];
+                    if (idom[p] < 0) continue;
+                    d = d < 0 ? p : intersect(p, d, idom, number);
+                }
+                if (idom[bl] != d) {
+                    idom[bl] = d;
+                    changed = true;
+                }
+            }
+        }
+        return idom;
+    }
+
+    private static int intersect (int x, int y, int[ ] idom, int[ ] number) {
+        while (x != y) {
+            while (number[x] > number[y]) x = idom[x];
+            while (number[y] > number[x]) y = idom[y];
+        }
+        return x;
+    }
+
+    private static boolean dominates (int d, int bl, int[ ] idom) {
+        while (bl != d) {
+            if (idom[bl] == bl || idom[bl] < 0) return false;
+            bl = idom[bl];
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------ verifier
+
+    // the ways the graph is not well formed SSA; empty if it is
+    public List<String> verify ( ) {
+        ArrayList<String> errors = new ArrayList<String>();
+        int[ ] idom = dominators(), position = new int[size];
+        int[ ] seen = new int[size];
+        for (int bl = 0; bl < blocks; bl++) {
+            if (idom[bl] < 0)
+                errors.add("b" + bl + " is unreachable");
+            int[ ] succs = { succ1[bl], succ2[bl] };
+            if ((succ1[bl] < 0) != (bl == exit))
+                errors.add("b" + bl + (bl == exit ? ": the exit has a successor" : " has no successor"));
+            if ((cond[bl] >= 0) != (succ2[bl] >= 0))
+                errors.add("b" + bl + ": a branch needs a condition and two successors");
+            for (int s : succs) {
+                if (s < 0) continue;
+                int n = 0;
+                for (int j = 0; j < predCount[s]; j++)
+                    if (preds[s][j] == bl) n++;
+                if (n != (succs[0] == succs[1] ? 2 : 1))
+                    errors.add("b" + bl + " -> b" + s + " is not among the predecessors of b" + s);
+                if (succ2[bl] >= 0 && predCount[s] > 1)
+                    errors.add("b" + bl + " -> b" + s + " is a critical edge");
+            }
+            for (int j = 0; j < predCount[bl]; j++) {
+                int p = preds[bl][j];
+                if (succ1[p] != bl && succ2[p] != bl)
+                    errors.add("b" + p + " is a predecessor of b" + bl + " without an edge");
+            }
+            for (int i = 0; i < phiCount[bl] + codeCount[bl]; i++) {
+                int v = i < phiCount[bl] ? phis[bl][i] : code[bl][i - phiCount[bl]];
+                if (seen[v]++ > 0)
+                    errors.add("v" + v + " is placed twice");
+                if (block[v] != bl)
+                    errors.add("v" + v + " is in b" + bl + " but says b" + block[v]);
+                if ((kind[v] == PHI) != (i < phiCount[bl]))
+                    errors.add("v" + v + ": phis come first, and only phis");
+                position[v] = i;
+            }
+        }
+        for (int v = 0; v < size; v++)
+            if (block[v] >= 0 && seen[v] == 0)
+                errors.add("v" + v + " is in no block");
+        for (int v = 0; v < size; v++) {
+            if (block[v] < 0 || idom[block[v]] < 0) continue;
+            if (kind[v] == PHI) {
+                int bl = block[v];
+                if (b[v] != predCount[bl])
+                    errors.add("v" + v + " has " + b[v] + " operands for " + predCount[bl] + " predecessors");
+                for (int j = 0; j < b[v] && j < predCount[bl]; j++) {
+                    int u = list[a[v] + j];
+                    if (!live(u))
+                        errors.add("v" + v + " uses v" + u + ", which is not defined");
+                    else {
+                        if (!dominates(block[u], preds[bl][j], idom))
+                            errors.add("v" + v + ": v" + u + " does not reach it from b" + preds[bl][j]);
+                        if (type[u] != type[v])
+                            errors.add("v" + v + ": operand v" + u + " is " + TYPES[type[u]]);
+                    }
+                }
+                continue;
+            }
+            for (int i = 0; i < operandCount(v); i++) {
+                int u = operand(v, i);
+                if (!live(u))
+                    errors.add("v" + v + " uses v" + u + ", which is not defined");
+                else if (block[u] == block[v] ? position[u] >= position[v]
+                                              : !dominates(block[u], block[v], idom))
+                    errors.add("v" + v + ": v" + u + " does not dominate it");
+            }
+            errors.addAll(types(v));
+        }
+        for (int bl = 0; bl < blocks; bl++)
+            if (cond[bl] >= 0 && (!live(cond[bl]) || TYPES[type[cond[bl]]] != Type.BOOL
+                                  || !dominates(block[cond[bl]], bl, idom)))
+                errors.add("b" + bl + ": the condition v" + cond[bl] + " is not a bool reaching it");
+        for (int i = 0; i < results.length; i++)
+            if (results[i] >= 0 && (!live(results[i]) || !dominates(block[results[i]], exit, idom)))
+                errors.add("the result for " + decpart.get(i).v + ", v" + results[i] + ", does not reach the exit");
+        return errors;
+    }
+
+    private List<String> types (int v) {
+        Type t = TYPES[type[v]];
+        boolean ok = true;
+        if (kind[v] == BINARY) {
+            Operator o = OPERATORS[op[v]];
+            boolean real = o.operandType() == Type.FLOAT;
+            Type t1 = TYPES[type[a[v]]], t2 = TYPES[type[b[v]]];
+            ok = (t1 == Type.FLOAT) == real && (t2 == Type.FLOAT) == real
+                && t == (o.RelationalOp( ) ? Type.BOOL : real ? Type.FLOAT : Type.INT);
+        } else if (kind[v] == UNARY) {
+            Operator o = OPERATORS[op[v]];
+            Type from = TYPES[type[a[v]]];
+            if (o == Operator.I2F) ok = from != Type.FLOAT && t == Type.FLOAT;
+            else if (o == Operator.F2I) ok = from == Type.FLOAT && t == Type.INT;
+            else if (o == Operator.FLOAT_NEG) ok = from == Type.FLOAT && t == from;
+            else if (o == Operator.NOT) ok = from == Type.BOOL && t == from;
+            else ok = from != Type.FLOAT;
+        } else if (kind[v] == LOAD || kind[v] == STORE) {
+            Type element = decpart.get(op[v]).t.element();
+            ok = element == t && TYPES[type[a[v]]] != Type.FLOAT
+                && (kind[v] == LOAD || TYPES[type[b[v]]] == t);
+        } else if (kind[v] == COPY)
+            ok = type[a[v]] == type[v];
+        if (ok) return Collections.emptyList();
+        return Collections.singletonList("v" + v + ": " + line(v) + " is mistyped");
+    }
+
+    // --------------------------------------------------------------- dump
+
+    public String dump ( ) {
+        StringBuilder sb = new StringBuilder();
+        for (int bl : order()) {
+            sb.append("b").append(bl).append(":");
+            if (predCount[bl] > 0) {
+                sb.append("  <-");
+                for (int j = 0; j < predCount[bl]; j++)
+                    sb.append(" b").append(preds[bl][j]);
+            }
+            sb.append("\n");
+            for (int i = 0; i < phiCount[bl]; i++)
+                sb.append("    ").append(line(phis[bl][i])).append("\n");
+            for (int i = 0; i < codeCount[bl]; i++)
+                sb.append("    ").append(line(code[bl][i])).append("\n");
+            sb.append("    ");
+            if (bl == exit) {
+                sb.append("return");
+                for (int i = 0; i < results.length; i++)
+                    if (results[i] >= 0)
+                        sb.append(" ").append(decpart.get(i).v).append("=v").append(results[i]);
+            } else if (cond[bl] >= 0)
+                sb.append("if v").append(cond[bl]).append(" goto b").append(succ1[bl])
+                  .append(" else b").append(succ2[bl]);
+            else
+                sb.append("goto b").append(succ1[bl]);
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    String line (int v) {
+        String lhs = "v" + v + " " + TYPES[type[v]] + " = ";
+        String array = kind[v] == LOAD || kind[v] == STORE ? decpart.get(op[v]).v.toString() : null;
+        switch (kind[v]) {
+            case CONST: return lhs + value(TYPES[type[v]], a[v]);
+            case UNDEF: return lhs + "undef";
+            case COPY: return lhs + "v" + a[v];
+            case PHI: {
+                StringBuilder sb = new StringBuilder(lhs + "phi(");
+                for (int i = 0; i < b[v]; i++)
+                    sb.append(i > 0 ? ", v" : "v").append(list[a[v] + i]);
+                return sb.append(")").toString();
+            }
+            case BINARY: return lhs + "v" + a[v] + " " + OPERATORS[op[v]] + " v" + b[v];
+            case UNARY: {
+                Operator o = OPERATORS[op[v]];
+                return lhs + (o.NegateOp( ) ? "-" : o.val) + (o == Operator.NOT || o.NegateOp( )
+                                                             ? "v" + a[v] : "(v" + a[v] + ")");
+            }
+            case LOAD: return lhs + array + "[v" + a[v] + "]" + (b[v] != 0 ? "" : " unchecked");
+            default: return array + "[v" + a[v] + "] = v" + b[v];
+        }
+    }
+
+    public int instructions ( ) {
+        int n = 0;
+        for (int bl = 0; bl < blocks; bl++)
+            n += phiCount[bl] + codeCount[bl];
+        return n;
+    }
+
+    // ------------------------------------------------------------- runner
+
+    // runs the graph from undef variables and zeroed arrays; the final
+    // State, as Semantics would leave it
+    public State run ( ) {
+        int[ ] values = new int[size];
+        boolean[ ] defined = new boolean[size];
+        ArrayValue[ ] arrays = new ArrayValue[decpart.size()];
+        for (int i = 0; i < arrays.length; i++) {
+            Declaration d = decpart.get(i);
+            if (d.t.element() != null)
+                arrays[i] = new ArrayValue(d.t, d.size);
+        }
+        int[ ] incoming = new int[16];
+        boolean[ ] incomingDefined = new boolean[16];
+        int bl = 0, from = -1;
+        while (true) {
+            if (phiCount[bl] > 0) {     // all phis read before any is written
+                int j = 0;
+                while (preds[bl][j] != from) j++;
+                if (incoming.length < phiCount[bl]) {
+                    incoming = new int[phiCount[bl]];
+                    incomingDefined = new boolean[phiCount[bl]];
+                }
+                for (int i = 0; i < phiCount[bl]; i++) {
+                    int u = list[a[phis[bl][i]] + j];
+                    incoming[i] = values[u];
+                    incomingDefined[i] = defined[u];
+                }
+                for (int i = 0; i < phiCount[bl]; i++) {
+                    values[phis[bl][i]] = incoming[i];
+                    defined[phis[bl][i]] = incomingDefined[i];
+                }
+            }
+            for (int i = 0; i < codeCount[bl]; i++) {
+                int v = code[bl][i];
+                defined[v] = true;
+                switch (kind[v]) {
+                    case CONST: values[v] = a[v]; break;
+                    case UNDEF: defined[v] = false; break;
+                    case COPY: values[v] = values[a[v]]; defined[v] = defined[a[v]]; break;
+                    case BINARY: values[v] = binary(OPERATORS[op[v]], values[a[v]], values[b[v]]); break;
+                    case UNARY: values[v] = unary(OPERATORS[op[v]], values[a[v]]); break;
+                    case LOAD: {
+                        ArrayValue array = arrays[op[v]];
+                        int index = values[a[v]];
+                        if (b[v] != 0)
+                            array.check(index);
+                        values[v] = TYPES[type[v]] == Type.FLOAT
+                            ? Float.floatToRawIntBits(array.getFloat(index)) : array.getInt(index);
+                        break;
+                    }
+                    default: {
+                        ArrayValue array = arrays[op[v]];
+                        int index = values[a[v]];
+                        array.check(index);
+                        if (TYPES[type[v]] == Type.FLOAT)
+                            array.setFloat(index, Float.intBitsToFloat(values[b[v]]));
+                        else
+                            array.setInt(index, values[b[v]]);
+                    }
+                }
+            }
+            if (bl == exit)
+                break;
+            from = bl;
+            bl = cond[bl] >= 0 && values[cond[bl]] == 0 ? succ2[bl] : succ1[bl];
+        }
+        State state = new State();
+        for (int i = 0; i < results.length; i++) {
+            Declaration d = decpart.get(i);
+            if (results[i] < 0)
+                state.put(d.v, arrays[i]);
+            else
+                state.put(d.v, defined[results[i]] ? value(d.t, values[results[i]])
+                                                   : Value.mkValue(d.t));
+        }
+        return state;
+    }
+
+    static int binary (Operator o, int x, int y) {
+        float f = Float.intBitsToFloat(x), g = Float.intBitsToFloat(y);
+        switch (o) {
+            case INT_PLUS: return x + y;
+            case INT_MINUS: return x - y;
+            case INT_TIMES: return x * y;
+            case INT_DIV: return x / y;
+            case FLOAT_PLUS: return Float.floatToRawIntBits(f + g);
+            case FLOAT_MINUS: return Float.floatToRawIntBits(f - g);
+            case FLOAT_TIMES: return Float.floatToRawIntBits(f * g);
+            case FLOAT_DIV: return Float.floatToRawIntBits(f / g);
+            case INT_LT: return x < y ? 1 : 0;
+            case INT_LE: return x <= y ? 1 : 0;
+            case INT_EQ: return x == y ? 1 : 0;
+            case INT_NE: return x != y ? 1 : 0;
+            case INT_GT: return x > y ? 1 : 0;
+            case INT_GE: return x >= y ? 1 : 0;
+            case FLOAT_LT: return f < g ? 1 : 0;
+            case FLOAT_LE: return f <= g ? 1 : 0;
+            case FLOAT_EQ: return f == g ? 1 : 0;
+            case FLOAT_NE: return f != g ? 1 : 0;
+            case FLOAT_GT: return f > g ? 1 : 0;
+            case FLOAT_GE: return f >= g ? 1 : 0;
+            default: throw new IllegalArgumentException("should never reach here");
+        }
+    }
+
+    static int unary (Operator o, int x) {
+        switch (o) {
+            case NOT: return x == 0 ? 1 : 0;
+            case INT_NEG: return -x;
+            case FLOAT_NEG: return Float.floatToRawIntBits(-Float.intBitsToFloat(x));
+            case I2F: return Float.floatToRawIntBits((float)x);
+            case F2I: return (int)Float.intBitsToFloat(x);
+            case I2C: return (char)x;
+            case C2I: return x;
+            default: throw new IllegalArgumentException("should never reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------- main
+
+    static void compare (Program p, State expected, State actual, String what) {
+        for (Declaration d : p.decpart)
+            StaticTypeCheck.check(("" + expected.get(d.v)).equals("" + actual.get(d.v)),
+                   what + " differs at " + d.v + ": " + expected.get(d.v) + " != " + actual.get(d.v));
+    }
+
+    static void verified (Ssa ssa, String what) {
+        List<String> errors = ssa.verify();
+        if (!errors.isEmpty())
+            throw new IllegalStateException(what + ": " + errors);
+    }
+
+    public static void main (String args[]) {
+        if (args.length > 0 && !args[0].matches("\\d+")) {
+            Program prog = new Parser(new Lexer(args[0])).program();
+            StaticTypeCheck.V(prog);
+            Ssa ssa = lower(prog);
+            verified(ssa, "lowered");
+            State expected = new Semantics().M(prog);
+            compare(prog, expected, ssa.run(), "lowered graph");
+            int before = ssa.instructions();
+            int copies = ssa.copyPropagation(), numbered = ssa.valueNumbering();
+            copies += ssa.copyPropagation();
+            int dead = ssa.deadCode();
+            verified(ssa, "optimized");
+            compare(prog, expected, ssa.run(), "optimized graph");
+            System.out.print(ssa.dump());
+            System.out.println(ssa.blocks + " blocks, " + before + " -> " + ssa.instructions()
+                               + " instructions: " + copies + " copies and phis, " + numbered
+                               + " value numbered, " + dead + " dead");
+            System.out.print("Final State: ");
+            expected.display();
+            return;
+        }
+        int loops = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        for (int round = 0; round < 5; round++)
+            for (int n = loops / 4; n <= loops; n *= 2) {
+                Program prog = new Parser(new SourceLexer(
+                    Outline.generate(n).getBytes(StandardCharsets.US_ASCII), 0)).program();
+                long t0 = System.nanoTime();
+                Ssa ssa = lower(prog);
+                long t1 = System.nanoTime();
+                int before = ssa.instructions();
+                ssa.optimize();
+                long t2 = System.nanoTime();
+                if (round == 0)
+                    verified(ssa, "generated");
+                System.out.printf("round %d: %d loops, %d -> %d instructions, lower %.2f ms,"
+                                  + " passes %.2f ms (%.0f ns/instruction)%n", round, n, before,
+                                  ssa.instructions(), (t1 - t0) / 1e6, (t2 - t1) / 1e6,
+                                  (double)(t2 - t1) / before);
+            }
+    } // main
+
+} // class Ssa
@@ -0,0 +1,174 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Execution profiler for C++Lite programs.  Every executed Statement is
+// a frame named after its kind and source line (while@12, if@14,
+// block@12, x=@15, skip@9), and time is aggregated per nesting path in
+// a calling-context tree, written in the collapsed-stack format that
+// flame graph tools read:
+//     main;block@7;while@12;block@12;if@14;x=@15 840
+// Two modes, which can be switched while the program runs:
+//  - COUNT  measures the self time of every statement in microseconds;
+//           exact, but costs two System.nanoTime calls per statement
+//  - SAMPLE a daemon thread looks at the current path every interval
+//           and counts samples; the interpreter only moves a pointer,
+//           so the overhead is bounded whatever the program does
+// OFF costs one volatile read per statement.  A statement entered
+// while the profiler was off is not a frame, so switching on in the
+// middle of a run attributes time to paths starting at that point.
+
+public class StatementProfiler extends Semantics {
+
+    enum Mode { OFF, COUNT, SAMPLE }
+
+    static final class Path {
+        final String frame;
+        private final IdentityHashMap<Statement, Path> children = new IdentityHashMap<Statement, Path>();
+        private Statement lastKey;
+        private Path lastChild;
+        long nanos;             // total time in COUNT mode
+        long samples;           // written by the sampler thread only
+
+        Path (String frame) { this.frame = frame; }
+
+        Path child (Statement s) {
+            if (s == lastKey) return lastChild;
+            Path p = children.get(s);
+            if (p == null) {
+                p = new Path(frame(s));
+                children.put(s, p);
+            }
+            lastKey = s;
+            lastChild = p;
+            return p;
+        }
+    }
+
+    static String frame (Statement s) {
+        String kind;
+        if (s instanceof Loop) kind = "while";
+        else if (s instanceof Conditional) kind = "if";
+        else if (s instanceof Block) kind = "block";
+        else if (s instanceof Assignment) kind = ((Assignment)s).target + "=";
+        else kind = "skip";
+        return kind + "@" + s.line;
+    }
+
+    private volatile Mode mode;
+    private final Path root = new Path("main");
+    private final AtomicReference<Path> current = new AtomicReference<Path>(root);
+    private final long intervalMicros;
+    private Thread sampler;
+
+    public StatementProfiler (Mode m, long intervalMicros) {
+        this.intervalMicros = intervalMicros;
+        setMode(m);
+    }
+
+    // may be called from any thread while the program runs
+    public synchronized void setMode (Mode m) {
+        mode = m;
+        if (m == Mode.SAMPLE && sampler == null) {
+            sampler = new Thread(this::sample, "statement sampler");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+    }
+
+    public Mode mode ( ) { return mode; }
+
+    private void sample ( ) {
+        while (true) {
+            try {
+                Thread.sleep(intervalMicros / 1000, (int)(intervalMicros % 1000) * 1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (mode == Mode.SAMPLE)
+                current.get().samples++;
+        }
+    }
+
+    public synchronized void stop ( ) {
+        if (sampler != null) {
+            sampler.interrupt();
+            try {
+                sampler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sampler = null;
+        }
+        mode = Mode.OFF;
+    }
+
+    State M (Program p) {
+        return M ((Statement)p.body, initialState(p.decpart));
+    }
+
+    State M (Statement s, State state) {
+        Mode m = mode;
+        if (m == Mode.OFF)
+            return super.M(s, state);
+        Path outer = current.get();
+        Path path = outer.child(s);
+        current.lazySet(path);
+        try {
+            if (m != Mode.COUNT)
+                return super.M(s, state);
+            long t0 = System.nanoTime();
+            try {
+                return super.M(s, state);
+            } finally {
+                path.nanos += System.nanoTime() - t0;
+            }
+        } finally {
+            current.lazySet(outer);
+        }
+    }
+
+    // one collapsed stack per path with a nonzero value: self time in
+    // microseconds, or samples
+    public void write (PrintStream out, boolean samples) {
+        write(out, root, "main", samples);
+    }
+
+    private void write (PrintStream out, Path p, String stack, boolean samples) {
+        long value = samples ? p.samples : p.nanos;
+        if (!samples)
+            for (Path c : p.children.values())
+                value -= c.nanos;
+        if (!samples) value /= 1000;
+        if (p != root && value > 0)
+            out.println(stack + " " + value);
+        for (Path c : p.children.values())
+            write(out, c, stack + ";" + c.frame, samples);
+    }
+
+    public static void main(String args[]) {
+        // java StatementProfiler [count | sample] prog.c [out.folded]
+        Mode m = Mode.valueOf(args[0].toUpperCase());
+        Program prog = new Parser(new Lexer(args[1])).program();
+        StaticTypeCheck.V(prog);
+        StatementProfiler profiler = new StatementProfiler(m, 1000);
+        long t0 = System.nanoTime();
+        State state = profiler.M(prog);
+        long t1 = System.nanoTime();
+        profiler.stop();
+        PrintStream out = System.out;
+        if (args.length > 2)
+            try {
+                out = new PrintStream(new FileOutputStream(args[2]));
+            } catch (FileNotFoundException e) {
+                System.out.println("Cannot write " + args[2]);
+                System.exit(1);
+            }
+        profiler.write(out, m == Mode.SAMPLE);
+        out.flush();
+        System.err.print("Final State: ");
+        System.err.println(state.entrySet());
+        System.err.printf("run time %.1f ms%n", (t1 - t0) / 1e6);
+    } //main
+
+} // class StatementProfiler
@@ -1,8 +1,17 @@
 import java.util.*;
+import java.util.concurrent.*;
 
 // Static type checking for Clite is defined by the functions
 // V and the auxiliary functions typing and typeOf.  These
 // functions use the classes in the Abstract Syntax of Clite.
+// V(Program, pool) is a second mode that keeps going after an error:
+// it checks the members of large Blocks as fork-join tasks against the
+// (by then read-only) TypeMap and returns every diagnostic in source order.
+// Both run DefiniteAssignment afterwards, which proves the reads that
+// follow an assignment, into p.proven, and reports the others.  Those
+// come back as "warning: " diagnostics: V(Program) returns only them,
+// and V(Program, pool) adds them after the errors.  Neither prints
+// anything.
 
 
 public class StaticTypeCheck {
@@ -22,6 +31,9 @@ public class StaticTypeCheck {
     }
 
     public static void V (Declarations d) {
+        for (Declaration di : d)
+            check( di.t.element() == null || di.size > 0,
+                   "array size must be positive: " + di.v);
         for (int i=0; i<d.size() - 1; i++)
             for (int j=i+1; j<d.size(); j++) {
                 Declaration di = d.get(i);
@@ -31,53 +43,230 @@ public class StaticTypeCheck {
             }
     }
 
-    public static void V (Program p) {
+    // V(Declarations) that adds a diagnostic per failing declaration
+    private static void V (Declarations d, List<String> diagnostics) {
+        for (int j = 0; j < d.size(); j++) {
+            Declaration dj = d.get(j);
+            if (dj.t.element() != null && dj.size <= 0)
+                diagnostics.add("array size must be positive: " + dj.v);
+            for (int i = 0; i < j; i++)
+                if (d.get(i).v.equals(dj.v)) {
+                    diagnostics.add("duplicate declaration: " + dj.v);
+                    break;
+                }
+        }
+    }
+
+    public static List<String> V (Program p) { // exits on an error; returns the warnings
+        long started = System.nanoTime();
+        PhaseEvents.TypeCheck event = new PhaseEvents.TypeCheck();
+        event.begin();
         V (p.decpart);
         V (p.body, typing (p.decpart));
+        List<String> warnings = warnings(p);
+        finish(event, started, p, false);
+        return warnings;
+    }
+
+    // DefiniteAssignment's reports, which are not errors; its proof goes to p.proven
+    private static List<String> warnings (Program p) {
+        List<String> unproven = new ArrayList<String>(), warnings = new ArrayList<String>();
+        p.proven = DefiniteAssignment.analyze(p, unproven);
+        for (String d : unproven)
+            warnings.add("warning: " + d);
+        return warnings;
+    }
+
+    private static void finish (PhaseEvents.TypeCheck event, long started,
+                                Program p, boolean parallel) {
+        Metrics.time(Metrics.TYPE_CHECK, started);
+        event.end();
+        if (event.shouldCommit()) {
+            event.variables = p.decpart.size();
+            event.statements = PhaseEvents.statements(p.body);
+            event.parallel = parallel;
+            event.commit();
+        }
+    }
+
+    static final int THRESHOLD = 1024;  // Block members checked by one task
+
+    // Diagnostics of p in source order, one per failing statement, then
+    // the warnings; the members of every Block with more than THRESHOLD
+    // members are checked in parallel on pool, or sequentially when pool
+    // is null.
+    public static List<String> V (Program p, ForkJoinPool pool) {
+        long started = System.nanoTime();
+        PhaseEvents.TypeCheck event = new PhaseEvents.TypeCheck();
+        event.begin();
+        Checker checker = new Checker(typing (p.decpart), new ArrayList<String>(), pool);
+        V (p.decpart, checker.diagnostics);
+        checker.statement(p.body);
+        checker.diagnostics.addAll(warnings(p));
+        finish(event, started, p, pool != null);
+        return checker.diagnostics;
+    }
+
+    // a failed check while collecting diagnostics; abandons the statement
+    private static class Failure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        Failure (String msg) { super(msg, null, false, false); }
+    }
+
+    // checks members[from, to) of a Block, splitting while above THRESHOLD;
+    // the halves' diagnostics are joined left before right
+    private static class Members extends RecursiveTask<List<String>> {
+        private static final long serialVersionUID = 1L;
+        private final Checker parent;
+        private final List<Statement> members;
+        private final int from, to;
+
+        Members (Checker parent, List<Statement> members, int from, int to) {
+            this.parent = parent; this.members = members; this.from = from; this.to = to;
+        }
+
+        protected List<String> compute ( ) {
+            if (to - from > THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                Members left = new Members(parent, members, from, mid);
+                left.fork();
+                List<String> right = new Members(parent, members, mid, to).compute();
+                List<String> result = left.join();
+                result.addAll(right);
+                return result;
+            }
+            Checker checker = new Checker(parent.tm, new ArrayList<String>(), parent.pool);
+            for (int i = from; i < to; i++)
+                checker.statement(members.get(i));
+            return checker.diagnostics;
+        }
     }
 
     public static Type typeOf (Expression e, TypeMap tm) { // tm = TypeMap which is a tuple (v, k)
-        if (e instanceof Value) return ((Value)e).type;
-        if (e instanceof Variable) {
-            Variable v = (Variable)e; // containsKey is a hashMap method which takes an object and returns a bool
+        return e.accept(typeOf(tm));
+    }
+
+    // the visitor typeOf uses, for a caller typing many Expressions against tm
+    public static ExpressionVisitor<Type> typeOf (TypeMap tm) {
+        return new TypeOf(tm);
+    }
+
+    public static void V (Expression e, TypeMap tm) {
+        e.accept(new Checker(tm));
+    }
+
+    public static void V (Statement s, TypeMap tm) {
+        if ( s == null )
+            throw new IllegalArgumentException( "AST error: null statement");
+        s.accept(new Checker(tm));
+    }
+
+    // typeOf, one visit method per Expression class
+    private static class TypeOf implements ExpressionVisitor<Type> {
+        private final TypeMap tm;
+        private final boolean collecting;   // failures throw instead of exiting
+
+        TypeOf (TypeMap tm) { this(tm, false); }
+
+        TypeOf (TypeMap tm, boolean collecting) {
+            this.tm = tm;
+            this.collecting = collecting;
+        }
+
+        private void check (boolean test, String msg) {
+            Metrics.checks.increment();
+            if (!test) Metrics.error(Metrics.TYPE);
+            if (collecting && !test)
+                throw new Failure(msg);
+            StaticTypeCheck.check(test, msg);
+        }
+
+        public Type visit (Value v) { return v.type(); }
+
+        public Type visit (Variable v) { // containsKey is a hashMap method which takes an object and returns a bool
             check (tm.containsKey(v), "undefined variable: " + v);
-            return (Type) tm.get(v);
+            return tm.get(v);
         }
-        if (e instanceof Binary) {
-            Binary b = (Binary)e;
+
+        public Type visit (Binary b) {
             if (b.op.ArithmeticOp( ))
-                if (typeOf(b.term1,tm)== Type.FLOAT)
+                if (b.term1.accept(this) == Type.FLOAT)
                     return (Type.FLOAT);
                 else return (Type.INT);
             if (b.op.RelationalOp( ) || b.op.BooleanOp( ))
                 return (Type.BOOL);
+            throw new IllegalArgumentException("should never reach here");
         }
-        if (e instanceof Unary) {
-            Unary u = (Unary)e;
+
+        public Type visit (Unary u) {
             if (u.op.NotOp( ))        return (Type.BOOL);
-            else if (u.op.NegateOp( )) return typeOf(u.term,tm);
+            else if (u.op.NegateOp( )) return u.term.accept(this);
             else if (u.op.intOp( ))    return (Type.INT);
             else if (u.op.floatOp( )) return (Type.FLOAT);
             else if (u.op.charOp( ))  return (Type.CHAR);
+            throw new IllegalArgumentException("should never reach here");
+        }
+
+        public Type visit (ArrayRef r) {
+            Type t = tm.get(r.array);
+            check (t != null && t.element() != null, "not an array: " + r.array);
+            return t.element();
         }
-        throw new IllegalArgumentException("should never reach here");
     }
 
-    public static void V (Expression e, TypeMap tm) {
-        if (e instanceof Value)
-            return;
-        if (e instanceof Variable) {
-            Variable v = (Variable)e;
+    // V for Statements and Expressions, one visit method per class
+    private static class Checker implements StatementVisitor<Void>, ExpressionVisitor<Void> {
+        private final TypeMap tm;
+        private final TypeOf typeOf;
+        private final List<String> diagnostics;  // null: exit on the first error
+        private final ForkJoinPool pool;         // null: nested Blocks sequentially
+
+        Checker (TypeMap tm) { this(tm, null, null); }
+
+        Checker (TypeMap tm, List<String> diagnostics, ForkJoinPool pool) {
+            this.tm = tm;
+            this.diagnostics = diagnostics;
+            this.pool = pool;
+            typeOf = new TypeOf(tm, diagnostics != null);
+        }
+
+        private void check (boolean test, String msg) {
+            Metrics.checks.increment();
+            if (!test) Metrics.error(Metrics.TYPE);
+            if (diagnostics != null && !test)
+                throw new Failure(msg);
+            StaticTypeCheck.check(test, msg);
+        }
+
+        public Void visit (Value v) { return null; }
+
+        public Void visit (Variable v) {
             check( tm.containsKey(v)
                    , "undeclared variable: " + v);
-            return;
-        }
-        if (e instanceof Binary) {
-            Binary b = (Binary) e;
-            Type typ1 = typeOf(b.term1, tm);
-            Type typ2 = typeOf(b.term2, tm);
-            V (b.term1, tm);
-            V (b.term2, tm);
+            check( tm.get(v).element() == null
+                   , "array used without an index: " + v);
+            return null;
+        }
+
+        public Void visit (ArrayRef r) {
+            Type t = tm.get(r.array);
+            check( t != null && t.element() != null
+                   , "not an array: " + r.array);
+            index(r.index);
+            return null;
+        }
+
+        private void index (Expression i) {
+            i.accept(this);
+            check( i.accept(typeOf) == Type.INT
+                   , "array index is not an int: " + i);
+        }
+
+        public Void visit (Binary b) {
+            Type typ1 = b.term1.accept(typeOf);
+            Type typ2 = b.term2.accept(typeOf);
+            b.term1.accept(this);
+            b.term2.accept(this);
             if (b.op.ArithmeticOp( ))
                 check( typ1 == typ2 &&
                        (typ1 == Type.INT || typ1 == Type.FLOAT)
@@ -89,12 +278,12 @@ public class StaticTypeCheck {
                        b.op + ": non-bool operand");
             else
                 throw new IllegalArgumentException("should never reach here BinaryOp error");
-            return;
+            return null;
         }
-        if (e instanceof Unary) {
-            Unary u = (Unary) e;
-            Type type = typeOf(u.term, tm); //start here
-            V(u.term, tm);
+
+        public Void visit (Unary u) {
+            Type type = u.term.accept(typeOf); //start here
+            u.term.accept(this);
             if (u.op.NotOp()) {
                 check((type == Type.BOOL), "type error for NotOp " + u.op);
             }
@@ -104,23 +293,25 @@ public class StaticTypeCheck {
             else {
                 throw new IllegalArgumentException("should never reach here UnaryOp error");
             }
-            return;
+            return null;
         }
 
-        throw new IllegalArgumentException("should never reach here");
-    }
+        public Void visit (Skip s) { return null; }
 
-    public static void V (Statement s, TypeMap tm) {
-        if ( s == null )
-            throw new IllegalArgumentException( "AST error: null statement");
-        else if (s instanceof Skip) return;
-        else if (s instanceof Assignment) {
-            Assignment a = (Assignment)s;
+        public Void visit (Assignment a) {
             check( tm.containsKey(a.target)
                    , " undefined target in assignment: " + a.target);
-            V(a.source, tm);
-            Type ttype = (Type)tm.get(a.target); //ttype = target type; targets are only variables in Clite which are defined in the TypeMap
-            Type srctype = typeOf(a.source, tm); //scrtype = source type; sources are Expressions or Statements which are not in the TypeMap
+            a.source.accept(this);
+            Type ttype = tm.get(a.target); //ttype = target type; targets are only variables in Clite which are defined in the TypeMap
+            if (a.element != null) {   // an element of an array
+                check( ttype.element() != null
+                       , "not an array: " + a.target);
+                index(a.element.index);
+                ttype = ttype.element();
+            } else
+                check( ttype.element() == null
+                       , "assignment to a whole array: " + a.target);
+            Type srctype = a.source.accept(typeOf); //scrtype = source type; sources are Expressions or Statements which are not in the TypeMap
             if (ttype != srctype) {
                 if (ttype == Type.FLOAT)
                     check( srctype == Type.INT
@@ -132,39 +323,68 @@ public class StaticTypeCheck {
                     check( false
                            , "mixed mode assignment to " + a.target);
             }
-            return;
+            return null;
         }
-        else if (s instanceof Conditional) {
-            Conditional c = (Conditional)s;
-            V(c.test, tm);
-            Type testtype = typeOf(c.test, tm);
+
+        public Void visit (Conditional c) {
+            c.test.accept(this);
+            Type testtype = c.test.accept(typeOf);
             if (testtype == Type.BOOL) {
-                V(c.thenbranch, tm);
-                V(c.elsebranch, tm);
-                return;
+                statement(c.thenbranch);
+                statement(c.elsebranch);
             }else {
                 check( false, "poorly typed if in Conditional: " + c.test);
             }
+            return null;
         }
-        else if (s instanceof Loop) {
-            Loop l = (Loop)s;
-            V(l.test, tm);
-            Type testtype = typeOf(l.test, tm);
+
+        public Void visit (Loop l) {
+            l.test.accept(this);
+            Type testtype = l.test.accept(typeOf);
             if (testtype == Type.BOOL) {
-                V(l.body, tm);
+                statement(l.body);
             }else {
                 check ( false, "poorly typed test in while Loop in Conditional: " + l.test);
             }
+            return null;
+        }
+
+        public Void visit (Block b) {
+            PhaseEvents.BlockCheck event = new PhaseEvents.BlockCheck();
+            event.begin();
+            block(b);
+            event.end();
+            if (event.shouldCommit()) {
+                event.members = b.members.size();
+                event.commit();
+            }
+            return null;
         }
-        else if (s instanceof Block) {
-            Block b = (Block)s;
+
+        private void block (Block b) {
+            if (pool != null && b.members.size() > THRESHOLD) {
+                Members all = new Members(this, b.members, 0, b.members.size());
+                diagnostics.addAll(ForkJoinTask.inForkJoinPool() ? all.invoke() : pool.invoke(all));
+                return;
+            }
             for(Statement i : b.members) {
-                V(i, tm);
+                statement(i);
             }
+        }
 
-        } else {
-        throw new IllegalArgumentException("should never reach here");
-    }
+        private void statement (Statement s) {
+            if ( s == null )
+                throw new IllegalArgumentException( "AST error: null statement");
+            if (diagnostics == null) {
+                s.accept(this);
+                return;
+            }
+            try {
+                s.accept(this);
+            } catch (Failure f) {
+                diagnostics.add(f.getMessage());
+            }
+        }
     }
 
     public static void main(String args[]) {
@@ -175,7 +395,8 @@ public class StaticTypeCheck {
         System.out.print("Type map:");
         TypeMap map = typing(prog.decpart);
         // map.display();   // student exercise
-        V(prog);
+        for (String w : V(prog))
+            System.err.println(w);
         System.out.println(map);
     } //main
 
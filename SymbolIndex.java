@@ -0,0 +1,306 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// A persistent index of where each variable is read or assigned, over
+// many C++Lite files.  Parser reports every Variable occurrence (the
+// target of an Assignment is a write, one in an expression a read) with
+// its byte offset, and the postings are kept in a directory with two
+// files:
+//   postings.dat  memory-mapped, append-only; one block per indexed
+//                 version of a file: a term table sorted by the UTF-8
+//                 bytes of the identifier, then the names, then the
+//                 postings, each an int (offset << 1 | write)
+//   files.dat     path, modification time, size and block of every
+//                 file; small, rewritten on save
+// update(file) indexes a file again only if it changed, appending a new
+// block and dropping the old one; compact() rewrites postings.dat with
+// the live blocks only.  A file that does not parse is dropped from the
+// index and listed in failed instead.  postings.dat is mapped as one
+// buffer, so it is kept below 2 GB: an update that would pass that
+// fails with an IOException.  A query binary-searches the term table of
+// each live block in the mapped file, so nothing is parsed again.
+// Usage: java SymbolIndex dir add file...
+//        java SymbolIndex dir query identifier
+//        java SymbolIndex dir remove file... | compact
+
+public class SymbolIndex {
+
+    interface Uses {
+        void use (String id, int position, boolean write);
+    }
+
+    static final class Posting {
+        final String file;
+        final int offset;
+        final boolean write;
+
+        Posting (String f, int o, boolean w) { file = f; offset = o; write = w; }
+
+        public String toString ( ) {
+            return file + ":" + offset + (write ? " write" : " read");
+        }
+    }
+
+    private static final class FileEntry {
+        long modified, size;
+        long block;         // offset in postings.dat
+        int length;         // block length in bytes
+
+        FileEntry (long m, long s, long b, int l) { modified = m; size = s; block = b; length = l; }
+    }
+
+    private static final int MAGIC = 0x434c4958, VERSION = 1;   // "CLIX"
+    private static final int HEADER = 8, TERM = 12;   // term: name offset, postings offset, count
+    static final long LIMIT = Integer.MAX_VALUE;      // bytes of postings.dat
+    static final int MAX_SOURCE = Integer.MAX_VALUE >>> 1;  // a posting is offset << 1
+
+    private final Path dir, postings, files;
+    private final LinkedHashMap<String, FileEntry> table = new LinkedHashMap<String, FileEntry>();
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    private long dead = 0;      // bytes of dropped blocks
+    final LinkedHashMap<String, String> failed = new LinkedHashMap<String, String>();  // file, error
+
+    public SymbolIndex (Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        postings = dir.resolve("postings.dat");
+        files = dir.resolve("files.dat");
+        channel = FileChannel.open(postings, StandardOpenOption.CREATE,
+                                   StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            ByteBuffer h = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION);
+            h.flip();
+            channel.write(h, 0);
+        }
+        remap();
+        if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION)
+            throw new IOException("not a symbol index: " + postings);
+        if (Files.exists(files))
+            load();
+    }
+
+    private void remap ( ) throws IOException {
+        map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    private void load ( ) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(Files.newInputStream(files)))) {
+            int n = in.readInt();
+            dead = in.readLong();
+            for (int i = 0; i < n; i++) {
+                String path = in.readUTF();
+                table.put(path, new FileEntry(in.readLong(), in.readLong(),
+                                              in.readLong(), in.readInt()));
+            }
+        }
+    }
+
+    public void save ( ) throws IOException {
+        channel.force(false);
+        Path tmp = dir.resolve("files.tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(table.size());
+            out.writeLong(dead);
+            for (Map.Entry<String, FileEntry> e : table.entrySet()) {
+                FileEntry f = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(f.modified);
+                out.writeLong(f.size);
+                out.writeLong(f.block);
+                out.writeInt(f.length);
+            }
+        }
+        Files.move(tmp, files, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void close ( ) throws IOException {
+        save();
+        channel.close();
+    }
+
+    public int files ( ) { return table.size(); }
+
+    // indexes file if it is new or changed; true if it was parsed
+    public boolean update (Path file) throws IOException {
+        String key = file.toAbsolutePath().normalize().toString();
+        long modified = Files.getLastModifiedTime(file).toMillis(), size = Files.size(file);
+        FileEntry old = table.get(key);
+        if (old != null && old.modified == modified && old.size == size)
+            return false;
+        failed.remove(key);
+        byte[ ] block;
+        try {
+            if (size > MAX_SOURCE)
+                throw new IllegalStateException("larger than " + MAX_SOURCE + " bytes");
+            block = block(Files.readAllBytes(file));
+        } catch (IllegalStateException e) {    // a lexical or syntax error
+            failed.put(key, e.getMessage());
+            remove(file);
+            return false;
+        }
+        long at = channel.size();
+        if (at + block.length > LIMIT)
+            throw new IOException("postings.dat would pass 2 GB with " + file
+                                  + "; compact or split the index");
+        channel.write(ByteBuffer.wrap(block), at);
+        if (old != null)
+            dead += old.length;
+        table.put(key, new FileEntry(modified, size, at, block.length));
+        remap();
+        return true;
+    }
+
+    public void remove (Path file) {
+        FileEntry old = table.remove(file.toAbsolutePath().normalize().toString());
+        if (old != null)
+            dead += old.length;
+    }
+
+    // the block of one source file
+    static byte[ ] block (byte[ ] source) {
+        TreeMap<byte[ ], int[ ]> terms = new TreeMap<byte[ ], int[ ]>(Arrays::compareUnsigned);
+        HashMap<String, byte[ ]> names = new HashMap<String, byte[ ]>();
+        SourceLexer lexer = new SourceLexer(source, 0);
+        lexer.speculative(true);
+        Parser parser = new Parser(lexer);
+        parser.speculative = true;
+        parser.uses = (id, position, write) -> {
+            byte[ ] name = names.computeIfAbsent(id, k -> k.getBytes(StandardCharsets.UTF_8));
+            int[ ] list = terms.get(name);
+            if (list == null)
+                list = new int[4];                  // list[0]: count
+            else if (list[0] + 1 == list.length)
+                list = Arrays.copyOf(list, list.length * 2);
+            list[++list[0]] = position << 1 | (write ? 1 : 0);
+            terms.put(name, list);
+        };
+        parser.program();
+        int nameBytes = 0, count = 0;
+        for (Map.Entry<byte[ ], int[ ]> t : terms.entrySet()) {
+            nameBytes += 2 + t.getKey().length;
+            count += t.getValue()[0];
+        }
+        int namesAt = 4 + TERM * terms.size(), postingsAt = namesAt + nameBytes;
+        ByteBuffer b = ByteBuffer.allocate(postingsAt + 4 * count);
+        b.putInt(terms.size());
+        int name = namesAt, posting = postingsAt;
+        for (Map.Entry<byte[ ], int[ ]> t : terms.entrySet()) {
+            b.putInt(name).putInt(posting).putInt(t.getValue()[0]);
+            name += 2 + t.getKey().length;
+            posting += 4 * t.getValue()[0];
+        }
+        for (byte[ ] n : terms.keySet())
+            b.putShort((short)n.length).put(n);
+        for (int[ ] list : terms.values())
+            for (int i = 1; i <= list[0]; i++)
+                b.putInt(list[i]);
+        return b.array();
+    }
+
+    public List<Posting> query (String id) {
+        byte[ ] name = id.getBytes(StandardCharsets.UTF_8);
+        ArrayList<Posting> result = new ArrayList<Posting>();
+        for (Map.Entry<String, FileEntry> e : table.entrySet()) {
+            int block = Math.toIntExact(e.getValue().block);  // below LIMIT
+            int lo = 0, hi = map.getInt(block) - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1, term = block + 4 + TERM * mid;
+                int c = compare(block + map.getInt(term), name);
+                if (c < 0) lo = mid + 1;
+                else if (c > 0) hi = mid - 1;
+                else {
+                    int at = block + map.getInt(term + 4), n = map.getInt(term + 8);
+                    for (int i = 0; i < n; i++) {
+                        int p = map.getInt(at + 4 * i);
+                        result.add(new Posting(e.getKey(), p >>> 1, (p & 1) != 0));
+                    }
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    // the name stored at offset against name, as unsigned bytes
+    private int compare (int offset, byte[ ] name) {
+        int length = map.getShort(offset);
+        for (int i = 0; i < length && i < name.length; i++) {
+            int c = Integer.compare(map.get(offset + 2 + i) & 0xff, name[i] & 0xff);
+            if (c != 0) return c;
+        }
+        return Integer.compare(length, name.length);
+    }
+
+    // rewrites postings.dat with only the live blocks
+    public void compact ( ) throws IOException {
+        Path tmp = dir.resolve("postings.tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer h = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION);
+            h.flip();
+            out.write(h);
+            long at = HEADER;
+            for (FileEntry f : table.values()) {
+                ByteBuffer b = map.duplicate();
+                int block = Math.toIntExact(f.block);   // below LIMIT
+                b.position(block).limit(block + f.length);
+                while (b.hasRemaining())
+                    out.write(b);
+                f.block = at;
+                at += f.length;
+            }
+            out.force(false);
+        }
+        channel.close();
+        map = null;
+        Files.move(tmp, postings, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(postings, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        remap();
+        dead = 0;
+        save();
+    }
+
+    public static void main (String args[]) throws IOException {
+        SymbolIndex index = new SymbolIndex(Paths.get(args[0]));
+        String command = args[1];
+        long t0 = System.nanoTime();
+        if (command.equals("add")) {
+            int parsed = 0;
+            for (int i = 2; i < args.length; i++)
+                if (index.update(Paths.get(args[i])))
+                    parsed++;
+            for (Map.Entry<String, String> f : index.failed.entrySet())
+                System.err.println(f.getKey() + ": " + f.getValue());
+            System.out.println(parsed + " of " + (args.length - 2) + " files indexed, "
+                               + index.failed.size() + " failed, "
+                               + index.files() + " in the index");
+        } else if (command.equals("remove")) {
+            for (int i = 2; i < args.length; i++)
+                index.remove(Paths.get(args[i]));
+        } else if (command.equals("compact")) {
+            index.compact();
+        } else if (command.equals("query")) {
+            List<Posting> result = index.query(args[2]);
+            t0 -= System.nanoTime();    // the time without printing
+            for (Posting p : result)
+                System.out.println(p);
+            System.out.println(result.size() + " postings");
+            t0 += System.nanoTime();
+        } else {
+            System.out.println("unknown command: " + command);
+            System.exit(1);
+        }
+        System.out.printf("%.2f ms%n", (System.nanoTime() - t0) / 1e6);
+        index.close();
+    } // main
+
+} // class SymbolIndex
@@ -0,0 +1,109 @@
+import java.util.*;
+
+// Tiered execution: Semantics that interprets the abstract syntax tree
+// while counting the iterations of every Loop and the executions of
+// every Block.  A Loop that reaches LOOP_THRESHOLD iterations, or a
+// Block executed BLOCK_THRESHOLD times, is compiled to Bytecode; a loop
+// switches to its code at the next iteration boundary, and every later
+// execution of the node runs the code directly.  A node that cannot be
+// compiled, or whose code cannot start because a variable it reads is
+// still undef, keeps being interpreted.  The program is expected to be
+// type checked.
+
+public class TieredSemantics extends Semantics {
+
+    static final int LOOP_THRESHOLD = Integer.getInteger("tier.loop", 100);
+    static final int BLOCK_THRESHOLD = Integer.getInteger("tier.block", 50);
+
+    private static final class Profile {
+        long count;             // iterations of a Loop, executions of a Block
+        Bytecode code;
+        boolean failed;         // not compilable
+    }
+
+    private final IdentityHashMap<Statement, Profile> profiles = new IdentityHashMap<Statement, Profile>();
+    private TypeMap tm;
+    int compiled = 0;           // nodes compiled
+    long compiledRuns = 0;      // executions of compiled code
+
+    State M (Program p) {
+        tm = StaticTypeCheck.typing(p.decpart);
+        return super.M(p);
+    }
+
+    private Profile profile (Statement s) {
+        Profile p = profiles.get(s);
+        if (p == null) {
+            p = new Profile();
+            profiles.put(s, p);
+        }
+        return p;
+    }
+
+    // the code of s once it is hot, compiling it the first time
+    private Bytecode hot (Statement s, Profile p, int threshold) {
+        if (p.code == null && !p.failed && p.count >= threshold) {
+            p.code = Bytecode.compile(s, tm, proven);
+            p.failed = p.code == null;
+            if (!p.failed) compiled++;
+        }
+        return p.code;
+    }
+
+    private boolean run (Bytecode code, State state) {
+        if (code == null || !code.run(state))
+            return false;
+        compiledRuns++;
+        return true;
+    }
+
+    State M (Block b, State state) {
+        Profile p = profile(b);
+        p.count++;
+        if (run(hot(b, p, BLOCK_THRESHOLD), state))
+            return state;
+        return super.M(b, state);
+    }
+
+    State M (Loop l, State state) {
+        Profile p = profile(l);
+        if (run(p.code, state))
+            return state;
+        while (M (l.test, state).boolValue( )) {
+            state = M(l.body, state);
+            p.count++;
+            if (p.code == null && run(hot(l, p, LOOP_THRESHOLD), state))
+                return state;   // the remaining iterations ran compiled
+        }
+        return state;
+    }
+
+    public static void main(String args[]) {
+        Program prog = new Parser(new Lexer(args[0])).program();
+        StaticTypeCheck.V(prog);
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        for (int round = 0; round < runs; round++) {
+            Semantics plain = new Semantics( );
+            TieredSemantics tiered = new TieredSemantics( );
+            long t0 = System.nanoTime();
+            State expected = plain.M(prog);
+            long t1 = System.nanoTime();
+            State actual = tiered.M(prog);
+            long t2 = System.nanoTime();
+            for (Declaration d : prog.decpart)
+                StaticTypeCheck.check(("" + expected.get(d.v)).equals("" + actual.get(d.v)),
+                       "tiered result differs at " + d.v + ": "
+                       + expected.get(d.v) + " != " + actual.get(d.v));
+            if (round == runs - 1) {
+                System.out.print("Final State: ");
+                actual.display( );
+                System.out.println("compiled nodes: " + tiered.compiled + ", compiled runs: "
+                                   + tiered.compiledRuns + ", evaluations: "
+                                   + plain.evaluations + " -> " + tiered.evaluations);
+            }
+            System.out.printf("round %d: interpreted %.2f ms, tiered %.2f ms%n",
+                              round, (t1 - t0) / 1e6, (t2 - t1) / 1e6);
+        }
+    } //main
+
+} // class TieredSemantics
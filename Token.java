@@ -1,9 +1,6 @@
 public class Token {
 
-    private static final int KEYWORDS = TokenType.Eof.ordinal();
-
-    private static final String[] reserved = new String[KEYWORDS];
-    private static Token[] token = new Token[KEYWORDS];
+    private static final Token[] fixed = new Token[TokenType.Identifier.ordinal()];
 
     public static final Token eofTok = new Token(TokenType.Eof, "<<EOF>>");
     public static final Token boolTok = new Token(TokenType.Bool, "bool");
@@ -45,23 +42,34 @@ public class Token {
     private Token (TokenType t, String v) {
         type = t;
         value = v;
-        if (t.compareTo(TokenType.Eof) < 0) {
-            int ti = t.ordinal();
-            reserved[ti] = v;
-            token[ti] = this;
-        }
+        if (t.compareTo(TokenType.Identifier) < 0)
+            fixed[t.ordinal()] = this;
     }
 
     public TokenType type( ) { return type; }
 
     public String value( ) { return value; }
 
+    public static Token fixed (TokenType t) { // the one token of a keyword or symbol type
+        return fixed[t.ordinal()];
+    }
+
     public static Token keyword  ( String name ) {
-        char ch = name.charAt(0);
-        if (ch >= 'A' && ch <= 'Z') return mkIdentTok(name);
-        for (int i = 0; i < KEYWORDS; i++)
-           if (name.equals(reserved[i]))  return token[i];
-        return mkIdentTok(name);
+        // constant case labels: javac compiles this to a lookupswitch on
+        // the hash code, so no keyword table is built at class load
+        switch (name) {
+            case "bool":  return boolTok;
+            case "char":  return charTok;
+            case "else":  return elseTok;
+            case "false": return falseTok;
+            case "float": return floatTok;
+            case "if":    return ifTok;
+            case "int":   return intTok;
+            case "main":  return mainTok;
+            case "true":  return trueTok;
+            case "while": return whileTok;
+            default:      return mkIdentTok(name);
+        }
     } // keyword
 
     public static Token mkIdentTok (String name) {
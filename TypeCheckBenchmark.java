@@ -0,0 +1,54 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Sequential against fork-join type checking of a generated C++Lite
+// program with one large top-level Block.  Every 1000th statement has a
+// type error, so both runs must return the same diagnostics in the same
+// order; then each is timed several times.
+// Usage: java TypeCheckBenchmark [statements] [threads]
+
+public class TypeCheckBenchmark {
+
+    static String generate (int statements) {
+        StringBuilder sb = new StringBuilder("int main(){\n\tint x, y;\n\tfloat f;\n\tbool b;\n");
+        for (int i = 0; i < statements; i++) {
+            if (i % 1000 == 999) {
+                sb.append("\tx = f + ").append(i).append(";\n");  // type error for +
+                continue;
+            }
+            switch (i % 4) {
+            case 0: sb.append("\tx = x + y * ").append(i).append(";\n"); break;
+            case 1: sb.append("\tif (x < ").append(i).append(" && b) { y = y - 1; } else { f = f * 2.5; }\n"); break;
+            case 2: sb.append("\twhile (x > y) { x = x - ").append(i).append("; }\n"); break;
+            default: sb.append("\tb = !b || (f > 1.5);\n");
+            }
+        }
+        return sb.append("}\n").toString();
+    }
+
+    public static void main (String args[]) throws IOException {
+        int statements = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        ForkJoinPool pool = args.length > 1 ? new ForkJoinPool(Integer.parseInt(args[1]))
+                                            : ForkJoinPool.commonPool();
+        Path file = Files.createTempFile("check", ".c");
+        Files.write(file, generate(statements).getBytes("US-ASCII"));
+        file.toFile().deleteOnExit();
+        Program prog = new Parser(new Lexer(file.toString())).program();
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.nanoTime();
+            List<String> sequential = StaticTypeCheck.V(prog, null);
+            long t1 = System.nanoTime();
+            List<String> parallel = StaticTypeCheck.V(prog, pool);
+            long t2 = System.nanoTime();
+            if (!parallel.equals(sequential))
+                throw new IllegalStateException("diagnostics differ");
+            System.out.printf("round %d: %d statements, %d diagnostics, "
+                              + "sequential %.1f ms, parallel (%d threads) %.1f ms%n",
+                              round, prog.body.members.size(), parallel.size(),
+                              (t1 - t0) / 1e6, pool.getParallelism(), (t2 - t1) / 1e6);
+        }
+    } //main
+
+} // class TypeCheckBenchmark
@@ -0,0 +1,50 @@
+import jdk.incubator.vector.*;
+
+// ByteScan's loops on the Vector API: each step loads the preferred
+// number of bytes (32 with AVX2, 64 with AVX-512), compares them all
+// against the bytes looked for and stops at the first lane that
+// matches; the bytes after the last whole vector go through ByteScan's
+// scalar loops.  Most whitespace runs are a space or two between
+// tokens, shorter than a vector load is worth, so the first SHORT
+// bytes of a run are tested one at a time.  Only ByteScan calls it, and
+// only once it has found the jdk.incubator.vector module, so the class
+// is never loaded without it; compiling it needs the module too:
+//     javac --add-modules jdk.incubator.vector *.java
+
+final class VectorScan {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final int SHORT = 8;
+
+    static int skipWhitespace (byte[ ] buf, int pos, int end) {
+        for (int stop = Math.min(end, pos + SHORT); pos < stop; pos++)
+            if (!ByteScan.space(buf[pos]))
+                return pos;
+        for (; pos + LANES <= end; pos += LANES) {
+            ByteVector v = ByteVector.fromArray(SPECIES, buf, pos);
+            VectorMask<Byte> other = v.compare(VectorOperators.NE, (byte)' ')
+                .and(v.compare(VectorOperators.NE, (byte)'\t'))
+                .and(v.compare(VectorOperators.NE, (byte)'\r'))
+                .and(v.compare(VectorOperators.NE, (byte)'\n'));
+            if (other.anyTrue())
+                return pos + other.firstTrue();
+        }
+        return ByteScan.scalarSkipWhitespace(buf, pos, end);
+    }
+
+    static int lineEnd (byte[ ] buf, int pos, int end) {
+        for (int stop = Math.min(end, pos + SHORT); pos < stop; pos++)
+            if (buf[pos] == '\n' || buf[pos] == '\r')
+                return pos;
+        for (; pos + LANES <= end; pos += LANES) {
+            ByteVector v = ByteVector.fromArray(SPECIES, buf, pos);
+            VectorMask<Byte> eol = v.compare(VectorOperators.EQ, (byte)'\n')
+                .or(v.compare(VectorOperators.EQ, (byte)'\r'));
+            if (eol.anyTrue())
+                return pos + eol.firstTrue();
+        }
+        return ByteScan.scalarLineEnd(buf, pos, end);
+    }
+
+} // class VectorScan
@@ -0,0 +1,16 @@
+int main(){
+	int x, y, z, i, s;
+
+	x = 3;
+	y = 4;
+	i = 0;
+	s = 0;
+
+	while(i < 100){
+		z = (x+y)*(x+y) + (x+y);
+		s = s + (x+y)*(x+y) - i;
+		x = x + 1;
+		s = s + (x+y)*(x+y);
+		i = i + 1;
+	}
+}
@@ -0,0 +1,21 @@
+int main(){
+	int i, n, k, s, w;
+	float r, a;
+	bool b, c;
+
+	i = 0;
+	n = 1000;
+	k = 7;
+	s = 0;
+	r = 2.5;
+	a = 0.0;
+
+	while(i < n){
+		w = i*k;
+		s = s + w + (n*k + 3);
+		a = a + r*r;
+		b = i < 3 && w > 5;
+		c = b || s < 0;
+		i = i + 1;
+	}
+}